@@ -0,0 +1,54 @@
+package frc.robot;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Loads the bundled 2018 vision target images for the benchmarks, scaled to a capture resolution.
+ * The image directory comes from the vision.images system property set by the jmh gradle task.
+ */
+public final class BenchmarkImages {
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	private BenchmarkImages() {
+	}
+
+	/**
+	 * Reads every jpg in the image directory and resizes it.
+	 * @param resolution the capture resolution as WIDTHxHEIGHT, e.g. 320x240
+	 * @return the frames in BGR, sorted by file name
+	 */
+	public static List<Mat> load(String resolution) {
+		String dir = System.getProperty("vision.images");
+		if (dir == null) {
+			throw new IllegalStateException("vision.images is not set; run the benchmarks with ./gradlew jmh");
+		}
+		File[] files = new File(dir).listFiles((d, name) -> name.toLowerCase().endsWith(".jpg"));
+		if (files == null || files.length == 0) {
+			throw new IllegalStateException("No jpg images found in " + dir);
+		}
+		Arrays.sort(files);
+
+		String[] dims = resolution.split("x");
+		Size size = new Size(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+		List<Mat> frames = new ArrayList<Mat>();
+		for (File file : files) {
+			Mat image = Imgcodecs.imread(file.getAbsolutePath());
+			Mat frame = new Mat();
+			Imgproc.resize(image, frame, size, 0, 0, Imgproc.INTER_AREA);
+			image.release();
+			frames.add(frame);
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,127 @@
+package frc.robot;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Java side of a frame with heap copies and with DirectMats: the grab, the HSL threshold
+ * and the centroid of the mask. "heap" is how frames went before, a plain Mat grabbed into and copied
+ * out with Mat.get() and the mask copied back with Mat.put(). "direct" grabs into a preallocated
+ * DirectMat and thresholds into another, read and written in place.
+ *
+ * <p>The grab is a copyTo() into the frame, which is what CvSink.grabFrame() does with the decoded
+ * image; that native copy is the same for both and isn't counted. The bytesCopied and frames counters
+ * total what the threshold and centroid copied between Mats and the Java heap, and how many frames,
+ * over the measurement; the bytes per frame is also printed at the end of each trial. It should be 0
+ * for "direct".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCopyBenchmark {
+
+	// These must match the values in GripPipeline.process
+	private static final double[] HUE = {9.712230215827338, 70.01866083924669};
+	private static final double[] SATURATION = {199.50539568345317, 255.0};
+	private static final double[] LUMINANCE = {30.07566043909661, 255.0};
+
+	/**
+	 * Bytes copied and frames processed, reported next to the throughput. JMH adds these up over the
+	 * measurement iterations.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Copies {
+		public long bytesCopied;
+		public long frames;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytesCopied = 0;
+			frames = 0;
+		}
+	}
+
+	@Param({"heap", "direct"})
+	public String storage;
+
+	@Param({"320x240", "640x480"})
+	public String resolution;
+
+	private List<Mat> images;
+	private Mat frame;
+	private Mat mask;
+	private LutThreshold threshold;
+	private MaskCentroid centroid;
+	private final Rect whole = new Rect();
+	private final Point center = new Point();
+	private int next;
+	private long trialFrames;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		images = BenchmarkImages.load(resolution);
+		Mat first = images.get(0);
+		if (storage.equals("direct")) {
+			frame = new DirectMat(first.rows(), first.cols(), first.type());
+			mask = new DirectMat();
+		} else {
+			frame = new Mat();
+			mask = new Mat();
+		}
+		threshold = new LutThreshold();
+		centroid = new MaskCentroid();
+		whole.width = first.cols();
+		whole.height = first.rows();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.out.println(String.format(Locale.ROOT, "%s frames at %s: %.0f bytes copied per frame", storage, resolution,
+			bytesCopied() / (double)trialFrames));
+		for (Mat image : images) {
+			image.release();
+		}
+		frame.release();
+		mask.release();
+	}
+
+	@Benchmark
+	public Point thresholdAndCentroid(Copies copies) {
+		long before = bytesCopied();
+		images.get(next).copyTo(frame);
+		next = (next + 1) % images.size();
+		threshold.threshold(frame, HUE, SATURATION, LUMINANCE, mask);
+		centroid.centroid(mask, whole, center);
+		copies.bytesCopied += bytesCopied() - before;
+		copies.frames++;
+		trialFrames++;
+		return center;
+	}
+
+	private long bytesCopied() {
+		return threshold.getBytesCopied() + centroid.getBytesCopied();
+	}
+}
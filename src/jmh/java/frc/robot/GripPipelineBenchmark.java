@@ -0,0 +1,133 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks GripPipeline.process and each of its stages over the bundled 2018 target images.
+ * Every invocation processes the next image, so a score is the average over the whole image set.
+ * The stage benchmarks are fed the previous stage's output, computed once during setup.
+ * hslThreshold is the lookup table threshold the pipeline uses; hslThresholdOpenCv is GRIP's original.
+ * processRuntime runs the same pipeline loaded from the deployed .grip file by GripProgram.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GripPipelineBenchmark {
+
+	// These must match the values in GripPipeline.process
+	private static final double[] HUE = {9.712230215827338, 70.01866083924669};
+	private static final double[] SATURATION = {199.50539568345317, 255.0};
+	private static final double[] LUMINANCE = {30.07566043909661, 255.0};
+	private static final double[] SOLIDITY = {0, 100};
+
+	@Param({"160x120", "320x240", "640x480"})
+	public String resolution;
+
+	private GripPipeline pipeline;
+	private GripRuntimePipeline runtime;
+	private List<Mat> frames;
+	private List<Mat> masks;
+	private List<ArrayList<MatOfPoint>> contours;
+	private Mat mask;
+	private ArrayList<MatOfPoint> found;
+	private ArrayList<MatOfPoint> filtered;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		pipeline = new GripPipeline();
+		String grip = System.getProperty("vision.grip");
+		if (grip == null) {
+			throw new IllegalStateException("vision.grip is not set; run the benchmarks with ./gradlew jmh");
+		}
+		runtime = GripProgram.load(new File(grip)).newPipeline();
+		frames = BenchmarkImages.load(resolution);
+		masks = new ArrayList<Mat>();
+		contours = new ArrayList<ArrayList<MatOfPoint>>();
+		for (Mat frame : frames) {
+			pipeline.process(frame);
+			masks.add(pipeline.hslThresholdOutput().clone());
+			contours.add(new ArrayList<MatOfPoint>(pipeline.findContoursOutput()));
+		}
+		mask = new Mat();
+		found = new ArrayList<MatOfPoint>();
+		filtered = new ArrayList<MatOfPoint>();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (Mat frame : frames) {
+			frame.release();
+		}
+		for (Mat m : masks) {
+			m.release();
+		}
+		mask.release();
+	}
+
+	private int nextFrame() {
+		int index = next;
+		next = (next + 1) % frames.size();
+		return index;
+	}
+
+	@Benchmark
+	public List<MatOfPoint> process() {
+		pipeline.process(frames.get(nextFrame()));
+		return pipeline.filterContoursOutput();
+	}
+
+	@Benchmark
+	public List<MatOfPoint> processRuntime() {
+		runtime.process(frames.get(nextFrame()));
+		return runtime.contoursOutput();
+	}
+
+	@Benchmark
+	public Mat hslThreshold() {
+		pipeline.hslThreshold(frames.get(nextFrame()), HUE, SATURATION, LUMINANCE, mask);
+		return mask;
+	}
+
+	@Benchmark
+	public Mat hslThresholdOpenCv() {
+		pipeline.hslThresholdOpenCv(frames.get(nextFrame()), HUE, SATURATION, LUMINANCE, mask);
+		return mask;
+	}
+
+	@Benchmark
+	public List<MatOfPoint> findContours() {
+		pipeline.findContours(masks.get(nextFrame()), false, found);
+		return found;
+	}
+
+	@Benchmark
+	public List<MatOfPoint> filterContours() {
+		pipeline.filterContours(contours.get(nextFrame()), 100.0, 0.0, 0.0, 1000.0, 60.0, 1000.0,
+			SOLIDITY, 1000000.0, 0.0, 0.0, 1000.0, filtered);
+		return filtered;
+	}
+}
@@ -0,0 +1,77 @@
+package frc.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import frc.VisionExample.org.usfirst.frc.team1.robot.PairMatcher;
+import frc.VisionExample.org.usfirst.frc.team1.robot.TargetScorer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the VisionExample pair scorers over the contours the pipeline finds in the bundled
+ * 2018 target images. "filtered" scores the filterContours output, which is what the robot does;
+ * "unfiltered" scores every contour found, which stands in for a frame full of reflections.
+ * findTarget is the original all-pairs TargetScorer and match is the pruned PairMatcher.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetScorerBenchmark {
+
+	@Param({"160x120", "320x240", "640x480"})
+	public String resolution;
+
+	@Param({"filtered", "unfiltered"})
+	public String contourSet;
+
+	private TargetScorer scorer;
+	private PairMatcher matcher;
+	private List<List<MatOfPoint>> contours;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		scorer = new TargetScorer();
+		matcher = new PairMatcher(3);
+		GripPipeline pipeline = new GripPipeline();
+		contours = new ArrayList<List<MatOfPoint>>();
+		for (Mat frame : BenchmarkImages.load(resolution)) {
+			pipeline.process(frame);
+			contours.add(new ArrayList<MatOfPoint>("filtered".equals(contourSet)
+				? pipeline.filterContoursOutput() : pipeline.findContoursOutput()));
+			frame.release();
+		}
+	}
+
+	@Benchmark
+	public Object findTarget() {
+		List<MatOfPoint> frame = contours.get(next);
+		next = (next + 1) % contours.size();
+		return scorer.findTarget(frame);
+	}
+
+	@Benchmark
+	public int match() {
+		List<MatOfPoint> frame = contours.get(next);
+		next = (next + 1) % contours.size();
+		return matcher.match(frame);
+	}
+}
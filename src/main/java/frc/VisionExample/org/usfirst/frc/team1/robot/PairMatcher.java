@@ -0,0 +1,259 @@
+package frc.VisionExample.org.usfirst.frc.team1.robot;
+
+import java.util.List;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the contour pairs that best match the 2018 Vision Target. This does the same job as
+ * TargetScorer but is built to stay real-time with 50+ contours in the frame:
+ *
+ * <ul>
+ * <li>Every bounding rect is computed once per frame into primitive arrays instead of once per pair.</li>
+ * <li>Contours are visited left to right, and the inner loop stops as soon as the horizontal spacing
+ * is too wide for the pair to reach SCORE_THRESHOLD. Pairs whose width and height ratios alone rule
+ * them out are skipped before the remaining scores are computed.</li>
+ * <li>The 6 ratios from the ReadMe are computed in floating point with the bounding box that actually
+ * contains both contours, so nothing is truncated by integer division. The left spacing score is
+ * 1 at 3/4 of the target width, as the ReadMe and TargetScorer's comment say; TargetScorer's
+ * {@code dx*3/(4*right-left)} peaks at 4/3 instead, so the two rank some pairs differently.</li>
+ * <li>The best K pairs are kept, best first, and nothing is allocated once the buffers have grown to
+ * the largest contour count seen.</li>
+ * </ul>
+ *
+ * <p>Instances are not thread safe; keep one per VisionThread.
+ */
+public class PairMatcher {
+
+	public static final double SCORE_THRESHOLD = TargetScorer.SCORE_THRESHOLD;
+
+	// Bounding rects of the contours, indexed by contour
+	private int[] x = new int[64];
+	private int[] y = new int[64];
+	private int[] width = new int[64];
+	private int[] height = new int[64];
+	// Contour indices sorted by x
+	private int[] order = new int[64];
+
+	// Top K matches, best first
+	private final int capacity;
+	private final double[] scores;
+	private final int[] first;
+	private final int[] second;
+	private int matches;
+	private int pairsScored;
+
+	/**
+	 * @param topK the number of best pairs to keep each frame
+	 */
+	public PairMatcher(int topK) {
+		if (topK < 1) {
+			throw new IllegalArgumentException("topK must be at least 1");
+		}
+		capacity = topK;
+		scores = new double[topK];
+		first = new int[topK];
+		second = new int[topK];
+	}
+
+	/**
+	 * Scores the pairs in a frame's contours.
+	 * @param contours the filtered contours from the pipeline
+	 * @return the number of pairs above SCORE_THRESHOLD that were kept, at most topK
+	 */
+	public int match(List<MatOfPoint> contours) {
+		final int n = contours.size();
+		if (x.length < n) {
+			x = new int[2 * n];
+			y = new int[2 * n];
+			width = new int[2 * n];
+			height = new int[2 * n];
+			order = new int[2 * n];
+		}
+
+		int maxWidth = 0, minTop = Integer.MAX_VALUE, maxBottom = 0;
+		for (int i = 0; i < n; i++) {
+			Rect r = Imgproc.boundingRect(contours.get(i));
+			x[i] = r.x;
+			y[i] = r.y;
+			width[i] = r.width;
+			height[i] = r.height;
+			maxWidth = Math.max(maxWidth, r.width);
+			minTop = Math.min(minTop, r.y);
+			maxBottom = Math.max(maxBottom, r.y + r.height);
+		}
+		sortByX(n);
+		return matchSorted(n, maxWidth, maxBottom - minTop);
+	}
+
+	/**
+	 * Scores the pairs of the rects already loaded and sorted by x.
+	 */
+	private int matchSorted(int n, int maxWidth, int span) {
+		matches = 0;
+		pairsScored = 0;
+		for (int a = 0; a < n; a++) {
+			final int i = order[a];
+			for (int b = a + 1; b < n; b++) {
+				final int j = order[b];
+				final int dx = x[j] - x[i];
+				// Sorted by x, so dx only grows from here. The contour width score is at most
+				// 4 * maxWidth / dx and the bounding ratio score at most span / (2 * dx); once
+				// those two can't add up to the 50 points the other four leave, no later j can match.
+				if (dx > 0 && 400.0 + Math.min(100, 400.0 * maxWidth / dx)
+						+ Math.min(100, 50.0 * span / dx) <= SCORE_THRESHOLD) {
+					break;
+				}
+				scorePair(i, j);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Scores one pair and keeps it if it is among the best K.
+	 */
+	private void scorePair(int i, int j) {
+		// The ReadMe's rectangle 1 is the larger of the two
+		if (width[j] * height[j] > width[i] * height[i]) {
+			int swap = i;
+			i = j;
+			j = swap;
+		}
+
+		//The height and width of the two contours should match. These are cheap and rule out most pairs
+		final double heightRatio = ratioToScore(height[i] / (double)height[j]);
+		final double widthRatio = ratioToScore(width[i] / (double)width[j]);
+		double total = heightRatio + widthRatio;
+		if (total + 400 <= threshold()) {
+			return;
+		}
+		pairsScored++;
+
+		final int left = Math.min(x[i], x[j]);
+		final int right = Math.max(x[i] + width[i], x[j] + width[j]);
+		final int top = Math.min(y[i], y[j]);
+		final int bottom = Math.max(y[i] + height[i], y[j] + height[j]);
+		final double bbWidth = right - left;
+		final double bbHeight = bottom - top;
+
+		//The height of the bounding box around both rectangles should be approximately double the width
+		total += ratioToScore(bbHeight / (2 * bbWidth));
+		//The width of either contour should be approximately 1/4 of the total bounding box width
+		total += ratioToScore(width[i] * 4 / bbWidth);
+		//The top edges should be very close together, scaled by the bounding box height, plus 1
+		total += ratioToScore(1 + (y[i] - y[j]) / bbHeight);
+		//The spacing between the left edges should be 3/4 of the target width. This is dx / (3/4 width), which
+		//is 1 at that spacing; TargetScorer's dx*3/(4*right-left) is 1 at 4/3 of the width
+		total += ratioToScore(Math.abs(x[j] - x[i]) * 4 / (3 * bbWidth));
+
+		if (total > threshold()) {
+			insert(total, i, j);
+		}
+	}
+
+	/**
+	 * The score a pair must beat: SCORE_THRESHOLD, or the worst kept pair once K are kept.
+	 */
+	private double threshold() {
+		return matches < capacity ? SCORE_THRESHOLD : scores[capacity - 1];
+	}
+
+	private void insert(double total, int i, int j) {
+		int slot = Math.min(matches, capacity - 1);
+		while (slot > 0 && scores[slot - 1] < total) {
+			scores[slot] = scores[slot - 1];
+			first[slot] = first[slot - 1];
+			second[slot] = second[slot - 1];
+			slot--;
+		}
+		scores[slot] = total;
+		first[slot] = i;
+		second[slot] = j;
+		if (matches < capacity) {
+			matches++;
+		}
+	}
+
+	/**
+	 * Insertion sort of the contour indices by x. Contour counts are small and the pipeline
+	 * output is often nearly sorted already, so this beats boxing into Arrays.sort.
+	 */
+	private void sortByX(int n) {
+		for (int a = 0; a < n; a++) {
+			final int index = order[a] = a;
+			int b = a;
+			while (b > 0 && x[order[b - 1]] > x[index]) {
+				order[b] = order[b - 1];
+				b--;
+			}
+			order[b] = index;
+		}
+	}
+
+	/**
+	 * Converts a ratio with ideal value of 1 to a score. The resulting function is piecewise
+	 * linear going from (0,0) to (1,100) to (2,0) and is 0 for all inputs outside the range 0-2
+	 */
+	static double ratioToScore(double ratio) {
+		return Math.max(0, Math.min(100 * (1 - Math.abs(1 - ratio)), 100));
+	}
+
+	/** @return the number of pairs kept by the last call to match */
+	public int matches() {
+		return matches;
+	}
+
+	/** @return how many pairs needed a full score in the last frame, for comparing against n(n-1)/2 */
+	public int pairsScored() {
+		return pairsScored;
+	}
+
+	/** @return the total score of the k-th best pair, out of 600 */
+	public double score(int k) {
+		return scores[check(k)];
+	}
+
+	/** @return the index in the contour list of the larger contour of the k-th best pair */
+	public int firstContour(int k) {
+		return first[check(k)];
+	}
+
+	/** @return the index in the contour list of the smaller contour of the k-th best pair */
+	public int secondContour(int k) {
+		return second[check(k)];
+	}
+
+	/** @return the left edge of the box containing both contours of the k-th best pair */
+	public int left(int k) {
+		check(k);
+		return Math.min(x[first[k]], x[second[k]]);
+	}
+
+	/** @return the right edge of the box containing both contours of the k-th best pair */
+	public int right(int k) {
+		check(k);
+		return Math.max(x[first[k]] + width[first[k]], x[second[k]] + width[second[k]]);
+	}
+
+	/** @return the top edge of the box containing both contours of the k-th best pair */
+	public int top(int k) {
+		check(k);
+		return Math.min(y[first[k]], y[second[k]]);
+	}
+
+	/** @return the bottom edge of the box containing both contours of the k-th best pair */
+	public int bottom(int k) {
+		check(k);
+		return Math.max(y[first[k]] + height[first[k]], y[second[k]] + height[second[k]]);
+	}
+
+	private int check(int k) {
+		if (k < 0 || k >= matches) {
+			throw new IndexOutOfBoundsException("Match " + k + " of " + matches);
+		}
+		return k;
+	}
+}
@@ -7,14 +7,22 @@
 
 package frc.VisionExample.org.usfirst.frc.team1.robot;
 
-import frc.VisionExample.org.usfirst.frc.team1.robot.GripPipeline;
-import org.opencv.core.Rect;
-import org.opencv.imgproc.Imgproc;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import frc.robot.CameraHub;
+import frc.robot.DistanceTable;
+import frc.robot.GripProgram;
+import frc.robot.GripRuntimePipeline;
+import frc.robot.VisionResult;
 
 import edu.wpi.cscore.UsbCamera;
-import edu.wpi.first.wpilibj.CameraServer;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
 import edu.wpi.first.wpilibj.IterativeRobot;
-import edu.wpi.first.wpilibj.vision.VisionThread;
+
+import org.opencv.imgproc.Imgproc;
 
 /**
  * The VM is configured to automatically run this class, and to call the
@@ -38,100 +46,79 @@ public class Robot extends IterativeRobot {
 	private static final int IMG_HEIGHT = 240;
 	private static final double TARGET_HEIGHT = 15.3;	//The height of the target in inches
 	private static final double CAMERA_FOV_VERT = 41;  //The camera vertical field of view in degrees. This is the number for the MS Lifecam
-	// "Average" score of 75 needed to be seen as target. Note that the LV example also checks that no single score is under 15
-	private static final int SCORE_THRESHOLD = 75 * 6;
-	
-	private VisionThread visionThread;
-	private double centerX = 0.0;
-	private double distance = 0.0;
+	private CameraHub.Subscription vision;
+	private final PairMatcher matcher = new PairMatcher(3);
+	private long frameCount = 0;
+	private DistanceTable distanceTable;	//Built from the Straight_*ft images by DistanceCalibration, or null to use TARGET_HEIGHT
 	
-	private final Object imgLock = new Object();
+	//The latest result, swapped in whole by the vision thread so autonomousPeriodic never waits on it
+	private final AtomicReference<VisionResult> visionResult = new AtomicReference<VisionResult>(VisionResult.NONE);
 	
-	/**
-	 * Helper class to compute the outer dimensions of the rectangle that contains 2 OpenCV Rects
-	 * This has been placed inside the robot class for simplicity in this example, but should likely 
-	 * be made it's own class file in a real project.
-	 */
-	public class boundingRect
-	{
-		public int top;
-		public int bottom;
-		public int left;
-		public int right;
-		
-		public boundingRect (Rect rectangle1, Rect rectangle2)
-		{
-			top = Math.max(rectangle1.y, rectangle2.y);
-			bottom = Math.max(rectangle1.y + rectangle1.height, rectangle2.y + rectangle2.height);
-			left = Math.max(rectangle1.x, rectangle2.x);
-			right = Math.max(rectangle1.x + rectangle1.width, rectangle2.x + rectangle2.width);
-		}
-		
-		public boundingRect()
-		{
-			top = bottom = left = right = 0;
-		}
-	}
-
 	@Override
 	public void robotInit() {
-	    UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
+	    //The hub opens the camera once for both the dashboard stream and the pipeline
+	    UsbCamera camera = CameraHub.getInstance().camera(0);
 	    camera.setResolution(IMG_WIDTH, IMG_HEIGHT);
+	    CameraHub.getInstance().stream(0);
+	    
+	    //The pipeline is loaded from the GripPipeline.grip deployed from src/main/deploy, so retuning it in GRIP
+	    //only needs the .grip file copied there and deployed again
+	    GripProgram program;
+	    try {
+	    	program = GripProgram.load(new File(Filesystem.getDeployDirectory(), "GripPipeline.grip"));
+	    } catch (IOException | IllegalArgumentException e) {
+	    	DriverStation.reportError("Could not load the vision pipeline: " + e.getMessage(), false);
+	    	return;
+	    }
+	    
+	    //A calibrated table beats the pinhole formula below when the lens distorts, and skips the tan call
+	    try {
+	    	distanceTable = DistanceTable.load(new File(Filesystem.getDeployDirectory(), "distance.cal"));
+	    } catch (IOException | IllegalArgumentException e) {
+	    	DriverStation.reportWarning("Using the uncalibrated distance formula: " + e.getMessage(), false);
+	    }
 	    
-	    visionThread = new VisionThread(camera, new GripPipeline(), pipeline -> {
-	    	//This code is called each time the pipeline completes. Here we process the results of the pipeline
+	    GripRuntimePipeline pipeline = program.newPipeline();
+	    vision = CameraHub.getInstance().subscribe(0, "vision", 0, frame -> {
+	    	//The pipeline only reads the frame, so it can share it with the hub's other subscribers
+	    	pipeline.process(frame.mat());
+	    	//Here we process the results of the pipeline
+	    	long frameTime = frame.getCaptureTime();
+	    	frameCount++;
 	    	
-	    	//If we have at least 2 contours, we might have a target
-	        if (pipeline.filterContoursOutput().size() > 1) 
+	    	//Score the pairs of contours against the 2018 target ratios. The best pair is match 0
+	        if (matcher.match(pipeline.contoursOutput()) > 0) 
 	        {
-	        	double highScore = 0;
-	        	boundingRect target = new boundingRect();
-	        	
-	        	//Iterate through list of found contours
-	        	for(int i=0; i < pipeline.filterContoursOutput().size(); i++)
+	        	//Save off the center of the target and distance for use in auto/teleop code
+	        	double centerX = (matcher.left(0)+matcher.right(0))/2.0;
+	        	double centerY = (matcher.top(0)+matcher.bottom(0))/2.0;
+	        	double area = (matcher.right(0)-matcher.left(0))*(matcher.bottom(0)-matcher.top(0));
+	        	double localDistance;
+	        	if (distanceTable != null)
 	        	{
-	        		Rect rectangle1 = Imgproc.boundingRect(pipeline.filterContoursOutput().get(i));
-	        		
-	        		//For each contour, iterate through the list of remaining contours to try all pairs
-	        		for(int j=i+1; j < pipeline.filterContoursOutput().size(); j++)
-	        		{
-	        			Rect rectangle2 = Imgproc.boundingRect(pipeline.filterContoursOutput().get(j));
-	        			
-	        			//Calculate a total score across all 6 measurements
-	        			double scoreTotal = 0;
-	        			scoreTotal += boundingRatioScore(rectangle1, rectangle2);
-	        			scoreTotal += contourWidthScore(rectangle1, rectangle2);
-	        			scoreTotal += topEdgeScore(rectangle1, rectangle2);
-	        			scoreTotal += leftSpacingScore(rectangle1, rectangle2);
-	        			scoreTotal += widthRatioScore(rectangle1, rectangle2);
-	        			scoreTotal += heightRatioScore(rectangle1, rectangle2);
-	        			
-	        			//If the score is the highest found so far, and is above the threshold, mark it as the target
-	        			if (scoreTotal > highScore && scoreTotal > SCORE_THRESHOLD)
-	        			{
-	        				highScore = scoreTotal;
-	        				target = new boundingRect(rectangle1, rectangle2);
-	        			}
-	        		}
+	        		//Measure the pair the way DistanceCalibration measured it: box height, or the contours' own area
+	        		double pairArea = Imgproc.contourArea(pipeline.contoursOutput().get(matcher.firstContour(0)))
+	        				+ Imgproc.contourArea(pipeline.contoursOutput().get(matcher.secondContour(0)));
+	        		localDistance = distanceTable.distance(distanceTable.measure(matcher.bottom(0) - matcher.top(0), pairArea), IMG_HEIGHT);
 	        	}
-	        	
-	        	/**  
-	        	 * The ratio of the target height in inches/target height in pixels = The same ratio for the full camera view
-	        	 * Solving this equation for the full camera view height in inches gives us the view height formula below.
-	        	 * We can then draw a right triangle with the height being 1/2 * viewHeight, the length being distance, and the angle
-	        	 * being 1/2 * the vertical FOV of the camera. We can then use trigonometry to come up with the equation for distance below
-	        	 */
-        		double viewHeight = TARGET_HEIGHT * IMG_HEIGHT / (target.bottom - target.top);
-        		double localDistance = .5*viewHeight/Math.tan(Math.toRadians(CAMERA_FOV_VERT/2));
-
-	        	//Save off the center of the target and distance for use in auto/teleop code
-	            synchronized (imgLock) {
-	                centerX = (target.left+target.right)/2;
-	                distance = localDistance;
-	            }
+	        	else
+	        	{
+	        		/**  
+	        		 * The ratio of the target height in inches/target height in pixels = The same ratio for the full camera view
+	        		 * Solving this equation for the full camera view height in inches gives us the view height formula below.
+	        		 * We can then draw a right triangle with the height being 1/2 * viewHeight, the length being distance, and the angle
+	        		 * being 1/2 * the vertical FOV of the camera. We can then use trigonometry to come up with the equation for distance below
+	        		 */
+	        		double viewHeight = TARGET_HEIGHT * IMG_HEIGHT / (matcher.bottom(0) - matcher.top(0));
+	        		localDistance = .5*viewHeight/Math.tan(Math.toRadians(CAMERA_FOV_VERT/2));
+	        	}
+	        	visionResult.set(new VisionResult(true, frameCount, frameTime, centerX, centerY, area, localDistance, Double.NaN));
+	        }
+	        else
+	        {
+	        	visionResult.set(VisionResult.noTarget(frameCount, frameTime));
 	        }
 	    });
-	    visionThread.start();
 	}
 	
 	
@@ -139,65 +126,12 @@ public class Robot extends IterativeRobot {
 	@Override
 	public void autonomousPeriodic()
 	{
-		synchronized(imgLock)
+		//Use the distance and/or center measurements here. Check isFresh to make sure you have a recent target
+		VisionResult result = visionResult.get();
+		if (result.isFresh(0.5))
 		{
-			//Use the distance and/or center measurements here. Check to make sure they are not 0 to make sure you have a target
-			System.out.println("Center: " + centerX);
-			System.out.println("Distance: " + distance);
+			System.out.println("Center: " + result.getCenterX());
+			System.out.println("Distance: " + result.getDistance());
 		}
 	}
-	
-	//The height of the bounding box around both rectangles should be approximately double the width
-	double boundingRatioScore(Rect rectangle1, Rect rectangle2)
-	{
-		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
-		
-		return ratioToScore((bounding.top-bounding.bottom)/(2*(bounding.left-bounding.right)));
-	}
-	
-	//The width of either contour should be approximately 1/4 of the total bounding box width
-	double contourWidthScore(Rect rectangle1, Rect rectangle2)
-	{
-		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
-		
-		return ratioToScore(rectangle1.width*4/(bounding.right-bounding.left));
-	}
-	
-	//The top edges should be very close together. Find the difference, then scale it by the bounding box height. 
-	//This results in an ideal 0 instead of an ideal 1, so add 1
-	double topEdgeScore(Rect rectangle1, Rect rectangle2)
-	{
-		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
-		
-		return ratioToScore(1 + (rectangle1.y - rectangle2.y)/(bounding.top-bounding.bottom));
-	}
-	
-	//The spacing between the left edges should be 3/4 of the target width
-	double leftSpacingScore(Rect rectangle1, Rect rectangle2)
-	{
-		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
-		
-		return ratioToScore(Math.abs(rectangle2.x - rectangle1.x)*3/(4*bounding.right-bounding.left));
-	}
-	
-	//The width of the two contours should match
-	double widthRatioScore(Rect rectangle1, Rect rectangle2)
-	{
-		return ratioToScore(rectangle1.width/rectangle2.width);
-	}
-	
-	//The height of the two contours should match
-	double heightRatioScore(Rect rectangle1, Rect rectangle2)
-	{
-		return ratioToScore(rectangle1.height/rectangle2.height);
-	}
-	
-	/**
-	 * Converts a ratio with ideal value of 1 to a score. The resulting function is piecewise
-	 * linear going from (0,0) to (1,100) to (2,0) and is 0 for all inputs outside the range 0-2
-	 */
-	double ratioToScore(double ratio)
-	{
-		return (Math.max(0, Math.min(100*(1-Math.abs(1-ratio)), 100)));
-	}
 }
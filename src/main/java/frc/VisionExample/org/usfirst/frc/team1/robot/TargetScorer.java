@@ -0,0 +1,136 @@
+package frc.VisionExample.org.usfirst.frc.team1.robot;
+
+import java.util.List;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Scores every pair of contours against the 6 ratios of the 2018 Vision Target and picks the best pair.
+ * This was previously inlined in the Robot class's VisionThread callback; it is its own class so the
+ * scoring can be benchmarked and reused without a robot.
+ */
+public class TargetScorer {
+
+	// "Average" score of 75 needed to be seen as target. Note that the LV example also checks that no single score is under 15
+	public static final int SCORE_THRESHOLD = 75 * 6;
+
+	/**
+	 * Helper class to compute the outer dimensions of the rectangle that contains 2 OpenCV Rects
+	 */
+	public static class boundingRect
+	{
+		public int top;
+		public int bottom;
+		public int left;
+		public int right;
+
+		public boundingRect (Rect rectangle1, Rect rectangle2)
+		{
+			top = Math.max(rectangle1.y, rectangle2.y);
+			bottom = Math.max(rectangle1.y + rectangle1.height, rectangle2.y + rectangle2.height);
+			left = Math.max(rectangle1.x, rectangle2.x);
+			right = Math.max(rectangle1.x + rectangle1.width, rectangle2.x + rectangle2.width);
+		}
+
+		public boundingRect()
+		{
+			top = bottom = left = right = 0;
+		}
+	}
+
+	/**
+	 * Tries all pairs of contours and returns the outer rectangle of the highest scoring pair.
+	 * @param contours the filtered contours from the pipeline
+	 * @return the target, or an empty boundingRect if no pair scored above SCORE_THRESHOLD
+	 */
+	public boundingRect findTarget(List<MatOfPoint> contours)
+	{
+		double highScore = 0;
+		boundingRect target = new boundingRect();
+
+		//Iterate through list of found contours
+		for(int i=0; i < contours.size(); i++)
+		{
+			Rect rectangle1 = Imgproc.boundingRect(contours.get(i));
+
+			//For each contour, iterate through the list of remaining contours to try all pairs
+			for(int j=i+1; j < contours.size(); j++)
+			{
+				Rect rectangle2 = Imgproc.boundingRect(contours.get(j));
+
+				//Calculate a total score across all 6 measurements
+				double scoreTotal = 0;
+				scoreTotal += boundingRatioScore(rectangle1, rectangle2);
+				scoreTotal += contourWidthScore(rectangle1, rectangle2);
+				scoreTotal += topEdgeScore(rectangle1, rectangle2);
+				scoreTotal += leftSpacingScore(rectangle1, rectangle2);
+				scoreTotal += widthRatioScore(rectangle1, rectangle2);
+				scoreTotal += heightRatioScore(rectangle1, rectangle2);
+
+				//If the score is the highest found so far, and is above the threshold, mark it as the target
+				if (scoreTotal > highScore && scoreTotal > SCORE_THRESHOLD)
+				{
+					highScore = scoreTotal;
+					target = new boundingRect(rectangle1, rectangle2);
+				}
+			}
+		}
+		return target;
+	}
+
+	//The height of the bounding box around both rectangles should be approximately double the width
+	double boundingRatioScore(Rect rectangle1, Rect rectangle2)
+	{
+		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
+
+		return ratioToScore((bounding.top-bounding.bottom)/(2*(bounding.left-bounding.right)));
+	}
+
+	//The width of either contour should be approximately 1/4 of the total bounding box width
+	double contourWidthScore(Rect rectangle1, Rect rectangle2)
+	{
+		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
+
+		return ratioToScore(rectangle1.width*4/(bounding.right-bounding.left));
+	}
+
+	//The top edges should be very close together. Find the difference, then scale it by the bounding box height.
+	//This results in an ideal 0 instead of an ideal 1, so add 1
+	double topEdgeScore(Rect rectangle1, Rect rectangle2)
+	{
+		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
+
+		return ratioToScore(1 + (rectangle1.y - rectangle2.y)/(bounding.top-bounding.bottom));
+	}
+
+	//The spacing between the left edges should be 3/4 of the target width
+	double leftSpacingScore(Rect rectangle1, Rect rectangle2)
+	{
+		boundingRect bounding = new boundingRect(rectangle1, rectangle2);
+
+		return ratioToScore(Math.abs(rectangle2.x - rectangle1.x)*3/(4*bounding.right-bounding.left));
+	}
+
+	//The width of the two contours should match
+	double widthRatioScore(Rect rectangle1, Rect rectangle2)
+	{
+		return ratioToScore(rectangle1.width/rectangle2.width);
+	}
+
+	//The height of the two contours should match
+	double heightRatioScore(Rect rectangle1, Rect rectangle2)
+	{
+		return ratioToScore(rectangle1.height/rectangle2.height);
+	}
+
+	/**
+	 * Converts a ratio with ideal value of 1 to a score. The resulting function is piecewise
+	 * linear going from (0,0) to (1,100) to (2,0) and is 0 for all inputs outside the range 0-2
+	 */
+	double ratioToScore(double ratio)
+	{
+		return (Math.max(0, Math.min(100*(1-Math.abs(1-ratio)), 100)));
+	}
+}
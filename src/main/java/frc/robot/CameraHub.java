@@ -0,0 +1,403 @@
+package frc.robot;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.MjpegServer;
+import edu.wpi.cscore.UsbCamera;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.first.wpilibj.CameraServer;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.vision.VisionPipeline;
+import edu.wpi.first.wpilibj.vision.VisionRunner;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Opens each USB camera once and shares it between everything that wants its frames: the dashboard
+ * stream, vision pipelines and recorders.
+ *
+ * <p>Calling CameraServer.startAutomaticCapture() from two places opens the same device twice, and the
+ * two captures fight over it. Instead, get the camera with camera(), its dashboard stream with
+ * stream(), and frames in Java with subscribe() or runPipeline().
+ *
+ * <p>Each camera has one grab thread and one CvSink, so each frame is decoded once, straight into a
+ * DirectMat from a pool allocated at the camera's resolution. The frame is handed to every subscriber
+ * that's due one as a SharedFrame, which is reference counted and goes back to the pool when the last
+ * subscriber has finished with it. Subscribers must treat the frame's Mat as read only; one that needs
+ * to draw on it or threshold in place calls writable(), which copies only if another subscriber still
+ * holds the frame.
+ *
+ * <p>Each subscriber runs on its own thread and has its own frame rate limit. A subscriber that falls
+ * behind only ever has the newest frame waiting for it, so it can't hold up the others. When no
+ * subscriber is due a frame the grab thread doesn't grab one, so frames nobody wants are never decoded.
+ */
+public class CameraHub {
+
+	/**
+	 * Receives frames from a subscription, on the subscription's own thread.
+	 */
+	@FunctionalInterface
+	public interface FrameConsumer {
+		/**
+		 * @param frame the newest frame. It is only valid until this returns; don't keep it or its Mat
+		 */
+		void accept(SharedFrame frame);
+	}
+
+	/**
+	 * A frame shared between subscribers.
+	 */
+	public static final class SharedFrame {
+		private final DirectMat mat = new DirectMat();
+		private final AtomicInteger references = new AtomicInteger();
+		private final Feed feed;
+		private long captureTime;
+		private long sequence;
+
+		SharedFrame(Feed feed) {
+			this.feed = feed;
+			// Allocated at the camera's resolution so the grab fills it in place
+			VideoMode mode = feed.camera.getVideoMode();
+			if (mode.width > 0 && mode.height > 0) {
+				mat.ensure(mode.height, mode.width, CvType.CV_8UC3);
+			}
+		}
+
+		/** @return the frame, in BGR, as a DirectMat. Don't modify it; see writable() */
+		public Mat mat() {
+			return mat;
+		}
+
+		/**
+		 * Gets the frame for modifying. If this subscriber is the only one holding the frame that's the
+		 * frame itself, otherwise it's copied into scratch first.
+		 * @param scratch where to copy the frame, kept by the caller between frames
+		 * @return the frame's Mat or scratch
+		 */
+		public Mat writable(Mat scratch) {
+			if (references.get() == 1) {
+				return mat;
+			}
+			mat.copyTo(scratch);
+			return scratch;
+		}
+
+		/** @return when the frame was captured, in FPGA microseconds */
+		public long getCaptureTime() {
+			return captureTime;
+		}
+
+		/** @return the frame's number, counting every frame grabbed from the camera from 1 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		void retain() {
+			references.incrementAndGet();
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0) {
+				feed.free.offer(this);
+			}
+		}
+	}
+
+	/**
+	 * A consumer of one camera's frames, with its own thread and frame rate limit.
+	 */
+	public final class Subscription {
+		private final Feed feed;
+		private final String name;
+		private final FrameConsumer consumer;
+		private final ArrayBlockingQueue<SharedFrame> mailbox = new ArrayBlockingQueue<SharedFrame>(1);
+		private final Thread thread;
+		private volatile double maxFps;
+		private volatile boolean running = true;
+		private volatile long lastCaptureTime;
+		private volatile long delivered;
+		private volatile long dropped;
+
+		// Written only by the grab thread
+		private double tokens = 1;
+		private long lastGrab;
+
+		Subscription(Feed feed, String name, double maxFps, FrameConsumer consumer) {
+			this.feed = feed;
+			this.name = name;
+			this.maxFps = maxFps;
+			this.consumer = consumer;
+			thread = new Thread(this::run, "CameraHub-" + name);
+			thread.setDaemon(true);
+		}
+
+		private void run() {
+			try {
+				while (running) {
+					SharedFrame frame = mailbox.take();
+					try {
+						lastCaptureTime = frame.captureTime;
+						consumer.accept(frame);
+						delivered++;
+					} catch (RuntimeException e) {
+						DriverStation.reportError(name + ": " + e, e.getStackTrace());
+					} finally {
+						frame.release();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Called by the grab thread for each frame grabbed. Frames come in at the camera's rate; a token
+		 * bucket passes on maxFps of them a second on average, allowing for jitter in the frame times.
+		 */
+		boolean due(long now) {
+			double fps = maxFps;
+			if (fps <= 0) {
+				return true;
+			}
+			if (lastGrab != 0) {
+				tokens = Math.min(1.5, tokens + (now - lastGrab) / 1e9 * fps);
+			}
+			lastGrab = now;
+			if (tokens < 0.9) {
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+
+		/** @return nanoseconds until due() will next pass a frame, assuming one is grabbed then */
+		long nanosUntilDue(long now) {
+			double fps = maxFps;
+			if (fps <= 0) {
+				return 0;
+			}
+			double banked = Math.min(1.5, tokens + (now - lastGrab) / 1e9 * fps);
+			return banked >= 0.9 ? 0 : (long)((0.9 - banked) / fps * 1e9);
+		}
+
+		void deliver(SharedFrame frame) throws InterruptedException {
+			if (!running) {
+				return;
+			}
+			frame.retain();
+			if (!mailbox.offer(frame)) {
+				SharedFrame stale = mailbox.poll();
+				if (stale != null) {
+					dropped++;
+					stale.release();
+				}
+				mailbox.put(frame);
+			}
+		}
+
+		/**
+		 * @param fps the most frames a second to pass on, or 0 for every frame
+		 */
+		public void setMaxFps(double fps) {
+			maxFps = fps;
+		}
+
+		/** @return the most frames a second passed on, or 0 for every frame */
+		public double getMaxFps() {
+			return maxFps;
+		}
+
+		/**
+		 * Called from the consumer, this is the capture time of the frame being handled.
+		 * @return the capture time of the last frame passed to the consumer, in FPGA microseconds
+		 */
+		public long getLastCaptureTime() {
+			return lastCaptureTime;
+		}
+
+		/** @return the number of frames the consumer has handled */
+		public long getDelivered() {
+			return delivered;
+		}
+
+		/** @return the number of frames replaced by a newer one before the consumer got to them */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Stops passing frames to the consumer and stops its thread.
+		 */
+		public void close() {
+			feed.subscriptions.remove(this);
+			running = false;
+			thread.interrupt();
+			SharedFrame waiting = mailbox.poll();
+			if (waiting != null) {
+				waiting.release();
+			}
+		}
+	}
+
+	/**
+	 * One camera and everything reading it.
+	 */
+	private static final class Feed {
+		final UsbCamera camera;
+		final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+		final ArrayBlockingQueue<SharedFrame> free = new ArrayBlockingQueue<SharedFrame>(64);
+		MjpegServer server;
+		CvSink sink;
+		Thread grabThread;
+		long sequence;
+
+		Feed(UsbCamera camera) {
+			this.camera = camera;
+		}
+	}
+
+	private static CameraHub instance;
+
+	private final Map<Integer, Feed> feeds = new HashMap<Integer, Feed>();
+
+	/**
+	 * @return the hub shared by the whole robot program
+	 */
+	public static synchronized CameraHub getInstance() {
+		if (instance == null) {
+			instance = new CameraHub();
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets a USB camera, opening it the first time it's asked for.
+	 * @param device the device number, as for startAutomaticCapture(int)
+	 */
+	public synchronized UsbCamera camera(int device) {
+		return feed(device).camera;
+	}
+
+	/**
+	 * Gets the dashboard stream for a camera, starting it the first time it's asked for.
+	 * @param device the device number
+	 * @return the camera's MJPEG server, for its settings or a StreamBandwidthManager
+	 */
+	public synchronized MjpegServer stream(int device) {
+		Feed feed = feed(device);
+		if (feed.server == null) {
+			feed.server = CameraServer.getInstance().startAutomaticCapture(feed.camera);
+		}
+		return feed.server;
+	}
+
+	/**
+	 * Passes a camera's frames to a consumer on its own thread, starting the camera's grab thread if
+	 * this is its first subscriber.
+	 * @param device the device number
+	 * @param name names the consumer's thread
+	 * @param maxFps the most frames a second to pass on, or 0 for every frame
+	 * @param consumer what to pass the frames to
+	 */
+	public synchronized Subscription subscribe(int device, String name, double maxFps, FrameConsumer consumer) {
+		Feed feed = feed(device);
+		Subscription subscription = new Subscription(feed, name, maxFps, consumer);
+		// Enough that every subscriber can hold one frame and have one waiting, plus the one being grabbed
+		for (int i = 0; i < 2; i++) {
+			feed.free.offer(new SharedFrame(feed));
+		}
+		if (feed.grabThread == null) {
+			feed.free.offer(new SharedFrame(feed));
+		}
+		feed.subscriptions.add(subscription);
+		subscription.thread.start();
+		if (feed.grabThread == null) {
+			feed.sink = new CvSink("CameraHub_" + feed.camera.getName());
+			feed.sink.setSource(feed.camera);
+			feed.grabThread = new Thread(() -> grabLoop(feed), "CameraHub-grab" + device);
+			feed.grabThread.setDaemon(true);
+			feed.grabThread.start();
+		}
+		return subscription;
+	}
+
+	/**
+	 * Runs a vision pipeline on a camera's frames, like a VisionThread sharing the camera. The pipeline
+	 * must not modify its input.
+	 * @param device the device number
+	 * @param name names the pipeline's thread
+	 * @param maxFps the most frames a second to process, or 0 for every frame
+	 * @param pipeline the pipeline
+	 * @param listener called with the pipeline after each frame, on the pipeline's thread
+	 */
+	public <P extends VisionPipeline> Subscription runPipeline(int device, String name, double maxFps, P pipeline,
+			VisionRunner.Listener<? super P> listener) {
+		return subscribe(device, name, maxFps, frame -> {
+			pipeline.process(frame.mat());
+			listener.copyPipelineOutputs(pipeline);
+		});
+	}
+
+	private Feed feed(int device) {
+		Feed feed = feeds.get(device);
+		if (feed == null) {
+			feed = new Feed(new UsbCamera("USB Camera " + device, device));
+			feeds.put(device, feed);
+		}
+		return feed;
+	}
+
+	private static void grabLoop(Feed feed) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				// Don't grab, and so don't decode, until someone is due a frame
+				long now = System.nanoTime();
+				long wait = Long.MAX_VALUE;
+				for (Subscription subscription : feed.subscriptions) {
+					wait = Math.min(wait, subscription.nanosUntilDue(now));
+				}
+				if (wait == Long.MAX_VALUE) {
+					wait = 100000000L;
+				}
+				if (wait > 0) {
+					Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+					continue;
+				}
+
+				// Subscribers that hold on to frames, like a PipelinedVisionRunner, can empty the pool; grow it
+				// rather than make everyone wait
+				SharedFrame frame = feed.free.poll();
+				if (frame == null) {
+					frame = new SharedFrame(feed);
+				}
+				long frameTime = feed.sink.grabFrame(frame.mat);
+				if (frameTime == 0) {
+					DriverStation.reportError(feed.sink.getError(), false);
+					feed.free.offer(frame);
+					continue;
+				}
+				frame.mat.adopt();
+				frame.captureTime = frameTime;
+				frame.sequence = ++feed.sequence;
+				// The grab thread holds a reference while handing out, so the frame can't be freed midway
+				frame.retain();
+				long grabbed = System.nanoTime();
+				for (Subscription subscription : feed.subscriptions) {
+					if (subscription.due(grabbed)) {
+						subscription.deliver(frame);
+					}
+				}
+				frame.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package frc.robot;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.MatOfPoint;
+
+/**
+* ContourFilter class.
+*
+* <p>Allocation-free replacement for the generated GRIP filterContours step. Each contour's points
+* are read out of native memory with a single bulk {@code Mat.get} into reusable {@code int[]}
+* scratch buffers, and the bounding box, area, perimeter, convex hull and solidity are all computed
+* from those buffers in Java. The results match the generated step: the same contours pass in the
+* same order.
+*
+* <p>The checks run as a chain of predicates. Predicates that can't reject anything with the given
+* parameters, like a minPerimeter of 0 or a solidity range of {0, 100}, are skipped entirely. The rest
+* run cheapest-per-rejection first: every so often a frame is sampled, running every predicate on
+* every contour and timing each one, and the chain is reordered by cost / (1 - pass rate). The
+* order only changes how quickly a contour is rejected, never which contours pass.
+*
+* <p>Each predicate counts the contours it rejects, so it's possible to see which checks do the work
+* on real frames.
+*
+* <p>Instances are not thread safe; keep one per pipeline. The statistics may be read from any thread.
+*/
+public class ContourFilter {
+
+	/** Predicate indices, for the statistics getters. */
+	public static final int WIDTH = 0, HEIGHT = 1, VERTICES = 2, RATIO = 3, AREA = 4, PERIMETER = 5, SOLIDITY = 6;
+	public static final int PREDICATES = 7;
+	private static final String[] NAMES = {"width", "height", "vertices", "ratio", "area", "perimeter", "solidity"};
+
+	// Sample every frame while warming up, then one frame in SAMPLE_INTERVAL
+	private static final int WARMUP_SAMPLES = 8;
+	private static final int SAMPLE_INTERVAL = 32;
+	// Weight of each sampled frame in the running cost and pass rate
+	private static final double SAMPLE_WEIGHT = 0.25;
+
+	// Interleaved x,y points of the contour being filtered
+	private int[] points = new int[256];
+	// Points packed as (x << 32 | y) and sorted for the hull
+	private long[] sorted = new long[128];
+	// Interleaved x,y points of the convex hull being built
+	private int[] hull = new int[512];
+
+	// The chain, cheapest per rejection first, and the enabled part of it for the current call
+	private final int[] order = {WIDTH, HEIGHT, VERTICES, RATIO, AREA, PERIMETER, SOLIDITY};
+	private final int[] active = new int[PREDICATES];
+	private final double[] costNanos = new double[PREDICATES];
+	private final double[] passRate = new double[PREDICATES];
+	private final long[] rejected = new long[PREDICATES];
+	private final long[] evaluated = new long[PREDICATES];
+	// Per sampled frame totals
+	private final long[] sampleNanos = new long[PREDICATES];
+	private final int[] sampleEvaluated = new int[PREDICATES];
+	private final int[] samplePassed = new int[PREDICATES];
+	private final int sampleInterval;
+	private long calls;
+
+	// Parameters of the current call
+	private double minArea, minPerimeter, minWidth, maxWidth, minHeight, maxHeight;
+	private double minSolidity, maxSolidity, maxVertexCount, minVertexCount, minRatio, maxRatio;
+	// The contour being filtered. Area is computed at most once, by whichever predicate needs it first
+	private int count, width, height;
+	private double area;
+	// Whether an enabled predicate needs the area
+	private boolean areaNeeded;
+
+	/**
+	 * Creates a filter. Until a predicate has been sampled it is assumed to pass half the contours.
+	 */
+	public ContourFilter() {
+		this(SAMPLE_INTERVAL);
+	}
+
+	/**
+	 * Creates a filter that samples one frame in sampleInterval after warming up; 1 samples every frame.
+	 */
+	ContourFilter(int sampleInterval) {
+		this.sampleInterval = sampleInterval;
+		Arrays.fill(passRate, 0.5);
+	}
+
+	/**
+	 * Filters out contours that do not meet certain criteria.
+	 * @param inputContours is the input list of contours
+	 * @param minArea is the minimum area of a contour that will be kept
+	 * @param minPerimeter is the minimum perimeter of a contour that will be kept
+	 * @param minWidth minimum width of a contour
+	 * @param maxWidth maximum width
+	 * @param minHeight minimum height
+	 * @param maxHeight maximimum height
+	 * @param solidity the minimum and maximum solidity of a contour
+	 * @param maxVertexCount maximum vertex Count
+	 * @param minVertexCount minimum vertex Count of the contours
+	 * @param minRatio minimum ratio of width to height
+	 * @param maxRatio maximum ratio of width to height
+	 * @param output is the the output list of contours
+	 */
+	public void filter(List<MatOfPoint> inputContours, double minArea,
+		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
+		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
+		minRatio, double maxRatio, List<MatOfPoint> output) {
+		this.minArea = minArea;
+		this.minPerimeter = minPerimeter;
+		this.minWidth = minWidth;
+		this.maxWidth = maxWidth;
+		this.minHeight = minHeight;
+		this.maxHeight = maxHeight;
+		this.minSolidity = solidity[0];
+		this.maxSolidity = solidity[1];
+		this.maxVertexCount = maxVertexCount;
+		this.minVertexCount = minVertexCount;
+		this.minRatio = minRatio;
+		this.maxRatio = maxRatio;
+
+		int activeCount = 0;
+		for (int p : order) {
+			if (enabled(p)) active[activeCount++] = p;
+		}
+		areaNeeded = enabled(AREA) || enabled(SOLIDITY);
+		final boolean sample = calls < WARMUP_SAMPLES || calls % sampleInterval == 0;
+		calls++;
+
+		output.clear();
+		for (int i = 0; i < inputContours.size(); i++) {
+			final MatOfPoint contour = inputContours.get(i);
+			count = load(contour);
+			if (count == 0) continue;
+
+			// Bounding box, inclusive of the last pixel like Imgproc.boundingRect
+			int minX = points[0], maxX = points[0], minY = points[1], maxY = points[1];
+			for (int p = 2; p < 2 * count; p += 2) {
+				final int x = points[p], y = points[p + 1];
+				if (x < minX) minX = x; else if (x > maxX) maxX = x;
+				if (y < minY) minY = y; else if (y > maxY) maxY = y;
+			}
+			width = maxX - minX + 1;
+			height = maxY - minY + 1;
+			area = -1;
+
+			if (sample ? sampleAll(activeCount) : passes(activeCount)) {
+				output.add(contour);
+			}
+		}
+		if (sample) {
+			reorder();
+		}
+	}
+
+	/**
+	 * Runs the chain, stopping at the first predicate that rejects the contour.
+	 */
+	private boolean passes(int activeCount) {
+		for (int k = 0; k < activeCount; k++) {
+			final int p = active[k];
+			evaluated[p]++;
+			if (!test(p)) {
+				rejected[p]++;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs and times every enabled predicate. Area is computed up front so it isn't charged to
+	 * whichever predicate happens to need it first.
+	 */
+	private boolean sampleAll(int activeCount) {
+		if (areaNeeded) {
+			contourArea();
+		}
+		boolean pass = true;
+		for (int k = 0; k < activeCount; k++) {
+			final int p = active[k];
+			final long start = System.nanoTime();
+			final boolean result = test(p);
+			sampleNanos[p] += System.nanoTime() - start;
+			sampleEvaluated[p]++;
+			if (result) {
+				samplePassed[p]++;
+			}
+			// Counted as in the chain: only the first predicate that fails rejects the contour
+			if (pass) {
+				evaluated[p]++;
+				if (!result) {
+					rejected[p]++;
+				}
+			}
+			pass &= result;
+		}
+		return pass;
+	}
+
+	/**
+	 * Folds the sampled frame into the running statistics and sorts the chain by cost per rejection.
+	 */
+	private void reorder() {
+		for (int p = 0; p < PREDICATES; p++) {
+			if (sampleEvaluated[p] == 0) continue;
+			final double cost = sampleNanos[p] / (double)sampleEvaluated[p];
+			final double rate = samplePassed[p] / (double)sampleEvaluated[p];
+			costNanos[p] = costNanos[p] == 0 ? cost : costNanos[p] + SAMPLE_WEIGHT * (cost - costNanos[p]);
+			passRate[p] += SAMPLE_WEIGHT * (rate - passRate[p]);
+			sampleNanos[p] = 0;
+			sampleEvaluated[p] = 0;
+			samplePassed[p] = 0;
+		}
+		// Insertion sort; there are only 7
+		for (int a = 1; a < PREDICATES; a++) {
+			final int p = order[a];
+			int b = a;
+			while (b > 0 && rank(order[b - 1]) > rank(p)) {
+				order[b] = order[b - 1];
+				b--;
+			}
+			order[b] = p;
+		}
+	}
+
+	/**
+	 * Expected cost to reject a contour with this predicate. Running predicates in increasing rank
+	 * minimizes the expected cost of the chain.
+	 */
+	private double rank(int p) {
+		return costNanos[p] / Math.max(1e-3, 1 - passRate[p]);
+	}
+
+	/**
+	 * Whether a predicate can reject anything with the current parameters.
+	 */
+	private boolean enabled(int p) {
+		switch (p) {
+			// Width, height and vertex count are always at least 1
+			case WIDTH: return minWidth > 1 || maxWidth < Double.POSITIVE_INFINITY;
+			case HEIGHT: return minHeight > 1 || maxHeight < Double.POSITIVE_INFINITY;
+			case VERTICES: return minVertexCount > 1 || maxVertexCount < Double.POSITIVE_INFINITY;
+			case RATIO: return minRatio > 0 || maxRatio < Double.POSITIVE_INFINITY;
+			case AREA: return minArea > 0;
+			case PERIMETER: return minPerimeter > 0;
+			// A findContours boundary never encloses more than its hull, so solidity is always within 0-100
+			case SOLIDITY: return minSolidity > 0 || maxSolidity < 100;
+			default: throw new IllegalArgumentException("No predicate " + p);
+		}
+	}
+
+	/**
+	 * Whether the loaded contour passes a predicate.
+	 */
+	private boolean test(int p) {
+		switch (p) {
+			case WIDTH:
+				return width >= minWidth && width <= maxWidth;
+			case HEIGHT:
+				return height >= minHeight && height <= maxHeight;
+			case VERTICES:
+				return count >= minVertexCount && count <= maxVertexCount;
+			case RATIO: {
+				final double ratio = width / (double)height;
+				return ratio >= minRatio && ratio <= maxRatio;
+			}
+			case AREA:
+				return contourArea() >= minArea;
+			case PERIMETER:
+				return perimeter(points, count) >= minPerimeter;
+			case SOLIDITY: {
+				final int hullCount = convexHull(count);
+				final double solid = 100 * contourArea() / area(hull, hullCount);
+				return !(solid < minSolidity || solid > maxSolidity);
+			}
+			default:
+				throw new IllegalArgumentException("No predicate " + p);
+		}
+	}
+
+	private double contourArea() {
+		if (area < 0) {
+			area = area(points, count);
+		}
+		return area;
+	}
+
+	/**
+	 * @param predicate one of WIDTH, HEIGHT, VERTICES, RATIO, AREA, PERIMETER or SOLIDITY
+	 * @return the predicate's name
+	 */
+	public static String predicateName(int predicate) {
+		return NAMES[predicate];
+	}
+
+	/** @return how many contours the predicate has rejected */
+	public long getRejected(int predicate) {
+		return rejected[predicate];
+	}
+
+	/** @return how many contours the predicate has been run on in the chain */
+	public long getEvaluated(int predicate) {
+		return evaluated[predicate];
+	}
+
+	/** @return the predicate's measured cost per contour in nanoseconds, or 0 before it has been sampled */
+	public double getCostNanos(int predicate) {
+		return costNanos[predicate];
+	}
+
+	/** @return the fraction of contours the predicate passed in the sampled frames */
+	public double getPassRate(int predicate) {
+		return passRate[predicate];
+	}
+
+	/** @return the predicates in the order the chain currently runs them, disabled ones included */
+	public int[] getOrder() {
+		return order.clone();
+	}
+
+	/**
+	 * Copies the points of a contour into the scratch buffer with one native call.
+	 * @param contour the contour to read
+	 * @return the number of points read
+	 */
+	int load(MatOfPoint contour) {
+		final int count = contour.rows();
+		if (points.length < 2 * count) {
+			points = new int[4 * count];
+		}
+		if (count > 0) {
+			contour.get(0, 0, points);
+		}
+		return count;
+	}
+
+	/**
+	 * Absolute area of a closed polygon using the shoelace formula, as Imgproc.contourArea does.
+	 * @param xy interleaved x,y vertices
+	 * @param count number of vertices
+	 * @return the enclosed area
+	 */
+	static double area(int[] xy, int count) {
+		if (count < 3) return 0;
+		long twice = 0;
+		int px = xy[2 * count - 2], py = xy[2 * count - 1];
+		for (int p = 0; p < 2 * count; p += 2) {
+			final int x = xy[p], y = xy[p + 1];
+			twice += (long)px * y - (long)x * py;
+			px = x;
+			py = y;
+		}
+		return Math.abs(twice) * 0.5;
+	}
+
+	/**
+	 * Length of a closed polygon, as Imgproc.arcLength does with closed set to true.
+	 * @param xy interleaved x,y vertices
+	 * @param count number of vertices
+	 * @return the perimeter
+	 */
+	static double perimeter(int[] xy, int count) {
+		double length = 0;
+		int px = xy[2 * count - 2], py = xy[2 * count - 1];
+		for (int p = 0; p < 2 * count; p += 2) {
+			final double dx = xy[p] - px, dy = xy[p + 1] - py;
+			length += Math.sqrt(dx * dx + dy * dy);
+			px = xy[p];
+			py = xy[p + 1];
+		}
+		return length;
+	}
+
+	/**
+	 * Builds the convex hull of the loaded points into the hull buffer using Andrew's monotone chain.
+	 * Image coordinates are never negative, so packing x into the high word sorts by x then y.
+	 * @param count number of loaded points
+	 * @return the number of hull vertices
+	 */
+	private int convexHull(int count) {
+		if (sorted.length < count) {
+			sorted = new long[2 * count];
+		}
+		if (hull.length < 4 * count) {
+			hull = new int[8 * count];
+		}
+		for (int i = 0; i < count; i++) {
+			sorted[i] = ((long)points[2 * i] << 32) | (points[2 * i + 1] & 0xFFFFFFFFL);
+		}
+		Arrays.sort(sorted, 0, count);
+
+		int k = 0;
+		// Lower hull
+		for (int i = 0; i < count; i++) {
+			k = push(k, 2, sorted[i]);
+		}
+		// Upper hull, which must not pop back into the lower hull
+		final int lower = k + 1;
+		for (int i = count - 2; i >= 0; i--) {
+			k = push(k, lower, sorted[i]);
+		}
+		// The last point repeats the first
+		return Math.max(k - 1, 1);
+	}
+
+	/**
+	 * Appends a point to the hull, popping vertices that would make a non-left turn.
+	 * @param k current hull size
+	 * @param min vertices are only popped while the hull has at least this many
+	 * @param packed the point packed as (x << 32 | y)
+	 * @return the new hull size
+	 */
+	private int push(int k, int min, long packed) {
+		final int x = (int)(packed >> 32), y = (int)packed;
+		while (k >= min) {
+			final int ax = hull[2 * k - 4], ay = hull[2 * k - 3];
+			final int bx = hull[2 * k - 2], by = hull[2 * k - 1];
+			if ((long)(bx - ax) * (y - ay) - (long)(by - ay) * (x - ax) > 0) break;
+			k--;
+		}
+		hull[2 * k] = x;
+		hull[2 * k + 1] = y;
+		return k + 1;
+	}
+}
@@ -0,0 +1,106 @@
+package frc.robot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * A Mat whose pixels live in a direct ByteBuffer, so Java code can read and write them in place
+ * instead of copying them out with Mat.get() and back with Mat.put().
+ *
+ * <p>OpenCV only reallocates a Mat when its size or type changes, so a DirectMat kept at the camera's
+ * resolution is filled in place by CvSink.grabFrame(), Mat.copyTo() and any other function with it as
+ * an output. If something does reallocate it, say after the camera's resolution changes, isDirect()
+ * turns false and adopt() moves it back onto a buffer of the new size.
+ *
+ * <p>The buffer belongs to this object. A submat of a DirectMat points into the buffer, so it must not
+ * outlive it.
+ */
+public class DirectMat extends Mat {
+
+	private ByteBuffer buffer;
+	private long address;
+	private long reallocations;
+
+	/**
+	 * Creates an empty DirectMat; the buffer is allocated by ensure() or adopt().
+	 */
+	public DirectMat() {
+	}
+
+	/**
+	 * Creates a DirectMat and allocates its buffer.
+	 * @param rows the height in pixels
+	 * @param cols the width in pixels
+	 * @param type the CvType, e.g. CV_8UC3 for a BGR frame
+	 */
+	public DirectMat(int rows, int cols, int type) {
+		ensure(rows, cols, type);
+	}
+
+	/**
+	 * Makes this a continuous Mat of the given size and type on a direct buffer. Reuses the buffer if it
+	 * is big enough, so a mask that changes size with the window it covers stops allocating once it has
+	 * been as big as it gets. The contents are undefined afterwards.
+	 * @param rows the height in pixels
+	 * @param cols the width in pixels
+	 * @param type the CvType
+	 */
+	public void ensure(int rows, int cols, int type) {
+		if (isDirect() && rows() == rows && cols() == cols && type() == type) {
+			return;
+		}
+		int bytes = rows * cols * CvType.ELEM_SIZE(type);
+		if (buffer == null || buffer.capacity() < bytes) {
+			buffer = ByteBuffer.allocateDirect(Math.max(bytes, 1)).order(ByteOrder.nativeOrder());
+			reallocations++;
+		}
+		Mat wrapper = new Mat(rows, cols, type, buffer);
+		address = wrapper.dataAddr();
+		// Point this Mat's header at the buffer; Mat's assignment shares the data, it doesn't copy it
+		wrapper.assignTo(this);
+		wrapper.release();
+	}
+
+	/**
+	 * Moves the Mat back onto a direct buffer if OpenCV reallocated it, keeping its contents. Call it
+	 * after filling the Mat from native code, such as after CvSink.grabFrame().
+	 * @return true if the contents had to be copied, which only happens when the size or type changed
+	 */
+	public boolean adopt() {
+		if (isDirect() || empty()) {
+			return false;
+		}
+		Mat grabbed = new Mat();
+		assignTo(grabbed);
+		ensure(grabbed.rows(), grabbed.cols(), grabbed.type());
+		grabbed.copyTo(this);
+		grabbed.release();
+		return true;
+	}
+
+	/**
+	 * @return whether the Mat's pixels are in the buffer, and so can be read with buffer()
+	 */
+	public boolean isDirect() {
+		return buffer != null && !empty() && dataAddr() == address;
+	}
+
+	/**
+	 * Gets the pixels, row after row with no padding. Only valid while isDirect(). Use the absolute get
+	 * and put methods; the buffer may be shared between threads reading the same frame.
+	 * @return the buffer, which may be larger than the Mat
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return how many times a buffer has been allocated, which should stop once the size settles
+	 */
+	public long getReallocations() {
+		return reallocations;
+	}
+}
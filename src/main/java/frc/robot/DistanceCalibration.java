@@ -0,0 +1,207 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.wpi.first.wpilibj.vision.VisionPipeline;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Builds a DistanceTable from images of the target taken at known distances, such as the
+ * Straight_2ft.jpg to Straight_9ft.jpg images with the 2018 VisionExample.
+ *
+ * <p>Usage: {@code ./gradlew calibrateDistance --args="<images dir> [--out distance.cal] [--feature height|sqrt_area] [--step N] [--grip pipeline.grip]"}
+ *
+ * <p>The distance is read from each file name, e.g. _4ft or _30in, and stored in inches; files without
+ * one are skipped. Each image is run through GripPipeline, or the .grip file given with --grip, and
+ * the target is every contour that passed the filter. Images where the target touches the edge of the
+ * frame are skipped, since a clipped target looks closer than it is. The table is written to the deploy
+ * directory by default, and the error of the table and of the fit at each image is printed.
+ *
+ * <p>Calibrate with the robot's own camera; a table is only right for the lens it was built with.
+ */
+public final class DistanceCalibration {
+
+	private static final Pattern DISTANCE = Pattern.compile("_(\\d+(?:\\.\\d+)?)(ft|in)(?![a-z])", Pattern.CASE_INSENSITIVE);
+
+	private DistanceCalibration() {
+	}
+
+	public static void main(String... args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: DistanceCalibration <images dir> [--out distance.cal] [--feature height|sqrt_area] [--step N] [--grip pipeline.grip]");
+			System.exit(1);
+		}
+		File dir = new File(args[0]);
+		File out = new File("src/main/deploy/distance.cal");
+		File grip = null;
+		DistanceTable.Feature feature = DistanceTable.Feature.HEIGHT;
+		double step = 1;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--out":
+					out = new File(args[++i]);
+					break;
+				case "--feature":
+					feature = DistanceTable.Feature.valueOf(args[++i].toUpperCase(Locale.ROOT));
+					break;
+				case "--step":
+					step = Double.parseDouble(args[++i]);
+					break;
+				case "--grip":
+					grip = new File(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		VisionPipeline pipeline;
+		Supplier<ArrayList<MatOfPoint>> targets;
+		if (grip != null) {
+			GripRuntimePipeline runtime = GripProgram.load(grip).newPipeline();
+			pipeline = runtime;
+			targets = runtime::contoursOutput;
+		} else {
+			GripPipeline generated = new GripPipeline();
+			pipeline = generated;
+			targets = generated::filterContoursOutput;
+		}
+
+		File[] files = dir.listFiles();
+		if (files == null) {
+			System.err.println(dir + " is not a directory");
+			System.exit(1);
+		}
+		Arrays.sort(files);
+
+		// Sizes seen at each distance, averaged if there's more than one image per distance
+		TreeMap<Double, double[]> sums = new TreeMap<Double, double[]>();
+		List<String> names = new ArrayList<String>();
+		List<double[]> samples = new ArrayList<double[]>();
+		int frameHeight = 0;
+		for (File file : files) {
+			Matcher m = DISTANCE.matcher(file.getName());
+			if (!m.find()) {
+				continue;
+			}
+			double distance = Double.parseDouble(m.group(1)) * (m.group(2).equalsIgnoreCase("ft") ? 12 : 1);
+			Mat image = Imgcodecs.imread(file.getAbsolutePath());
+			if (image.empty()) {
+				System.err.println("Skipping unreadable image " + file.getName());
+				continue;
+			}
+			if (frameHeight == 0) {
+				frameHeight = image.rows();
+			} else if (image.rows() != frameHeight) {
+				System.err.println("Skipping " + file.getName() + ": it is " + image.rows() + " pixels high, not " + frameHeight);
+				image.release();
+				continue;
+			}
+			int width = image.cols();
+			pipeline.process(image);
+			image.release();
+			List<MatOfPoint> contours = targets.get();
+			if (contours.isEmpty()) {
+				System.err.println("Skipping " + file.getName() + ": no target found");
+				continue;
+			}
+			if (touchesEdge(contours, width, frameHeight)) {
+				System.err.println("Skipping " + file.getName() + ": the target touches the edge of the frame");
+				continue;
+			}
+			double size = DistanceTable.measure(feature, contours);
+			double[] sum = sums.computeIfAbsent(distance, d -> new double[2]);
+			sum[0] += size;
+			sum[1]++;
+			names.add(file.getName());
+			samples.add(new double[] {distance, size});
+		}
+		if (sums.size() < 2) {
+			System.err.println("Need targets at two or more distances; found " + sums.size());
+			System.exit(1);
+		}
+
+		// Calibration points from near to far, so sizes go from large to small
+		int n = sums.size();
+		double[] distances = new double[n];
+		double[] sizes = new double[n];
+		int k = 0;
+		for (double distance : sums.keySet()) {
+			double[] sum = sums.get(distance);
+			distances[k] = distance;
+			sizes[k] = sum[0] / sum[1];
+			if (k > 0 && sizes[k] >= sizes[k - 1]) {
+				System.err.println(String.format(Locale.ROOT, "The target is no smaller at %.1f in than at %.1f in; check the images",
+					distance, distances[k - 1]));
+				System.exit(1);
+			}
+			k++;
+		}
+
+		// Least squares fit of distance = a / size + b, for sizes outside the calibrated range
+		double sx = 0, sy = 0, sxx = 0, sxy = 0;
+		for (int i = 0; i < n; i++) {
+			double x = 1 / sizes[i];
+			sx += x;
+			sy += distances[i];
+			sxx += x * x;
+			sxy += x * distances[i];
+		}
+		double fitA = (n * sxy - sx * sy) / (n * sxx - sx * sx);
+		double fitB = (sy - fitA * sx) / n;
+
+		// Sample the calibration points at even sizes, interpolating in 1 / size between neighbours. The
+		// last value may be a little past the largest size, extending the nearest segment
+		double first = sizes[n - 1];
+		int count = (int)Math.ceil((sizes[0] - first) / step) + 1;
+		double[] values = new double[count];
+		int segment = n - 2;
+		for (int i = 0; i < count; i++) {
+			double size = first + i * step;
+			while (segment > 0 && size > sizes[segment]) {
+				segment--;
+			}
+			double fraction = (1 / size - 1 / sizes[segment + 1]) / (1 / sizes[segment] - 1 / sizes[segment + 1]);
+			values[i] = distances[segment + 1] + fraction * (distances[segment] - distances[segment + 1]);
+		}
+		DistanceTable table = new DistanceTable(feature, frameHeight, fitA, fitB, first, step, values);
+
+		System.out.println("Image                      inches   size   table error   fit error");
+		for (int i = 0; i < samples.size(); i++) {
+			double distance = samples.get(i)[0], size = samples.get(i)[1];
+			System.out.println(String.format(Locale.ROOT, "%-25s %7.1f %6.1f  %11.2f  %10.2f", names.get(i), distance, size,
+				table.distance(size, frameHeight) - distance, fitA / size + fitB - distance));
+		}
+
+		table.save(out, "Written by DistanceCalibration from " + dir.getName() + ", distances in inches\n"
+			+ String.format(Locale.ROOT, "Calibrated from %.1f to %.1f inches", distances[0], distances[n - 1]));
+		System.out.println(String.format(Locale.ROOT, "Wrote %d values for %s %.1f to %.1f at %d pixels high to %s",
+			count, feature.name().toLowerCase(Locale.ROOT), table.getMinSize(), table.getMaxSize(), frameHeight, out));
+	}
+
+	private static boolean touchesEdge(List<MatOfPoint> contours, int width, int height) {
+		for (MatOfPoint contour : contours) {
+			Rect r = Imgproc.boundingRect(contour);
+			if (r.x <= 0 || r.y <= 0 || r.x + r.width >= width || r.y + r.height >= height) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,231 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Looks up the distance to the target from its size in pixels, using a table calibrated against
+ * images taken at known distances. DistanceCalibration builds the table on a desktop and writes it
+ * to the deploy directory.
+ *
+ * <p>The table holds the distance at evenly spaced sizes, so a lookup is an index calculation and one
+ * linear interpolation: no trig, and no search. Between the calibration images the distance is
+ * interpolated in 1/size, which follows a pinhole camera exactly and a real lens closely. Outside them
+ * it falls back to a least squares fit of distance = a / size + b.
+ *
+ * <p>The size is either the height of the box around the target's contours or the square root of
+ * their total area. Both shrink in proportion to distance, and both are scaled from the frame height
+ * the table was calibrated at, so a table can be used at any resolution with the same lens.
+ *
+ * <p>The file is a few lines of text:
+ * <pre>
+ * feature height
+ * frameHeight 360
+ * fit 9146.2 -1.3
+ * first 80
+ * step 1
+ * values 108.0 106.7 ...
+ * </pre>
+ * Lines starting with # are comments.
+ */
+public final class DistanceTable {
+
+	/** How the size of the target is measured. */
+	public enum Feature {
+		/** The height of the box around every contour. */
+		HEIGHT,
+		/** The square root of the contours' total area. */
+		SQRT_AREA
+	}
+
+	private final Feature feature;
+	private final int frameHeight;
+	private final double fitA, fitB;
+	private final double first, step;
+	private final double[] values;
+
+	/**
+	 * @param feature how the size of the target is measured
+	 * @param frameHeight the frame height the sizes are for
+	 * @param fitA a in distance = a / size + b, used outside the table
+	 * @param fitB b in distance = a / size + b
+	 * @param first the size of values[0]
+	 * @param step the size between values
+	 * @param values the distance at each size, at least two
+	 */
+	public DistanceTable(Feature feature, int frameHeight, double fitA, double fitB, double first, double step,
+			double[] values) {
+		if (values.length < 2 || step <= 0 || frameHeight <= 0) {
+			throw new IllegalArgumentException("A distance table needs at least two values, a positive step and a frame height");
+		}
+		this.feature = feature;
+		this.frameHeight = frameHeight;
+		this.fitA = fitA;
+		this.fitB = fitB;
+		this.first = first;
+		this.step = step;
+		this.values = values.clone();
+	}
+
+	/**
+	 * Reads a table written by save().
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if the file isn't a distance table
+	 */
+	public static DistanceTable load(File file) throws IOException {
+		Feature feature = null;
+		int frameHeight = 0;
+		double fitA = Double.NaN, fitB = Double.NaN, first = Double.NaN, step = Double.NaN;
+		double[] values = null;
+		try {
+			for (String line : Files.readAllLines(file.toPath())) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split("\\s+");
+				switch (words[0]) {
+					case "feature":
+						feature = Feature.valueOf(words[1].toUpperCase(Locale.ROOT));
+						break;
+					case "frameHeight":
+						frameHeight = Integer.parseInt(words[1]);
+						break;
+					case "fit":
+						fitA = Double.parseDouble(words[1]);
+						fitB = Double.parseDouble(words[2]);
+						break;
+					case "first":
+						first = Double.parseDouble(words[1]);
+						break;
+					case "step":
+						step = Double.parseDouble(words[1]);
+						break;
+					case "values":
+						values = new double[words.length - 1];
+						for (int i = 0; i < values.length; i++) {
+							values[i] = Double.parseDouble(words[i + 1]);
+						}
+						break;
+					default:
+						throw new IllegalArgumentException(file.getName() + ": unknown line " + words[0]);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException(file.getName() + ": a line is missing its value", e);
+		}
+		if (feature == null || values == null || Double.isNaN(fitA) || Double.isNaN(first) || Double.isNaN(step)) {
+			throw new IllegalArgumentException(file.getName() + " is not a complete distance table");
+		}
+		return new DistanceTable(feature, frameHeight, fitA, fitB, first, step, values);
+	}
+
+	/**
+	 * Writes the table in the format load() reads.
+	 * @param comment written at the top, e.g. where the table came from, or null
+	 */
+	public void save(File file, String comment) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+			if (comment != null) {
+				for (String line : comment.split("\n")) {
+					out.println("# " + line);
+				}
+			}
+			out.println("feature " + feature.name().toLowerCase(Locale.ROOT));
+			out.println("frameHeight " + frameHeight);
+			out.println(String.format(Locale.ROOT, "fit %.6g %.6g", fitA, fitB));
+			out.println(String.format(Locale.ROOT, "first %.6g", first));
+			out.println(String.format(Locale.ROOT, "step %.6g", step));
+			StringBuilder line = new StringBuilder("values");
+			for (double value : values) {
+				line.append(String.format(Locale.ROOT, " %.4f", value));
+			}
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Measures the target's size from its height and area, whichever the table uses.
+	 * @param height the height of the box around the target, in pixels
+	 * @param area the target's area, in pixels
+	 */
+	public double measure(double height, double area) {
+		return feature == Feature.HEIGHT ? height : Math.sqrt(area);
+	}
+
+	/**
+	 * Measures the size of a target made up of every contour in a list.
+	 * @return the size, or 0 for no contours
+	 */
+	public double measure(List<MatOfPoint> contours) {
+		return measure(feature, contours);
+	}
+
+	static double measure(Feature feature, List<MatOfPoint> contours) {
+		if (contours.isEmpty()) {
+			return 0;
+		}
+		if (feature == Feature.SQRT_AREA) {
+			double area = 0;
+			for (MatOfPoint contour : contours) {
+				area += Imgproc.contourArea(contour);
+			}
+			return Math.sqrt(area);
+		}
+		int top = Integer.MAX_VALUE, bottom = Integer.MIN_VALUE;
+		for (MatOfPoint contour : contours) {
+			Rect r = Imgproc.boundingRect(contour);
+			top = Math.min(top, r.y);
+			bottom = Math.max(bottom, r.y + r.height);
+		}
+		return bottom - top;
+	}
+
+	/**
+	 * Looks up the distance for a target size.
+	 * @param size the target's size from measure()
+	 * @param sizeFrameHeight the height of the frame the size was measured in
+	 * @return the distance in the units the table was calibrated in, or NaN for a size of 0
+	 */
+	public double distance(double size, int sizeFrameHeight) {
+		if (size <= 0) {
+			return Double.NaN;
+		}
+		double scaled = size * frameHeight / sizeFrameHeight;
+		double position = (scaled - first) / step;
+		if (position < 0 || position > values.length - 1) {
+			return fitA / scaled + fitB;
+		}
+		int index = Math.min((int)position, values.length - 2);
+		double fraction = position - index;
+		return values[index] + fraction * (values[index + 1] - values[index]);
+	}
+
+	/** @return how the table measures the target's size */
+	public Feature getFeature() {
+		return feature;
+	}
+
+	/** @return the frame height the table's sizes are for */
+	public int getFrameHeight() {
+		return frameHeight;
+	}
+
+	/** @return the smallest size in the table, at the calibration frame height */
+	public double getMinSize() {
+		return first;
+	}
+
+	/** @return the largest size in the table, at the calibration frame height */
+	public double getMaxSize() {
+		return first + step * (values.length - 1);
+	}
+}
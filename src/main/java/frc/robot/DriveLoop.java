@@ -0,0 +1,111 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.drive.DifferentialDrive;
+
+/**
+ * Drives the drivetrain from the driver's sticks on its own Notifier, at a much higher rate than the
+ * robot loop, so steering doesn't wait on the dashboard traffic and pneumatics in robotPeriodic.
+ *
+ * <p>Each pass reads the driver's sticks itself, through their deadbands and curves, so a new
+ * driver station packet is acted on within one drive period instead of at the next robot loop. The
+ * robot loop still decides the drive scale (slow, boost and inverted) and hands it over with
+ * setScale(); the drive loop hands back the outputs it last commanded with getOutputs(). Both are
+ * single volatile words, left and right packed together as floats, so neither loop ever waits on
+ * the other and nothing allocates.
+ *
+ * <p>An exception in a pass is reported to the driver station once and counted; the next pass runs as
+ * normal.
+ */
+public class DriveLoop {
+
+	/** 200 Hz. */
+	public static final double DEFAULT_PERIOD = 0.005;
+
+	private final DifferentialDrive drive;
+	private final FRC5572Controller driver;
+	private final double period;
+	private final LoopTiming timing;
+	private final Notifier notifier;
+
+	// Written by the robot loop
+	private volatile double scale;
+	// Written by the drive loop: left and right as float bits, left in the high half
+	private volatile long outputs;
+	private volatile long errors;
+
+	/**
+	 * @param drive the drivetrain; only this loop should command it once started
+	 * @param driver the driver's controller, tank drive on the two sticks
+	 * @param period seconds between passes
+	 * @param scale the drive scale to start with
+	 * @param timing records this loop's jitter
+	 */
+	public DriveLoop(DifferentialDrive drive, FRC5572Controller driver, double period, double scale, LoopTiming timing) {
+		this.drive = drive;
+		this.driver = driver;
+		this.period = period;
+		this.scale = scale;
+		this.timing = timing;
+		notifier = new Notifier(this::run);
+	}
+
+	public void start() {
+		notifier.startPeriodic(period);
+	}
+
+	public void stop() {
+		notifier.stop();
+	}
+
+	private void run() {
+		timing.tick(System.nanoTime());
+		try {
+			// Due to wiring, both sides must be reversed; an inverted (negative) scale also swaps the sticks
+			double s = scale;
+			double ly = driver.shaped(driver.leftY), ry = driver.shaped(driver.rightY);
+			double left = s * (s > 0 ? -ly : -ry);
+			double right = s * (s > 0 ? -ry : -ly);
+			drive.tankDrive(left, right);
+			outputs = pack(left, right);
+		} catch (Exception driveError) {
+			if (errors++ == 0) {
+				DriverStation.reportError("Drive loop: " + driveError, driveError.getStackTrace());
+			}
+		}
+	}
+
+	/**
+	 * @param scale the power the sticks are scaled by; negative inverts the drivetrain
+	 */
+	public void setScale(double scale) {
+		this.scale = scale;
+	}
+
+	/**
+	 * @return the left and right outputs last commanded, together; read them with left() and right()
+	 */
+	public long getOutputs() {
+		return outputs;
+	}
+
+	/** @return the number of passes that threw */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** @return the left output in a value from getOutputs() */
+	public static double left(long outputs) {
+		return Float.intBitsToFloat((int)(outputs >>> 32));
+	}
+
+	/** @return the right output in a value from getOutputs() */
+	public static double right(long outputs) {
+		return Float.intBitsToFloat((int)outputs);
+	}
+
+	private static long pack(double left, double right) {
+		return ((long)Float.floatToRawIntBits((float)left) << 32) | (Float.floatToRawIntBits((float)right) & 0xFFFFFFFFL);
+	}
+}
@@ -26,12 +26,144 @@ public class FRC5572Controller {
     public final int leftStickButton = 9;
     public final int rightStickButton = 10;
 
+    /**The number of axes a snapshot holds, leftX to rightY */
+    public static final int AXES = 6;
+    /**The number of buttons a snapshot tracks, numbered from 1 as on the driver station */
+    public static final int BUTTONS = 32;
+
+    /**The whole controller as read by one call to update(), kept in primitive fields and reused every loop so nothing is allocated.
+     * Axes are shaped by each axis' deadband and response curve. Pressed and released compare with the update before.
+     */
+    public static final class Snapshot {
+        private final double[] axes = new double[AXES];
+        private final double[] rawAxes = new double[AXES];
+        private int buttons, previousButtons;
+        private final int[] heldCycles = new int[BUTTONS + 1];
+        private int pov = -1;
+        private long updates;
+
+        /**Returns an axis after its deadband and response curve, from -1 to 1 */
+        public double axis(int axis) {
+            return axes[axis];
+        }
+        /**Returns an axis as the driver station sent it */
+        public double rawAxis(int axis) {
+            return rawAxes[axis];
+        }
+        /**Returns true if the button is down */
+        public boolean button(int button) {
+            return (buttons & (1 << (button - 1))) != 0;
+        }
+        /**Returns true if the button went down since the update before */
+        public boolean pressed(int button) {
+            int bit = 1 << (button - 1);
+            return (buttons & bit) != 0 && (previousButtons & bit) == 0;
+        }
+        /**Returns true if the button came up since the update before */
+        public boolean released(int button) {
+            int bit = 1 << (button - 1);
+            return (buttons & bit) == 0 && (previousButtons & bit) != 0;
+        }
+        /**Returns true if the button has been down for at least this many updates in a row, counting this one */
+        public boolean heldFor(int button, int cycles) {
+            return heldCycles[button] >= cycles;
+        }
+        /**Returns how many updates in a row the button has been down, 0 if it's up */
+        public int heldCycles(int button) {
+            return heldCycles[button];
+        }
+        /**Returns the D Pad in degrees, or -1 if it isn't pressed */
+        public int POV() {
+            return pov;
+        }
+        /**Returns the number of updates so far */
+        public long getUpdates() {
+            return updates;
+        }
+    }
+
     private XboxController pad;
+    private final Snapshot snapshot = new Snapshot();
+    // Shaped value of every raw axis value, indexed by the driver station's byte (-128 to 127) plus 128
+    private final double[][] curves = new double[AXES][256];
+    private final double[] deadbands = new double[AXES];
+    private final double[] exponents = new double[AXES];
+
     /**Logitech Game Controller 
      * @param x port of controller
     */
     public FRC5572Controller(int x) {
         pad = new XboxController(x);
+        for (int axis = 0; axis < AXES; axis++) {
+            exponents[axis] = 1;
+            buildCurve(axis);
+        }
+    }
+
+    /**Sets the deadband of an axis. Values within it read as 0, and the rest of the range is stretched so full stick still reads 1
+     * @param axis one of the axis numbers, e.g. leftY
+     * @param deadband from 0 to 1
+     */
+    public void setDeadband(int axis, double deadband) {
+        deadbands[axis] = deadband;
+        buildCurve(axis);
+    }
+    /**Sets the response curve of an axis: the value past the deadband is raised to this power, keeping its sign
+     * @param axis one of the axis numbers, e.g. leftY
+     * @param exponent 1 for linear, 2 for squared, and so on
+     */
+    public void setCurve(int axis, double exponent) {
+        exponents[axis] = exponent;
+        buildCurve(axis);
+    }
+
+    // The driver station sends each axis as a byte, so a table of all 256 values is exact and shaping is one lookup
+    private void buildCurve(int axis) {
+        double deadband = deadbands[axis];
+        for (int raw = -128; raw <= 127; raw++) {
+            double value = raw < 0 ? raw / 128.0 : raw / 127.0;
+            double magnitude = Math.abs(value);
+            curves[axis][raw + 128] = magnitude <= deadband ? 0
+                : Math.copySign(Math.pow((magnitude - deadband) / (1 - deadband), exponents[axis]), value);
+        }
+    }
+
+    /**Returns an axis value after that axis' deadband and response curve */
+    public double shape(int axis, double value) {
+        int raw = (int)Math.round(value < 0 ? value * 128 : value * 127);
+        return curves[axis][Math.max(-128, Math.min(127, raw)) + 128];
+    }
+    /**Reads one axis now and shapes it. Unlike update(), this is safe to call from another thread, such as a faster drive loop */
+    public double shaped(int axis) {
+        return shape(axis, pad.getRawAxis(axis));
+    }
+
+    /**Reads every axis, button and the D Pad once, for the whole loop to use.
+     * Call once at the start of each loop, from one thread; the snapshot returned is the same object every time
+     */
+    public Snapshot update() {
+        DriverStation ds = DriverStation.getInstance();
+        int port = pad.getPort();
+        Snapshot s = snapshot;
+        // Axes the controller doesn't have read as 0, without the driver station warning about them
+        int axisCount = ds.getStickAxisCount(port);
+        for (int axis = 0; axis < AXES; axis++) {
+            double raw = axis < axisCount ? ds.getStickAxis(port, axis) : 0;
+            s.rawAxes[axis] = raw;
+            s.axes[axis] = shape(axis, raw);
+        }
+        s.previousButtons = s.buttons;
+        s.buttons = ds.getStickButtons(port);
+        for (int button = 1; button <= BUTTONS; button++) {
+            s.heldCycles[button] = (s.buttons & (1 << (button - 1))) != 0 ? s.heldCycles[button] + 1 : 0;
+        }
+        s.pov = ds.getStickPOVCount(port) > 0 ? ds.getStickPOV(port, 0) : -1;
+        s.updates++;
+        return s;
+    }
+    /**Returns the snapshot from the last update() */
+    public Snapshot snapshot() {
+        return snapshot;
     }
     /**Returns the value of the left trigger
      * The value returned will be between 0 and 1, with 0 being fully depressed and 1 being fully pressed */
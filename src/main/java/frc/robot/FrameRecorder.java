@@ -0,0 +1,156 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Saves camera frames as numbered JPEGs, for replaying later with VisionReplay or retuning the
+ * pipeline in GRIP. Subscribe it to a CameraHub at a low frame rate; it runs on its own thread, so
+ * writing files never holds up vision or the control loop.
+ *
+ * <p>Recording stops once maxFrames have been saved, so a long practice session can't fill the disk,
+ * and its subscription is closed. Opened with open(), each boot records into a new session-NNNN
+ * directory and only the newest few sessions are kept, so the disk doesn't fill over many boots either.
+ */
+public class FrameRecorder implements CameraHub.FrameConsumer, AutoCloseable {
+
+	/** Where frames go on the roboRIO, on the USB stick. */
+	public static final File DEFAULT_DIRECTORY = new File("/U/frames");
+
+	private static final Pattern NAME = Pattern.compile("session-(\\d+)");
+
+	private final File directory;
+	private final int maxFrames;
+	private volatile boolean recording = true;
+	private volatile boolean stopped;
+	private volatile int saved;
+	private volatile CameraHub.Subscription subscription;
+
+	/**
+	 * Creates a new session directory under a directory, deleting the oldest sessions there beyond
+	 * keepSessions.
+	 * @param directory where to keep the sessions; created if it doesn't exist
+	 * @param maxFrames how many frames to save at most in this session
+	 * @param keepSessions how many sessions to keep, including this one
+	 */
+	public static FrameRecorder open(File directory, int maxFrames, int keepSessions) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File[] sessions = directory.listFiles((dir, name) -> NAME.matcher(name).matches());
+		int next = 1;
+		if (sessions != null) {
+			// Numbered names sort oldest first
+			Arrays.sort(sessions, (a, b) -> Integer.compare(number(a), number(b)));
+			for (int i = 0; i < sessions.length - (keepSessions - 1); i++) {
+				delete(sessions[i]);
+			}
+			if (sessions.length > 0) {
+				next = number(sessions[sessions.length - 1]) + 1;
+			}
+		}
+		File session = new File(directory, String.format(Locale.ROOT, "session-%04d", next));
+		if (!session.mkdir()) {
+			throw new IOException("Could not create " + session);
+		}
+		return new FrameRecorder(session, maxFrames);
+	}
+
+	private static int number(File session) {
+		Matcher matcher = NAME.matcher(session.getName());
+		return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+	}
+
+	// Sessions only hold frames, so there's nothing to recurse into
+	private static void delete(File session) {
+		File[] frames = session.listFiles();
+		if (frames != null) {
+			for (File frame : frames) {
+				frame.delete();
+			}
+		}
+		if (!session.delete()) {
+			DriverStation.reportWarning("Could not delete old frame session " + session, false);
+		}
+	}
+
+	/**
+	 * @param directory where to save the frames; created if it doesn't exist
+	 * @param maxFrames how many frames to save at most
+	 */
+	public FrameRecorder(File directory, int maxFrames) {
+		this.directory = directory;
+		this.maxFrames = maxFrames;
+	}
+
+	/**
+	 * Subscribes to a camera's frames. The subscription is closed when recording stops.
+	 * @param hub the hub the camera is opened through
+	 * @param device the device number
+	 * @param maxFps the most frames a second to save
+	 */
+	public CameraHub.Subscription subscribe(CameraHub hub, int device, double maxFps) {
+		subscription = hub.subscribe(device, "recorder", maxFps, this);
+		// In case it stopped before the subscription was set
+		if (stopped) {
+			close();
+		}
+		return subscription;
+	}
+
+	@Override
+	public void accept(CameraHub.SharedFrame frame) {
+		if (!recording || stopped) {
+			return;
+		}
+		if (saved == 0 && !directory.isDirectory() && !directory.mkdirs()) {
+			DriverStation.reportWarning("Could not create " + directory + "; not recording frames", false);
+			close();
+			return;
+		}
+		String name = String.format(Locale.ROOT, "frame-%06d-%d.jpg", frame.getSequence(), frame.getCaptureTime());
+		if (Imgcodecs.imwrite(new File(directory, name).getPath(), frame.mat())) {
+			saved++;
+		}
+		if (saved >= maxFrames) {
+			close();
+		}
+	}
+
+	/**
+	 * @param recording false to pause recording, e.g. while disabled
+	 */
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	/** @return the number of frames saved */
+	public int getSaved() {
+		return saved;
+	}
+
+	/** @return the directory frames are saved in */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Stops recording for good and closes the subscription, if there is one.
+	 */
+	@Override
+	public void close() {
+		stopped = true;
+		CameraHub.Subscription subscription = this.subscription;
+		if (subscription != null) {
+			subscription.close();
+		}
+	}
+}
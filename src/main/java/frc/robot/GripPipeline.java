@@ -25,48 +25,161 @@ import org.opencv.objdetect.*;
 *
 * @author GRIP
 */
-public class GripPipeline implements VisionPipeline {
+public class GripPipeline implements StagedPipeline {
 
-	//Outputs
-	private Mat hslThresholdOutput = new Mat();
+	//Outputs. The mask lives in a direct buffer so the threshold and centroid read and write it in place
+	private Mat hslThresholdOutput = new DirectMat();
 	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
 
+	//Scratch state for the allocation-free contour filter
+	private final ContourFilter contourFilter = new ContourFilter();
+
+	//Colour lookup table for the HSL threshold
+	private final LutThreshold lutThreshold = new LutThreshold();
+
+	//Centroid of the mask inside the target, and its box in mask coordinates
+	private final MaskCentroid maskCentroid = new MaskCentroid();
+	private final Rect centroidRegion = new Rect();
+
+	//Region of interest tracking. When the tracker has a lock, only the window is processed
+	private final RoiTracker roiTracker;
+	private final Rect roi = new Rect();
+	private final Point roiOffset = new Point();
+	private boolean roiActive;
+	private int frameWidth, frameHeight;
+
+	//Frame height the filter's pixel thresholds were tuned at, or 0 to use them as they are
+	private final int tunedHeight;
+
+	//Per-step timings and contour counts, or null when not measuring
+	private VisionMetrics metrics;
+
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	/**
+	 * Creates a pipeline that always processes the whole frame.
+	 */
+	public GripPipeline() {
+		this(null);
+	}
+
+	/**
+	 * Creates a pipeline that only processes a window around the last target while the tracker has a lock.
+	 * The contour outputs are always in full frame coordinates; hslThresholdOutput is the size of the window.
+	 * @param roiTracker the tracker, which may be shared between pipeline instances, or null to disable
+	 */
+	public GripPipeline(RoiTracker roiTracker) {
+		this(roiTracker, 0);
+	}
+
+	/**
+	 * Creates a pipeline for a camera whose resolution may change. The filter's pixel thresholds are
+	 * scaled by the frame's height over tunedHeight: lengths linearly and areas by the square.
+	 * @param roiTracker the tracker, which may be shared between pipeline instances, or null to disable
+	 * @param tunedHeight the frame height the filter thresholds were tuned at
+	 */
+	public GripPipeline(RoiTracker roiTracker, int tunedHeight) {
+		this.roiTracker = roiTracker;
+		this.tunedHeight = tunedHeight;
+	}
+
 	/**
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	@Override	public void process(Mat source0) {
-		// Step HSL_Threshold0:
-		Mat hslThresholdInput = source0;
-		double[] hslThresholdHue = {9.712230215827338, 70.01866083924669};
-		double[] hslThresholdSaturation = {199.50539568345317, 255.0};
-		double[] hslThresholdLuminance = {30.07566043909661, 255.0};
-		hslThreshold(hslThresholdInput, hslThresholdHue, hslThresholdSaturation, hslThresholdLuminance, hslThresholdOutput);
-
-		// Step Find_Contours0:
-		Mat findContoursInput = hslThresholdOutput;
-		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
-
-		// Step Filter_Contours0:
-		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-		double filterContoursMinArea = 100.0;
-		double filterContoursMinPerimeter = 0.0;
-		double filterContoursMinWidth = 0.0;
-		double filterContoursMaxWidth = 1000.0;
-		double filterContoursMinHeight = 60.0;
-		double filterContoursMaxHeight = 1000.0;
-		double[] filterContoursSolidity = {0, 100};
-		double filterContoursMaxVertices = 1000000.0;
-		double filterContoursMinVertices = 0.0;
-		double filterContoursMinRatio = 0.0;
-		double filterContoursMaxRatio = 1000.0;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
+		for (int stage = 0; stage < stageCount(); stage++) {
+			processStage(stage, source0);
+		}
+	}
+
+	/**
+	 * The pipeline runs as two stages: the HSL threshold, then contour finding and filtering.
+	 * @return the number of stages
+	 */
+	@Override
+	public int stageCount() {
+		return 2;
+	}
 
+	/**
+	 * Runs one stage of the pipeline. Each stage reads the outputs of the stage before it.
+	 * @param stage the stage to run, from 0 to stageCount() - 1
+	 * @param source0 the frame being processed
+	 */
+	@Override
+	public void processStage(int stage, Mat source0) {
+		switch (stage) {
+			case 0:
+				// Pick the window for this frame
+				frameWidth = source0.cols();
+				frameHeight = source0.rows();
+				roiActive = roiTracker != null && roiTracker.window(frameWidth, frameHeight, roi);
+				roiOffset.x = roiActive ? roi.x : 0;
+				roiOffset.y = roiActive ? roi.y : 0;
+
+				// Step HSL_Threshold0:
+				long start = metrics != null ? System.nanoTime() : 0;
+				Mat hslThresholdInput = source0;
+				double[] hslThresholdHue = {9.712230215827338, 70.01866083924669};
+				double[] hslThresholdSaturation = {199.50539568345317, 255.0};
+				double[] hslThresholdLuminance = {30.07566043909661, 255.0};
+				hslThreshold(hslThresholdInput, roiActive ? roi : null, hslThresholdHue, hslThresholdSaturation, hslThresholdLuminance, hslThresholdOutput);
+				if (metrics != null) {
+					metrics.recordNanos(VisionMetrics.HSL_THRESHOLD, System.nanoTime() - start);
+				}
+				break;
+
+			case 1:
+				// Step Find_Contours0:
+				long findStart = metrics != null ? System.nanoTime() : 0;
+				Mat findContoursInput = hslThresholdOutput;
+				boolean findContoursExternalOnly = false;
+				findContours(findContoursInput, findContoursExternalOnly, roiOffset, findContoursOutput);
+				long filterStart = metrics != null ? System.nanoTime() : 0;
+
+				// Step Filter_Contours0:
+				ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
+				double filterContoursMinArea = 100.0;
+				double filterContoursMinPerimeter = 0.0;
+				double filterContoursMinWidth = 0.0;
+				double filterContoursMaxWidth = 1000.0;
+				double filterContoursMinHeight = 60.0;
+				double filterContoursMaxHeight = 1000.0;
+				double[] filterContoursSolidity = {0, 100};
+				double filterContoursMaxVertices = 1000000.0;
+				double filterContoursMinVertices = 0.0;
+				double filterContoursMinRatio = 0.0;
+				double filterContoursMaxRatio = 1000.0;
+				if (tunedHeight > 0 && frameHeight != tunedHeight) {
+					double scale = frameHeight / (double)tunedHeight;
+					filterContoursMinArea *= scale * scale;
+					filterContoursMinPerimeter *= scale;
+					filterContoursMinWidth *= scale;
+					filterContoursMaxWidth *= scale;
+					filterContoursMinHeight *= scale;
+					filterContoursMaxHeight *= scale;
+				}
+				filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
+				if (metrics != null) {
+					long end = System.nanoTime();
+					metrics.recordNanos(VisionMetrics.FIND_CONTOURS, filterStart - findStart);
+					metrics.recordNanos(VisionMetrics.FILTER_CONTOURS, end - filterStart);
+					metrics.record(VisionMetrics.FOUND_CONTOURS, findContoursOutput.size());
+					metrics.record(VisionMetrics.FILTERED_CONTOURS, filterContoursOutput.size());
+				}
+
+				// Tell the tracker where the target went
+				if (roiTracker != null) {
+					updateTracker();
+				}
+				break;
+
+			default:
+				throw new IllegalArgumentException("GripPipeline has no stage " + stage);
+		}
 	}
 
 	/**
@@ -94,8 +207,81 @@ public class GripPipeline implements VisionPipeline {
 	}
 
 
+	/**
+	 * @return the filter behind filterContours, for its per-predicate rejection statistics
+	 */
+	public ContourFilter contourFilter() {
+		return contourFilter;
+	}
+
+	/**
+	 * Times each step and counts the contours found and kept, from the next frame on.
+	 * @param metrics where to record, which may be shared between pipeline instances, or null to stop
+	 */
+	public void setMetrics(VisionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the width of the last frame processed, in pixels
+	 */
+	public int frameWidth() {
+		return frameWidth;
+	}
+
+	/**
+	 * @return the height of the last frame processed, in pixels
+	 */
+	public int frameHeight() {
+		return frameHeight;
+	}
+
+	/**
+	 * Finds the centroid of the thresholded pixels inside the bounding box of the first contour that
+	 * passed the filter. Reads hslThresholdOutput in place, so call it before the next frame is processed.
+	 * @param out set to the centroid, in full frame coordinates
+	 * @return false, leaving out alone, if no contour passed the filter
+	 */
+	public boolean targetCentroid(Point out) {
+		return targetCentroid(0, out);
+	}
+
+	/**
+	 * Finds the centroid of the thresholded pixels inside the bounding box of a contour that passed the
+	 * filter.
+	 * @param contour the contour's index in filterContoursOutput()
+	 * @param out set to the centroid, in full frame coordinates
+	 * @return false, leaving out alone, if there is no such contour
+	 */
+	public boolean targetCentroid(int contour, Point out) {
+		if (contour >= filterContoursOutput.size()) {
+			return false;
+		}
+		Rect box = Imgproc.boundingRect(filterContoursOutput.get(contour));
+		// The contours are in frame coordinates and the mask covers the window
+		centroidRegion.x = box.x - (int)roiOffset.x;
+		centroidRegion.y = box.y - (int)roiOffset.y;
+		centroidRegion.width = box.width;
+		centroidRegion.height = box.height;
+		if (!maskCentroid.centroid(hslThresholdOutput, centroidRegion, out)) {
+			return false;
+		}
+		out.x += roiOffset.x;
+		out.y += roiOffset.y;
+		return true;
+	}
+
+	/**
+	 * @return the bytes the threshold and centroid have copied between Mats and the Java heap, which
+	 * stays at 0 while the frames and mask are DirectMats
+	 */
+	public long bytesCopied() {
+		return lutThreshold.getBytesCopied() + maskCentroid.getBytesCopied();
+	}
+
 	/**
 	 * Segment an image based on hue, saturation, and luminance ranges.
+	 * Uses a colour lookup table; see LutThreshold for how it differs from hslThresholdOpenCv.
 	 *
 	 * @param input The image on which to perform the HSL threshold.
 	 * @param hue The min and max hue
@@ -103,7 +289,37 @@ public class GripPipeline implements VisionPipeline {
 	 * @param lum The min and max luminance
 	 * @param output The image in which to store the output.
 	 */
-	private void hslThreshold(Mat input, double[] hue, double[] sat, double[] lum,
+	void hslThreshold(Mat input, double[] hue, double[] sat, double[] lum,
+		Mat out) {
+		lutThreshold.threshold(input, hue, sat, lum, out);
+	}
+
+	/**
+	 * Segment a window of an image based on hue, saturation, and luminance ranges. A DirectMat input is
+	 * read in place, without taking a submat.
+	 *
+	 * @param input The image on which to perform the HSL threshold.
+	 * @param region The window to threshold, or null for the whole image
+	 * @param hue The min and max hue
+	 * @param sat The min and max saturation
+	 * @param lum The min and max luminance
+	 * @param output The image in which to store the output, the size of the window.
+	 */
+	void hslThreshold(Mat input, Rect region, double[] hue, double[] sat, double[] lum,
+		Mat out) {
+		lutThreshold.threshold(input, region, hue, sat, lum, out);
+	}
+
+	/**
+	 * The HSL threshold as GRIP generated it, with cvtColor and inRange. Kept for comparison.
+	 *
+	 * @param input The image on which to perform the HSL threshold.
+	 * @param hue The min and max hue
+	 * @param sat The min and max saturation
+	 * @param lum The min and max luminance
+	 * @param output The image in which to store the output.
+	 */
+	void hslThresholdOpenCv(Mat input, double[] hue, double[] sat, double[] lum,
 		Mat out) {
 		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HLS);
 		Core.inRange(out, new Scalar(hue[0], lum[0], sat[0]),
@@ -117,7 +333,20 @@ public class GripPipeline implements VisionPipeline {
 	 * @param maskSize the size of the mask.
 	 * @param output The image in which to store the output.
 	 */
-	private void findContours(Mat input, boolean externalOnly,
+	void findContours(Mat input, boolean externalOnly,
+		List<MatOfPoint> contours) {
+		findContours(input, externalOnly, new Point(), contours);
+	}
+
+	/**
+	 * Finds contours in a binary image, shifting every point by an offset. Used to map contours found
+	 * in a window back to full frame coordinates.
+	 * @param input The binary image.
+	 * @param externalOnly Whether to find only the outermost contours.
+	 * @param offset Added to every contour point.
+	 * @param contours The list in which to store the contours.
+	 */
+	void findContours(Mat input, boolean externalOnly, Point offset,
 		List<MatOfPoint> contours) {
 		Mat hierarchy = new Mat();
 		contours.clear();
@@ -129,10 +358,32 @@ public class GripPipeline implements VisionPipeline {
 			mode = Imgproc.RETR_LIST;
 		}
 		int method = Imgproc.CHAIN_APPROX_SIMPLE;
-		Imgproc.findContours(input, contours, hierarchy, mode, method);
+		Imgproc.findContours(input, contours, hierarchy, mode, method, offset);
+		hierarchy.release();
 	}
 
 
+	/**
+	 * Passes the box around every contour that passed the filter to the ROI tracker.
+	 */
+	private void updateTracker() {
+		if (filterContoursOutput.isEmpty()) {
+			roiTracker.update(false, null, null, frameWidth, frameHeight);
+			return;
+		}
+		Rect bounds = Imgproc.boundingRect(filterContoursOutput.get(0));
+		for (int i = 1; i < filterContoursOutput.size(); i++) {
+			Rect r = Imgproc.boundingRect(filterContoursOutput.get(i));
+			int right = Math.max(bounds.x + bounds.width, r.x + r.width);
+			int bottom = Math.max(bounds.y + bounds.height, r.y + r.height);
+			bounds.x = Math.min(bounds.x, r.x);
+			bounds.y = Math.min(bounds.y, r.y);
+			bounds.width = right - bounds.x;
+			bounds.height = bottom - bounds.y;
+		}
+		roiTracker.update(true, bounds, roiActive ? roi : null, frameWidth, frameHeight);
+	}
+
 	/**
 	 * Filters out contours that do not meet certain criteria.
 	 * @param inputContours is the input list of contours
@@ -149,36 +400,12 @@ public class GripPipeline implements VisionPipeline {
 	 * @param minRatio minimum ratio of width to height
 	 * @param maxRatio maximum ratio of width to height
 	 */
-	private void filterContours(List<MatOfPoint> inputContours, double minArea,
+	void filterContours(List<MatOfPoint> inputContours, double minArea,
 		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
 		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
 		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
-		output.clear();
-		//operation
-		for (int i = 0; i < inputContours.size(); i++) {
-			final MatOfPoint contour = inputContours.get(i);
-			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth || bb.width > maxWidth) continue;
-			if (bb.height < minHeight || bb.height > maxHeight) continue;
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
-			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
-			if (solid < solidity[0] || solid > solidity[1]) continue;
-			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-			final double ratio = bb.width / (double)bb.height;
-			if (ratio < minRatio || ratio > maxRatio) continue;
-			output.add(contour);
-		}
+		contourFilter.filter(inputContours, minArea, minPerimeter, minWidth, maxWidth, minHeight,
+			maxHeight, solidity, maxVertexCount, minVertexCount, minRatio, maxRatio, output);
 	}
 
 
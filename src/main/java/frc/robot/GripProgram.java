@@ -0,0 +1,499 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * A GRIP pipeline loaded from a .grip file at runtime, so retuning the pipeline in GRIP only means
+ * deploying the new .grip file instead of regenerating and copying a Java class.
+ *
+ * <p>Loading parses the file, checks every step is supported and plans how the steps run; do it once
+ * in robotInit. newPipeline() then makes a GripRuntimePipeline for each thread that runs it.
+ *
+ * <p>The plan fuses steps where the generated class keeps every intermediate output:
+ * <ul>
+ * <li>Image outputs share buffers. Once nothing later reads a step's output, its buffer is reused,
+ * and CV subtract and CV Threshold write straight over an input nothing else needs.</li>
+ * <li>HSL Threshold runs through a LutThreshold, a single pass with no HLS image, and RGB Threshold
+ * runs inRange on the BGR frame directly instead of converting it first.</li>
+ * <li>Filter Contours uses the allocation-free ContourFilter.</li>
+ * </ul>
+ * Only the outputs of the last steps, the ones nothing else reads, are kept for the caller, plus any
+ * steps asked for by index when loading.
+ *
+ * <p>Supported steps: HSL Threshold, HSV Threshold, RGB Threshold, CV extractChannel, CV subtract,
+ * CV Threshold, Find Contours and Filter Contours, with a single image source.
+ */
+public final class GripProgram {
+
+	/** Step input fed by the camera frame. */
+	static final int FRAME = -1;
+	/** Step input given as a value in the file. */
+	static final int VALUE = -2;
+
+	/**
+	 * One step of the pipeline, run with the frame and the pipeline's buffers.
+	 */
+	interface Op {
+		void run(Mat frame, Mat[] images, List<ArrayList<MatOfPoint>> contours);
+	}
+
+	/**
+	 * A step as read from the file.
+	 */
+	private static final class Step {
+		final String name;
+		final Object[] values;
+		final int[] sources;
+		boolean contoursOutput;
+		int lastUse = -1;
+		boolean kept;
+		int buffer = -1;
+		// Set when a later step writes over this step's buffer, which then belongs to that step
+		boolean overwritten;
+
+		Step(String name, int sockets) {
+			this.name = name;
+			values = new Object[sockets];
+			sources = new int[sockets];
+			Arrays.fill(sources, VALUE);
+		}
+	}
+
+	private final String name;
+	private final Step[] steps;
+	private final List<Supplier<Op>> ops = new ArrayList<Supplier<Op>>();
+	private int imageBuffers;
+	private int contourBuffers;
+
+	private GripProgram(String name, Step[] steps) {
+		this.name = name;
+		this.steps = steps;
+	}
+
+	/**
+	 * Loads a .grip file, keeping only the final outputs.
+	 * @param file the .grip file, e.g. in Filesystem.getDeployDirectory()
+	 * @return the loaded program
+	 * @throws IOException if the file can't be read or parsed
+	 * @throws IllegalArgumentException if the pipeline uses a step or connection that isn't supported
+	 */
+	public static GripProgram load(File file) throws IOException {
+		return load(file, new int[0]);
+	}
+
+	/**
+	 * Loads a .grip file.
+	 * @param file the .grip file, e.g. in Filesystem.getDeployDirectory()
+	 * @param keepSteps indices of steps whose outputs should be kept for the caller even though later
+	 * steps read them
+	 * @return the loaded program
+	 * @throws IOException if the file can't be read or parsed
+	 * @throws IllegalArgumentException if the pipeline uses a step or connection that isn't supported
+	 */
+	public static GripProgram load(File file, int... keepSteps) throws IOException {
+		Document document;
+		try {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Could not parse " + file, e);
+		}
+
+		List<Element> stepElements = children(document.getDocumentElement(), "steps", "grip:Step");
+		Step[] steps = new Step[stepElements.size()];
+		for (int i = 0; i < steps.length; i++) {
+			Element element = stepElements.get(i);
+			List<Element> inputs = children(element, null, "grip:Input");
+			Step step = new Step(element.getAttribute("name"), inputs.size());
+			for (Element input : inputs) {
+				int socket = Integer.parseInt(input.getAttribute("socket"));
+				NodeList value = input.getElementsByTagName("value");
+				if (value.getLength() > 0) {
+					step.values[socket] = parseValue((Element)value.item(0));
+				}
+			}
+			steps[i] = step;
+		}
+
+		for (Element connection : children(document.getDocumentElement(), "connections", "grip:Connection")) {
+			Element output = (Element)connection.getElementsByTagName("grip:Output").item(0);
+			Element input = (Element)connection.getElementsByTagName("grip:Input").item(0);
+			int to = Integer.parseInt(input.getAttribute("step"));
+			int socket = Integer.parseInt(input.getAttribute("socket"));
+			int from;
+			if (output.hasAttribute("source")) {
+				if (Integer.parseInt(output.getAttribute("source")) != 0) {
+					throw new IllegalArgumentException(file.getName() + ": only a single image source is supported");
+				}
+				from = FRAME;
+			} else {
+				from = Integer.parseInt(output.getAttribute("step"));
+				if (from >= to) {
+					throw new IllegalArgumentException(file.getName() + ": step " + to + " reads step " + from
+						+ ", which runs after it");
+				}
+				steps[from].lastUse = Math.max(steps[from].lastUse, to);
+			}
+			steps[to].sources[socket] = from;
+		}
+
+		for (int keep : keepSteps) {
+			steps[keep].kept = true;
+		}
+		GripProgram program = new GripProgram(file.getName(), steps);
+		program.plan();
+		return program;
+	}
+
+	/**
+	 * Assigns buffers to the step outputs and builds the op for each step.
+	 */
+	private void plan() {
+		List<Integer> freeImages = new ArrayList<Integer>();
+		for (int i = 0; i < steps.length; i++) {
+			Step step = steps[i];
+			step.contoursOutput = step.name.equals("Find Contours") || step.name.equals("Filter Contours");
+			if (step.lastUse < 0) {
+				// Nothing reads it, so it's a final output
+				step.kept = true;
+			}
+
+			// Buffers last read by an earlier step are free again
+			for (int j = 0; j < i; j++) {
+				Step earlier = steps[j];
+				if (!earlier.contoursOutput && !earlier.kept && !earlier.overwritten && earlier.lastUse == i - 1) {
+					freeImages.add(earlier.buffer);
+				}
+			}
+
+			if (step.contoursOutput) {
+				step.buffer = contourBuffers++;
+			} else if (inPlace(step) && canOverwrite(step.sources[0], i)) {
+				step.buffer = steps[step.sources[0]].buffer;
+				steps[step.sources[0]].overwritten = true;
+			} else if (!freeImages.isEmpty()) {
+				step.buffer = freeImages.remove(freeImages.size() - 1);
+			} else {
+				step.buffer = imageBuffers++;
+			}
+			ops.add(op(i, step));
+		}
+	}
+
+	/**
+	 * Whether a step can write its output over its first input.
+	 */
+	private static boolean inPlace(Step step) {
+		return step.name.equals("CV subtract") || step.name.equals("CV Threshold");
+	}
+
+	/**
+	 * Whether step i may overwrite the output of the given source step: nothing after i reads it, i
+	 * reads it only once, and it isn't kept for the caller.
+	 */
+	private boolean canOverwrite(int source, int i) {
+		if (source < 0) {
+			return false;
+		}
+		Step from = steps[source];
+		if (from.kept || from.contoursOutput || from.lastUse != i) {
+			return false;
+		}
+		int reads = 0;
+		for (int s : steps[i].sources) {
+			if (s == source) reads++;
+		}
+		return reads == 1;
+	}
+
+	/**
+	 * Builds a factory for the op that runs step i.
+	 */
+	private Supplier<Op> op(int i, Step step) {
+		final int out = step.buffer;
+		switch (step.name) {
+			case "HSL Threshold": {
+				final int in = image(i, 0);
+				final double[] hue = range(i, 1), sat = range(i, 2), lum = range(i, 3);
+				return () -> {
+					LutThreshold lut = new LutThreshold();
+					lut.prepare(hue, sat, lum);
+					return (frame, images, contours) -> lut.threshold(input(frame, images, in), hue, sat, lum, images[out]);
+				};
+			}
+			case "HSV Threshold": {
+				final int in = image(i, 0);
+				final double[] hue = range(i, 1), sat = range(i, 2), val = range(i, 3);
+				final Scalar low = new Scalar(hue[0], sat[0], val[0]);
+				final Scalar high = new Scalar(hue[1], sat[1], val[1]);
+				return () -> {
+					Mat hsv = new Mat();
+					return (frame, images, contours) -> {
+						Imgproc.cvtColor(input(frame, images, in), hsv, Imgproc.COLOR_BGR2HSV);
+						Core.inRange(hsv, low, high, images[out]);
+					};
+				};
+			}
+			case "RGB Threshold": {
+				final int in = image(i, 0);
+				final double[] red = range(i, 1), green = range(i, 2), blue = range(i, 3);
+				// The frame is already BGR, so compare it in that order instead of converting to RGB
+				final Scalar low = new Scalar(blue[0], green[0], red[0]);
+				final Scalar high = new Scalar(blue[1], green[1], red[1]);
+				return () -> (frame, images, contours) -> Core.inRange(input(frame, images, in), low, high, images[out]);
+			}
+			case "CV extractChannel": {
+				final int in = image(i, 0);
+				final int channel = (int)number(i, 1);
+				return () -> (frame, images, contours) -> Core.extractChannel(input(frame, images, in), images[out], channel);
+			}
+			case "CV subtract": {
+				final int first = image(i, 0), second = image(i, 1);
+				return () -> (frame, images, contours) ->
+					Core.subtract(input(frame, images, first), input(frame, images, second), images[out]);
+			}
+			case "CV Threshold": {
+				final int in = image(i, 0);
+				final double thresh = number(i, 1), maxVal = number(i, 2);
+				final int type = thresholdType(i, 3);
+				return () -> (frame, images, contours) ->
+					Imgproc.threshold(input(frame, images, in), images[out], thresh, maxVal, type);
+			}
+			case "Find Contours": {
+				final int in = image(i, 0);
+				final int mode = Boolean.parseBoolean(text(i, 1)) ? Imgproc.RETR_EXTERNAL : Imgproc.RETR_LIST;
+				return () -> {
+					Mat hierarchy = new Mat();
+					return (frame, images, contours) -> {
+						ArrayList<MatOfPoint> found = contours.get(out);
+						found.clear();
+						Imgproc.findContours(input(frame, images, in), found, hierarchy, mode, Imgproc.CHAIN_APPROX_SIMPLE);
+					};
+				};
+			}
+			case "Filter Contours": {
+				final int in = contourInput(i, 0);
+				final double minArea = number(i, 1), minPerimeter = number(i, 2);
+				final double minWidth = number(i, 3), maxWidth = number(i, 4);
+				final double minHeight = number(i, 5), maxHeight = number(i, 6);
+				final double[] solidity = range(i, 7);
+				final double maxVertices = number(i, 8), minVertices = number(i, 9);
+				final double minRatio = number(i, 10), maxRatio = number(i, 11);
+				return () -> {
+					ContourFilter filter = new ContourFilter();
+					return (frame, images, contours) -> filter.filter(contours.get(in), minArea, minPerimeter,
+						minWidth, maxWidth, minHeight, maxHeight, solidity, maxVertices, minVertices,
+						minRatio, maxRatio, contours.get(out));
+				};
+			}
+			default:
+				throw new IllegalArgumentException(name + ": step " + i + " (" + step.name + ") is not supported");
+		}
+	}
+
+	private static Mat input(Mat frame, Mat[] images, int buffer) {
+		return buffer == FRAME ? frame : images[buffer];
+	}
+
+	/**
+	 * The buffer an image input reads from, or FRAME.
+	 */
+	private int image(int i, int socket) {
+		int source = source(i, socket);
+		if (source != FRAME && steps[source].contoursOutput) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " needs an image");
+		}
+		return source == FRAME ? FRAME : steps[source].buffer;
+	}
+
+	/**
+	 * The buffer a contours input reads from.
+	 */
+	private int contourInput(int i, int socket) {
+		int source = source(i, socket);
+		if (source == FRAME || !steps[source].contoursOutput) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " needs contours");
+		}
+		return steps[source].buffer;
+	}
+
+	private int source(int i, int socket) {
+		if (socket >= steps[i].sources.length || steps[i].sources[socket] == VALUE) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " is not connected");
+		}
+		return steps[i].sources[socket];
+	}
+
+	private Object value(int i, int socket) {
+		if (socket >= steps[i].values.length || steps[i].values[socket] == null) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " has no value");
+		}
+		return steps[i].values[socket];
+	}
+
+	private String text(int i, int socket) {
+		Object value = value(i, socket);
+		if (!(value instanceof String)) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " should be a single value");
+		}
+		return (String)value;
+	}
+
+	private double number(int i, int socket) {
+		try {
+			return Double.parseDouble(text(i, socket));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " should be a number", e);
+		}
+	}
+
+	private double[] range(int i, int socket) {
+		Object value = value(i, socket);
+		if (!(value instanceof double[]) || ((double[])value).length != 2) {
+			throw new IllegalArgumentException(name + ": step " + i + " socket " + socket + " should be a min and max");
+		}
+		return (double[])value;
+	}
+
+	private int thresholdType(int i, int socket) {
+		String type = text(i, socket);
+		switch (type) {
+			case "THRESH_BINARY": return Imgproc.THRESH_BINARY;
+			case "THRESH_BINARY_INV": return Imgproc.THRESH_BINARY_INV;
+			case "THRESH_TRUNC": return Imgproc.THRESH_TRUNC;
+			case "THRESH_TOZERO": return Imgproc.THRESH_TOZERO;
+			case "THRESH_TOZERO_INV": return Imgproc.THRESH_TOZERO_INV;
+			default:
+				throw new IllegalArgumentException(name + ": step " + i + " has unknown threshold type " + type);
+		}
+	}
+
+	/**
+	 * Reads a value element: either a single value as text, or a list of numbers.
+	 */
+	private static Object parseValue(Element value) {
+		List<Element> items = new ArrayList<Element>();
+		for (Node child = value.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				items.add((Element)child);
+			}
+		}
+		if (items.isEmpty()) {
+			return value.getTextContent().trim();
+		}
+		double[] numbers = new double[items.size()];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = Double.parseDouble(items.get(i).getTextContent().trim());
+		}
+		return numbers;
+	}
+
+	/**
+	 * The child elements with a tag, optionally inside a named section of the root.
+	 */
+	private static List<Element> children(Element parent, String section, String tag) {
+		List<Element> result = new ArrayList<Element>();
+		Element container = parent;
+		if (section != null) {
+			NodeList sections = parent.getElementsByTagName(section);
+			if (sections.getLength() == 0) {
+				return result;
+			}
+			container = (Element)sections.item(0);
+		}
+		for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element && ((Element)child).getTagName().equals(tag)) {
+				result.add((Element)child);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Makes a pipeline instance with its own buffers. Each thread running the program needs its own.
+	 */
+	public GripRuntimePipeline newPipeline() {
+		Op[] instances = new Op[ops.size()];
+		for (int i = 0; i < instances.length; i++) {
+			instances[i] = ops.get(i).get();
+		}
+		return new GripRuntimePipeline(this, instances, imageBuffers, contourBuffers);
+	}
+
+	/** @return the file name the program was loaded from */
+	public String getName() {
+		return name;
+	}
+
+	/** @return the number of steps in the file */
+	public int stepCount() {
+		return steps.length;
+	}
+
+	/**
+	 * @param stepName a step name as GRIP writes it, e.g. "Find Contours"
+	 * @return the index of the last step with that name, or -1 if there isn't one
+	 */
+	public int stepIndex(String stepName) {
+		for (int i = steps.length - 1; i >= 0; i--) {
+			if (steps[i].name.equals(stepName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the number of image buffers the steps share, at most one per image step */
+	public int imageBufferCount() {
+		return imageBuffers;
+	}
+
+	/**
+	 * @return the buffer holding the step's output, checked to be kept and of the right kind
+	 */
+	int keptBuffer(int step, boolean contours) {
+		if (step < 0 || step >= steps.length) {
+			throw new IndexOutOfBoundsException("Step " + step + " of " + steps.length);
+		}
+		Step s = steps[step];
+		if (!s.kept) {
+			throw new IllegalStateException("The output of step " + step + " (" + s.name
+				+ ") is reused by later steps; pass it to GripProgram.load to keep it");
+		}
+		if (s.contoursOutput != contours) {
+			throw new IllegalStateException("Step " + step + " (" + s.name + ") does not output "
+				+ (contours ? "contours" : "an image"));
+		}
+		return s.buffer;
+	}
+
+	/**
+	 * @return the index of the last step that outputs contours, or -1 if there isn't one
+	 */
+	int lastContoursStep() {
+		for (int i = steps.length - 1; i >= 0; i--) {
+			if (steps[i].contoursOutput && steps[i].kept) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,84 @@
+package frc.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.vision.VisionPipeline;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/**
+ * Runs a GripProgram loaded from a .grip file. Make one with GripProgram.newPipeline().
+ *
+ * <p>Outputs are looked up by step index, counting from 0 in the order GRIP lists the steps. Only kept
+ * outputs can be read; see GripProgram.
+ *
+ * <p>Instances are not thread safe; keep one per VisionThread or PipelinedVisionRunner slot.
+ */
+public class GripRuntimePipeline implements VisionPipeline {
+
+	private final GripProgram program;
+	private final GripProgram.Op[] ops;
+	private final Mat[] images;
+	private final List<ArrayList<MatOfPoint>> contours;
+	private final int lastContoursStep;
+
+	GripRuntimePipeline(GripProgram program, GripProgram.Op[] ops, int imageBuffers, int contourBuffers) {
+		this.program = program;
+		this.ops = ops;
+		images = new Mat[imageBuffers];
+		for (int i = 0; i < imageBuffers; i++) {
+			images[i] = new Mat();
+		}
+		contours = new ArrayList<ArrayList<MatOfPoint>>(contourBuffers);
+		for (int i = 0; i < contourBuffers; i++) {
+			contours.add(new ArrayList<MatOfPoint>());
+		}
+		lastContoursStep = program.lastContoursStep();
+	}
+
+	/**
+	 * Runs every step of the program on a frame.
+	 */
+	@Override
+	public void process(Mat source0) {
+		for (GripProgram.Op op : ops) {
+			op.run(source0, images, contours);
+		}
+	}
+
+	/**
+	 * @param step the step's index in the .grip file
+	 * @return the image output of the step
+	 * @throws IllegalStateException if the step's output wasn't kept or isn't an image
+	 */
+	public Mat imageOutput(int step) {
+		return images[program.keptBuffer(step, false)];
+	}
+
+	/**
+	 * @param step the step's index in the .grip file
+	 * @return the contours output of the step
+	 * @throws IllegalStateException if the step's output wasn't kept or isn't contours
+	 */
+	public ArrayList<MatOfPoint> contoursOutput(int step) {
+		return contours.get(program.keptBuffer(step, true));
+	}
+
+	/**
+	 * @return the contours output of the last step that outputs contours, usually Filter Contours
+	 * @throws IllegalStateException if no step outputs contours
+	 */
+	public ArrayList<MatOfPoint> contoursOutput() {
+		if (lastContoursStep < 0) {
+			throw new IllegalStateException(program.getName() + " has no contours output");
+		}
+		return contoursOutput(lastContoursStep);
+	}
+
+	/** @return the program this pipeline runs */
+	public GripProgram getProgram() {
+		return program;
+	}
+}
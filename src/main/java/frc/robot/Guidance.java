@@ -1,16 +1,22 @@
 package frc.robot;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+
 import edu.wpi.first.wpilibj.*;
 import edu.wpi.first.networktables.*;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
-import edu.wpi.first.wpilibj.vision.VisionThread;
 import edu.wpi.cscore.UsbCamera;
-import edu.wpi.first.wpilibj.CameraServer;
 import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 
 public class Guidance {
-	NetworkTableEntry distanceEntry, targetEntry, currentEntry;
+	// Flushed with the rest of the robot's dashboard values at the end of the loop
+	private Telemetry.Number distanceOut, targetOut, currentOut;
+	private Telemetry.Number centerXOut, centerYOut, areaOut, targetDistanceOut, visionAgeOut, visionFpsOut,
+			visionLatencyOut, visionHeightOut, targetAngleOut, targetAngleSdOut, captureToResultOut, captureToActOut;
+	private Telemetry.Bool targetFoundOut, targetCoastingOut;
 	private static final double diameter = 9.25, radius = diameter / 2, circumference = diameter * Math.PI;
 	private static double distance = 0, target = 0, current = 0, targetOffset, realCurrent, targetRatio, maxPower,
 			powerRatio, error, realPower;
@@ -18,49 +24,158 @@ public class Guidance {
 	private static final int IMG_WIDTH = 160;
 	private static final int IMG_HEIGHT = 120;
 
-	private static VisionThread visionThread;
+	// Camera modes the resolution controller can pick from. Vision results are always scaled back to IMG_WIDTH x IMG_HEIGHT
+	private static final int[] MODE_WIDTHS = {160, 320, 640};
+	private static final int[] MODE_HEIGHTS = {120, 240, 480};
+	private static final double MIN_TARGET_PIXELS = 20, MAX_TARGET_PIXELS = 50, FRAME_BUDGET_MILLIS = 50;
+
+	// Horizontal field of view of the MS Lifecam in degrees, for turning pixels into an angle
+	private static final double CAMERA_FOV_HORIZ = 61;
+
+	private static PipelinedVisionRunner<GripPipeline> visionRunner;
+	private static RoiTracker roiTracker;
+	private static ResolutionController resolution;
+	private static VisionMetrics visionMetrics;
+	// Built by DistanceCalibration; null if it couldn't be loaded, in which case there's no distance
+	private static DistanceTable distanceTable;
 	private UsbCamera camera;
 	private FRC5572Controller driverController;
-	private double centerX = 0.0;
-	private double centerY = 0.0;
-	private double targetArea = 0.0;
+	private long frameCount = 0;
+	// Only used by the vision listener
+	private TargetGeometry geometry;
+
+	// Where results come from when VisionService runs the pipeline on a coprocessor; null to run it here
+	private final VisionClient coprocessor;
+
+	// Written by the vision listener, read by periodic. Neither ever blocks the other
+	private final AtomicReference<VisionResult> visionResult = new AtomicReference<VisionResult>(VisionResult.NONE);
+	private static final double MAX_RESULT_AGE = 0.5;
+
+	// Heading in degrees, clockwise positive, and where it was over the last second or so
+	private final DoubleSupplier heading;
+	private final HeadingHistory headingHistory = new HeadingHistory(32);
+	private long lastActedSequence = 0;
+	private double targetAngle = 0, captureToResultMillis = 0, captureToActMillis = 0;
+
+	// The target's bearing (heading at capture plus its angle in the frame), predicted between frames.
+	// While aligning, vision only processes every ALIGNING_FRAME_DIVISOR-th frame and the tracker fills in
+	private final TargetTracker bearingTracker = new TargetTracker(100, 0.5, 20, 0.2, MAX_RESULT_AGE);
+	private static final int ALIGNING_FRAME_DIVISOR = 2;
 
-	private final Object imgLock = new Object();
+	/**
+	 * Creates guidance with no heading sensor, so vision angles are used as they were captured.
+	 */
+	public Guidance() {
+		this(() -> 0);
+	}
+
+	/**
+	 * @param heading the robot's heading in degrees, clockwise positive, e.g. a gyro's getAngle
+	 */
+	public Guidance(DoubleSupplier heading) {
+		this(heading, null);
+	}
+
+	/**
+	 * Creates guidance that takes its vision results from a coprocessor running VisionService, rather
+	 * than opening the camera and running the pipeline on the robot.
+	 * @param heading the robot's heading in degrees, clockwise positive, e.g. a gyro's getAngle
+	 * @param coprocessor the client receiving the coprocessor's results, or null to run vision here
+	 */
+	public Guidance(DoubleSupplier heading, VisionClient coprocessor) {
+		this.heading = heading;
+		this.coprocessor = coprocessor;
+	}
 
 	public void init() {
 		// Initializing the network table itself as well as its entries
 		NetworkTableInstance inst = NetworkTableInstance.getDefault();
 		NetworkTable table = inst.getTable("datatable");
-		distanceEntry = table.getEntry("Distance");
-		targetEntry = table.getEntry("Target Position");
-		currentEntry = table.getEntry("Current Position");
+		Telemetry telemetry = Telemetry.getInstance();
+		distanceOut = telemetry.number(table, "Distance");
+		targetOut = telemetry.number(table, "Target Position");
+		currentOut = telemetry.number(table, "Current Position");
+		targetFoundOut = telemetry.bool("Target Found");
+		centerXOut = telemetry.number("Center X").epsilon(0.5);
+		centerYOut = telemetry.number("Center Y").epsilon(0.5);
+		areaOut = telemetry.number("Area").epsilon(1);
+		targetDistanceOut = telemetry.number("Target Distance").epsilon(0.01);
+		// The age changes every loop, and is only for watching
+		visionAgeOut = telemetry.number("Vision Age").epsilon(0.05).rateLimit(0.25);
+		visionFpsOut = telemetry.number("Vision FPS").epsilon(0.5).rateLimit(0.5);
+		visionLatencyOut = telemetry.number("Vision Latency").epsilon(0.5).rateLimit(0.5);
+		visionHeightOut = telemetry.number("Vision Height");
+		targetAngleOut = telemetry.number("Target Angle").epsilon(0.05);
+		targetAngleSdOut = telemetry.number("Target Angle SD").epsilon(0.05);
+		targetCoastingOut = telemetry.bool("Target Coasting");
+		captureToResultOut = telemetry.number("Capture To Result ms").epsilon(0.5).rateLimit(0.5);
+		captureToActOut = telemetry.number("Capture To Act ms").epsilon(0.5).rateLimit(0.5);
 
 		driverController = new FRC5572Controller(0);
+		if (coprocessor != null) {
+			// The coprocessor owns the camera and the pipeline
+			return;
+		}
 
-		camera = CameraServer.getInstance().startAutomaticCapture();
+		// The camera is shared with the driver's stream through the hub, so it's only opened once
+		CameraHub hub = CameraHub.getInstance();
+		camera = hub.camera(0);
+		hub.stream(0);
 		camera.setResolution(IMG_WIDTH, IMG_HEIGHT);
 		camera.setWhiteBalanceManual(25);
 		camera.setFPS(15);
 		camera.setBrightness(0);
 		camera.setExposureManual(0);
 
-		visionThread = new VisionThread(camera, new GripPipeline(), pipeline -> {
-			if (!pipeline.filterContoursOutput().isEmpty()) {
-				Rect r = Imgproc.boundingRect(pipeline.filterContoursOutput().get(0));
-				synchronized (imgLock) {
-					centerX = 2 * r.x + r.width - (IMG_WIDTH / 2);
-					centerY = 2 * r.y + r.height - (IMG_HEIGHT / 2);
-					targetArea = r.area();
-				}
+		// Grabbing, thresholding and contour filtering each run on their own thread
+		// Once there is a target, only a window around it is processed
+		// The resolution goes up for far targets and down for close ones or when frames run over budget
+		try {
+			distanceTable = DistanceTable.load(new File(Filesystem.getDeployDirectory(), "distance.cal"));
+		} catch (IOException | IllegalArgumentException e) {
+			DriverStation.reportWarning("No vision distance: " + e.getMessage(), false);
+		}
+
+		geometry = new TargetGeometry(IMG_WIDTH, IMG_HEIGHT, CAMERA_FOV_HORIZ, distanceTable);
+		roiTracker = new RoiTracker();
+		visionMetrics = new VisionMetrics(inst.getTable("Vision").getSubTable("Metrics"), 128, 0.5);
+		resolution = new ResolutionController(MODE_WIDTHS, MODE_HEIGHTS, 0, MIN_TARGET_PIXELS, MAX_TARGET_PIXELS,
+				FRAME_BUDGET_MILLIS, 8, 15);
+		visionRunner = new PipelinedVisionRunner<GripPipeline>(hub, 0, () -> {
+			GripPipeline pipeline = new GripPipeline(roiTracker, IMG_HEIGHT);
+			pipeline.setMetrics(visionMetrics);
+			return pipeline;
+		}, pipeline -> {
+			boolean found = !pipeline.filterContoursOutput().isEmpty();
+			Rect r = found ? Imgproc.boundingRect(pipeline.filterContoursOutput().get(0)) : null;
+			long captureTime = visionRunner.getLastCaptureTime();
+			frameCount++;
+			if (found) {
+				geometry.measure(pipeline, 0);
+				visionResult.set(new VisionResult(true, frameCount, captureTime, geometry.getCenterX(),
+						geometry.getCenterY(), geometry.getArea(), geometry.getDistance(), geometry.getAngle()));
+			} else {
+				visionResult.set(VisionResult.noTarget(frameCount, captureTime));
+			}
+			if (resolution.update(found, found ? r.height : 0, pipeline.frameHeight(), visionRunner.getAverageLatencyMillis())) {
+				camera.setResolution(resolution.getWidth(), resolution.getHeight());
 			}
 		});
-		visionThread.start();
+		visionRunner.setMetrics(visionMetrics);
+		visionRunner.start();
 	}
 
+	// Call from robotPeriodic, before Telemetry is flushed, so the dashboard values go out with the robot's
 	public double periodic() {
-		distanceEntry.setDouble(distance);
-		targetEntry.setDouble(target);
-		currentEntry.setDouble(current);
+		long now = RobotController.getFPGATime();
+		headingHistory.record(now, heading.getAsDouble());
+		if (coprocessor == null) {
+			visionMetrics.publish(now);
+		}
+
+		distanceOut.set(distance);
+		targetOut.set(target);
+		currentOut.set(current);
 
 		targetOffset = distance;
 		maxPower = 1;
@@ -68,24 +183,65 @@ public class Guidance {
 
 		// TODO change to run this code on button press
 		if (target == target) {
-			camera.setExposureManual(0);
-			camera.setBrightness(0);
-
-			synchronized (imgLock) {
-				SmartDashboard.putNumber("Center X", centerX);
-				SmartDashboard.putNumber("Center Y", centerY);
-				SmartDashboard.putNumber("Area", targetArea);
-
-				if (Math.abs(centerX) > 3) {
-					if (centerX > 0) {
-						// Put drive code here (left)
-					} else {
-						// Put drive code here (right)
-					}
+			if (camera != null) {
+				camera.setExposureManual(0);
+				camera.setBrightness(0);
+			}
+
+			VisionResult result = coprocessor != null ? coprocessor.get() : visionResult.get();
+			targetFoundOut.set(result.isValid());
+			centerXOut.set(result.getCenterX());
+			centerYOut.set(result.getCenterY());
+			areaOut.set(result.getArea());
+			targetDistanceOut.set(result.getDistance());
+			visionAgeOut.set(result.getAgeSeconds());
+			if (coprocessor != null) {
+				visionFpsOut.set(coprocessor.getFps());
+				visionLatencyOut.set(coprocessor.getLatencyMillis());
+			} else {
+				visionFpsOut.set(visionRunner.getFps());
+				visionLatencyOut.set(visionRunner.getAverageLatencyMillis());
+				visionHeightOut.set(resolution.getHeight());
+			}
+
+			// The target's angle is from where the robot pointed when the frame was captured, so the
+			// tracker is fed the bearing at that heading and the angle to correct now is the predicted
+			// bearing minus where the robot points now
+			if (result.getSequence() != lastActedSequence) {
+				lastActedSequence = result.getSequence();
+				long captureTime = result.getCaptureTime();
+				if (result.isValid()) {
+					bearingTracker.update(captureTime, headingHistory.headingAt(captureTime) + result.getAngle());
+					captureToResultMillis = (result.getResultTime() - captureTime) / 1000.0;
+					captureToActMillis = (now - captureTime) / 1000.0;
+				} else {
+					bearingTracker.miss(captureTime);
 				}
 			}
+			boolean tracking = bearingTracker.predict(now);
+			if (tracking) {
+				targetAngle = bearingTracker.getPosition() - headingHistory.latest();
+			}
+			targetAngleOut.set(targetAngle);
+			targetAngleSdOut.set(tracking ? Math.sqrt(bearingTracker.getVariance()) : 0);
+			targetCoastingOut.set(bearingTracker.isCoasting());
+			captureToResultOut.set(captureToResultMillis);
+			captureToActOut.set(captureToActMillis);
+
+			// Only steer on a target seen recently; the tracker drops it MAX_RESULT_AGE after the last sighting
+			boolean aligning = tracking && Math.abs(targetAngle) > 1;
+			if (aligning) {
+				if (targetAngle > 0) {
+					// Put drive code here (left)
+				} else {
+					// Put drive code here (right)
+				}
+			}
+			if (coprocessor == null) {
+				visionRunner.setFrameDivisor(aligning ? ALIGNING_FRAME_DIVISOR : 1);
+			}
 
-		} else {
+		} else if (camera != null) {
 			camera.setExposureManual(25);
 			camera.setBrightness(25);
 		}
@@ -0,0 +1,86 @@
+package frc.robot;
+
+/**
+ * A short history of the robot's heading, for looking up where the robot was pointing when a camera
+ * frame was captured.
+ *
+ * <p>By the time a frame has been captured, processed and acted on the robot may have turned. The
+ * target's angle in that frame is relative to the heading at capture time, so the error to correct
+ * now is that angle minus how far the robot has turned since.
+ *
+ * <p>Samples are kept in a fixed ring buffer, so recording never allocates. Not thread safe; record
+ * and look up from the same loop.
+ */
+public class HeadingHistory {
+
+	private final long[] times;
+	private final double[] headings;
+	private int newest = -1;
+	private int size;
+
+	/**
+	 * @param capacity how many samples to keep. At 50 ms per loop, 32 samples cover 1.6 seconds
+	 */
+	public HeadingHistory(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		times = new long[capacity];
+		headings = new double[capacity];
+	}
+
+	/**
+	 * Adds a sample. Samples must be recorded in time order.
+	 * @param time FPGA time in microseconds
+	 * @param heading the heading in degrees
+	 */
+	public void record(long time, double heading) {
+		newest = (newest + 1) % times.length;
+		times[newest] = time;
+		headings[newest] = heading;
+		if (size < times.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * Looks up the heading at a past time, interpolating between the samples either side of it. Times
+	 * before the oldest sample or after the newest get the oldest or newest heading.
+	 * @param time FPGA time in microseconds
+	 * @return the heading in degrees, or NaN if nothing has been recorded
+	 */
+	public double headingAt(long time) {
+		if (size == 0) {
+			return Double.NaN;
+		}
+		int later = newest;
+		if (time >= times[later]) {
+			return headings[later];
+		}
+		// Walk back from the newest sample; the capture time is usually only a few samples ago
+		for (int n = 1; n < size; n++) {
+			int earlier = (later - 1 + times.length) % times.length;
+			if (times[earlier] <= time) {
+				double fraction = (time - times[earlier]) / (double)(times[later] - times[earlier]);
+				return headings[earlier] + fraction * (headings[later] - headings[earlier]);
+			}
+			later = earlier;
+		}
+		return headings[later];
+	}
+
+	/**
+	 * @return the newest heading in degrees, or NaN if nothing has been recorded
+	 */
+	public double latest() {
+		return size == 0 ? Double.NaN : headings[newest];
+	}
+
+	/**
+	 * Forgets every sample, e.g. after the gyro is reset.
+	 */
+	public void clear() {
+		newest = -1;
+		size = 0;
+	}
+}
@@ -0,0 +1,101 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Converts a LoopLogger file to CSV, one row per loop, oldest first.
+ *
+ * <p>Usage: {@code ./gradlew decodeLoopLog --args="<loop-NNNN.bin> [--out loop.csv]"}
+ *
+ * <p>Copy the log off the robot first, e.g. {@code scp lvuser@roborio-5572-frc.local:logs/loop-0001.bin .}
+ * The CSV goes next to the log with the same name by default. Buttons and solenoids get a 0/1 column
+ * each, and the arm state is written by name. A log that wrapped around only has its newest records;
+ * the number lost to wrapping and dropped on the robot is printed.
+ */
+public final class LoopLogDecoder {
+
+	private LoopLogDecoder() {
+	}
+
+	public static void main(String... args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: LoopLogDecoder <loop-NNNN.bin> [--out loop.csv]");
+			System.exit(1);
+		}
+		File log = new File(args[0]);
+		File out = new File(log.getPath().replaceFirst("\\.bin$", "") + ".csv");
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--out":
+					out = new File(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		ByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+			in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		if (in.capacity() < LoopLogger.HEADER_BYTES || in.getLong(0) != LoopLogger.MAGIC) {
+			throw new IOException(log + " is not a loop log");
+		}
+		if (in.getInt(8) != LoopLogger.VERSION || in.getInt(12) != LoopRecord.RECORD_BYTES) {
+			throw new IOException(log + " is version " + in.getInt(8) + " with " + in.getInt(12)
+					+ " byte records; this reads version " + LoopLogger.VERSION);
+		}
+		int capacity = in.getInt(16);
+		long written = in.getLong(LoopLogger.WRITTEN_OFFSET);
+		long dropped = in.getLong(LoopLogger.DROPPED_OFFSET);
+		int count = (int)Math.min(written, capacity);
+		int first = written > capacity ? (int)(written % capacity) : 0;
+
+		LoopRecord record = new LoopRecord();
+		Arm.Direction[] armStates = Arm.Direction.values();
+		try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(out.toPath()))) {
+			StringBuilder header = new StringBuilder(
+					"time_us,loop,loop_us,RY1,LY1,RT1,LT1,LY2,LT2");
+			for (String button : LoopRecord.BUTTONS) {
+				header.append(',').append(button);
+			}
+			for (String solenoid : LoopRecord.SOLENOIDS) {
+				header.append(',').append(solenoid);
+			}
+			header.append(",intakeArm,leftDrive,rightDrive,belt,intake,driveScale");
+			csv.println(header);
+
+			StringBuilder row = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				record.read(in, LoopLogger.HEADER_BYTES + ((first + i) % capacity) * LoopRecord.RECORD_BYTES);
+				row.setLength(0);
+				row.append(record.timestamp).append(',').append(record.loop).append(',').append(record.loopMicros);
+				appendFloats(row, record.ry1, record.ly1, record.rt1, record.lt1, record.ly2, record.lt2);
+				for (int b = 0; b < LoopRecord.BUTTONS.length; b++) {
+					row.append(',').append((record.buttons >> b) & 1);
+				}
+				for (int s = 0; s < LoopRecord.SOLENOIDS.length; s++) {
+					row.append(',').append((record.solenoids >> s) & 1);
+				}
+				row.append(',').append(record.armState < armStates.length ? armStates[record.armState].name() : "?");
+				appendFloats(row, record.leftDrive, record.rightDrive, record.belt, record.intake, record.driveScale);
+				csv.println(row);
+			}
+		}
+		System.out.println(String.format(Locale.ROOT, "Wrote %d loops to %s (%d overwritten, %d dropped)",
+				count, out, written - count, dropped));
+	}
+
+	private static void appendFloats(StringBuilder row, float... values) {
+		for (float value : values) {
+			row.append(',').append(String.format(Locale.ROOT, "%.4f", value));
+		}
+	}
+}
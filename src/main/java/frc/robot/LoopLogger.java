@@ -0,0 +1,226 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Records every pass of the control loop to a file on the roboRIO, so a match can be gone over
+ * afterwards with LoopLogDecoder.
+ *
+ * <p>log() copies a LoopRecord into a ring buffer allocated up front and returns; it never touches
+ * the disk, allocates or blocks, so the loop pays for little more than the stores. A background
+ * thread moves what has been logged from the ring into a memory-mapped file every FLUSH_MILLIS. If the
+ * ring fills because the thread has fallen that far behind, records are dropped and counted rather
+ * than making the loop wait.
+ *
+ * <p>Each log is a new file, loop-NNNN.bin, sized for a fixed number of records when it's opened. Once
+ * full it wraps around, so it holds the most recent records. The file starts with a HEADER_BYTES
+ * header:
+ * <pre>
+ * offset  size  field
+ *  0      8     MAGIC
+ *  8      4     version, currently 1
+ * 12      4     record size, LoopRecord.RECORD_BYTES
+ * 16      4     capacity in records
+ * 24      8     records written, so the oldest is at written % capacity once it has wrapped
+ * 32      8     records dropped because the ring was full
+ * </pre>
+ * followed by the records, in LoopRecord's layout. The header is updated with every flush, so a log
+ * cut off by the robot losing power is readable up to the last flush.
+ *
+ * <p>log() must only be called from one thread.
+ */
+public class LoopLogger implements AutoCloseable {
+
+	/** Where logs go on the roboRIO. */
+	public static final File DEFAULT_DIRECTORY = new File("/home/lvuser/logs");
+
+	/** "LOOPLOG1" in ASCII. */
+	public static final long MAGIC = 0x4C4F4F504C4F4731L;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 64;
+	static final int WRITTEN_OFFSET = 24, DROPPED_OFFSET = 32;
+
+	private static final int FLUSH_MILLIS = 100;
+	// Pages written to the page cache reach flash on their own; forcing now and then bounds what a brownout loses
+	private static final int FLUSHES_PER_FORCE = 50;
+	private static final Pattern NAME = Pattern.compile("loop-(\\d+)\\.bin");
+
+	private final File file;
+	private final MappedByteBuffer mapped;
+	private final int fileRecords;
+
+	private final ByteBuffer ring;
+	// The flusher's view of the ring, so reading doesn't disturb the logging side
+	private final ByteBuffer ringSource;
+	private final int ringRecords;
+	// Records logged, written only by log(); records moved to the file, written only by flush()
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+	private volatile long dropped;
+	private long fileWritten;
+
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	/**
+	 * Opens a new log in a directory, deleting the oldest logs there beyond keepFiles.
+	 * @param directory where to write; created if it doesn't exist
+	 * @param fileRecords how many records the file holds before it wraps around
+	 * @param ringRecords how many records can be waiting for the flusher before they're dropped
+	 * @param keepFiles how many logs to keep, including this one
+	 */
+	public static LoopLogger open(File directory, int fileRecords, int ringRecords, int keepFiles) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File[] logs = directory.listFiles((dir, name) -> NAME.matcher(name).matches());
+		int next = 1;
+		if (logs != null) {
+			// Numbered names sort oldest first
+			Arrays.sort(logs, (a, b) -> Integer.compare(number(a), number(b)));
+			for (int i = 0; i < logs.length; i++) {
+				if (i < logs.length - (keepFiles - 1) && !logs[i].delete()) {
+					DriverStation.reportWarning("Could not delete old loop log " + logs[i], false);
+				}
+			}
+			if (logs.length > 0) {
+				next = number(logs[logs.length - 1]) + 1;
+			}
+		}
+		return new LoopLogger(new File(directory, String.format(Locale.ROOT, "loop-%04d.bin", next)), fileRecords, ringRecords);
+	}
+
+	private static int number(File log) {
+		Matcher matcher = NAME.matcher(log.getName());
+		return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+	}
+
+	/**
+	 * Creates the file, replacing any there, and starts the flusher.
+	 */
+	public LoopLogger(File file, int fileRecords, int ringRecords) throws IOException {
+		this.file = file;
+		this.fileRecords = fileRecords;
+		this.ringRecords = ringRecords;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			// The mapping outlives the file being closed
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_BYTES + (long)fileRecords * LoopRecord.RECORD_BYTES);
+		}
+		mapped.putLong(0, MAGIC);
+		mapped.putInt(8, VERSION);
+		mapped.putInt(12, LoopRecord.RECORD_BYTES);
+		mapped.putInt(16, fileRecords);
+		ring = ByteBuffer.allocate(ringRecords * LoopRecord.RECORD_BYTES);
+		ringSource = ring.duplicate();
+
+		flusher = new Thread(this::flushLoop, "LoopLogger");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Copies the record into the ring for the flusher to write out.
+	 * @return false if the ring was full and the record was dropped
+	 */
+	public boolean log(LoopRecord record) {
+		long h = head.get();
+		if (h - tail >= ringRecords) {
+			dropped++;
+			return false;
+		}
+		record.write(ring, (int)(h % ringRecords) * LoopRecord.RECORD_BYTES);
+		// Publishes the record's bytes to the flusher along with the new head
+		head.lazySet(h + 1);
+		return true;
+	}
+
+	private void flushLoop() {
+		int flushes = 0;
+		while (running) {
+			try {
+				Thread.sleep(FLUSH_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			flush();
+			if (++flushes % FLUSHES_PER_FORCE == 0) {
+				mapped.force();
+			}
+		}
+	}
+
+	/**
+	 * Moves every record logged so far into the file and updates the header. The flusher does this on
+	 * its own; call it only to be sure a record is in the file now.
+	 */
+	public synchronized void flush() {
+		long h = head.get();
+		long t = tail;
+		while (t < h) {
+			int ringIndex = (int)(t % ringRecords);
+			int fileIndex = (int)(fileWritten % fileRecords);
+			// The longest run that is contiguous in both the ring and the file
+			int run = (int)Math.min(h - t, Math.min(ringRecords - ringIndex, fileRecords - fileIndex));
+			ringSource.clear();
+			ringSource.position(ringIndex * LoopRecord.RECORD_BYTES);
+			ringSource.limit((ringIndex + run) * LoopRecord.RECORD_BYTES);
+			mapped.position(HEADER_BYTES + fileIndex * LoopRecord.RECORD_BYTES);
+			mapped.put(ringSource);
+			t += run;
+			fileWritten += run;
+		}
+		tail = t;
+		mapped.putLong(WRITTEN_OFFSET, fileWritten);
+		mapped.putLong(DROPPED_OFFSET, dropped);
+	}
+
+	/**
+	 * Stops the flusher, writes out what's left and forces the file to flash.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		flusher.interrupt();
+		try {
+			flusher.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		mapped.force();
+	}
+
+	/** @return the file being written */
+	public File getFile() {
+		return file;
+	}
+
+	/** @return the number of records logged */
+	public long getLogged() {
+		return head.get();
+	}
+
+	/** @return the number of records in the file, counting any overwritten since it wrapped */
+	public synchronized long getFlushed() {
+		return fileWritten;
+	}
+
+	/** @return the number of records dropped because the ring was full */
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,229 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Notifier;
+
+/**
+ * Times the named sections of a control loop, so the one eating the loop's budget can be found when
+ * the driver station reports overruns.
+ *
+ * <p>Call startLoop() at the top of the loop, enter() at the start of each section and endLoop() at
+ * the bottom. Each section's time, in milliseconds, goes into a RollingHistogram; so does the whole
+ * loop's. Time between startLoop() and the first enter() is counted as "other".
+ *
+ * <p>startLoop() also arms a watchdog Notifier for the loop period. If the loop is still running when
+ * it fires, the section running at that moment is counted as the cause of the overrun and reported to
+ * the driver station, at most once a second. Because it fires on its own thread, a section that's stuck
+ * is caught while it's still stuck, not only once it returns.
+ *
+ * <p>The loop's own overruns are counted in endLoop(), so a loop the watchdog missed still counts.
+ *
+ * <p>publish() writes each section's p99, max and overruns under a Profiler table through Telemetry,
+ * at most once per publish period. writeSummary() writes the totals since the robot started, for
+ * keeping after a match.
+ *
+ * <p>Everything but the watchdog runs on the loop's thread and nothing allocates after construction.
+ */
+public class LoopProfiler {
+
+	private static final double PUBLISH_SECONDS = 0.5;
+	private static final long WARNING_INTERVAL_NANOS = 1000000000L;
+
+	private final String[] names;
+	private final int other, loop;
+	private final RollingHistogram[] histograms;
+	// Since startup, for the summary
+	private final long[] counts, totalNanos, maxNanos;
+	private final AtomicIntegerArray overruns;
+	private long overrunLoops;
+
+	private final long periodNanos;
+	private final Notifier watchdog;
+	private volatile boolean inLoop;
+	private volatile int current;
+	private long loopStart, sectionStart;
+	private long lastWarning;
+
+	private final Telemetry.Number[] p99Out, maxOut, overrunsOut;
+	private final Telemetry.Text lastOverrunOut;
+	private volatile int lastOverrun = -1;
+	private final long publishMicros;
+	private long lastPublish;
+
+	/**
+	 * @param periodSeconds the loop period; a loop longer than this is an overrun
+	 * @param window how many recent loops the percentiles cover
+	 * @param telemetry where the results are published from
+	 * @param table the table to publish to, e.g. Profiler
+	 * @param sections the names of the sections, in the order of their numbers for enter()
+	 */
+	public LoopProfiler(double periodSeconds, int window, Telemetry telemetry, NetworkTable table, String... sections) {
+		int n = sections.length;
+		names = new String[n + 2];
+		System.arraycopy(sections, 0, names, 0, n);
+		other = n;
+		loop = n + 1;
+		names[other] = "other";
+		names[loop] = "loop";
+
+		histograms = new RollingHistogram[names.length];
+		counts = new long[names.length];
+		totalNanos = new long[names.length];
+		maxNanos = new long[names.length];
+		overruns = new AtomicIntegerArray(names.length);
+		p99Out = new Telemetry.Number[names.length];
+		maxOut = new Telemetry.Number[names.length];
+		overrunsOut = new Telemetry.Number[names.length];
+		for (int i = 0; i < names.length; i++) {
+			histograms[i] = new RollingHistogram(window);
+			NetworkTable sub = table.getSubTable(names[i]);
+			p99Out[i] = telemetry.number(sub, "p99").epsilon(0.01);
+			maxOut[i] = telemetry.number(sub, "max").epsilon(0.01);
+			overrunsOut[i] = telemetry.number(sub, "overruns");
+		}
+		lastOverrunOut = telemetry.string(table, "lastOverrun");
+
+		periodNanos = (long)(periodSeconds * 1e9);
+		publishMicros = (long)(PUBLISH_SECONDS * 1e6);
+		watchdog = new Notifier(this::expired);
+	}
+
+	/**
+	 * Starts timing a loop and arms the watchdog.
+	 */
+	public void startLoop() {
+		loopStart = System.nanoTime();
+		sectionStart = loopStart;
+		current = other;
+		inLoop = true;
+		watchdog.startSingle(periodNanos / 1e9);
+	}
+
+	/**
+	 * Ends the section running, if any, and starts timing another.
+	 * @param section the section's number, its index in the names given to the constructor
+	 */
+	public void enter(int section) {
+		long now = System.nanoTime();
+		record(current, now - sectionStart);
+		sectionStart = now;
+		current = section;
+	}
+
+	/**
+	 * Ends the last section and the loop, and disarms the watchdog.
+	 */
+	public void endLoop() {
+		long now = System.nanoTime();
+		record(current, now - sectionStart);
+		inLoop = false;
+		watchdog.stop();
+		long elapsed = now - loopStart;
+		record(loop, elapsed);
+		if (elapsed > periodNanos) {
+			overrunLoops++;
+		}
+	}
+
+	private void record(int section, long nanos) {
+		histograms[section].record(nanos / 1e6);
+		counts[section]++;
+		totalNanos[section] += nanos;
+		if (nanos > maxNanos[section]) {
+			maxNanos[section] = nanos;
+		}
+	}
+
+	// On the Notifier's thread, when a loop has run for a whole period
+	private void expired() {
+		int section = current;
+		if (!inLoop) {
+			return;
+		}
+		overruns.incrementAndGet(section);
+		lastOverrun = section;
+		long now = System.nanoTime();
+		if (now - lastWarning > WARNING_INTERVAL_NANOS) {
+			lastWarning = now;
+			DriverStation.reportWarning("Loop overran its period in section " + names[section], false);
+		}
+	}
+
+	/**
+	 * Publishes the summaries if the publish period has passed since the last time. Telemetry sends
+	 * them when it's next flushed.
+	 * @param now the current FPGA time in microseconds
+	 */
+	public void publish(long now) {
+		if (lastPublish != 0 && now - lastPublish < publishMicros) {
+			return;
+		}
+		lastPublish = now;
+		for (int i = 0; i < names.length; i++) {
+			RollingHistogram histogram = histograms[i];
+			histogram.summarize();
+			p99Out[i].set(histogram.percentile(0.99));
+			maxOut[i].set(histogram.max());
+			overrunsOut[i].set(overrunCount(i));
+		}
+		int last = lastOverrun;
+		lastOverrunOut.set(last < 0 ? "" : names[last]);
+	}
+
+	/**
+	 * Writes every section's totals since startup, and its percentiles over the recent window, as a
+	 * text table.
+	 */
+	public void writeSummary(File file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+			out.println(String.format(Locale.ROOT, "%d loops, %d over the %.1f ms period", counts[loop], overrunLoops,
+					periodNanos / 1e6));
+			out.println(String.format(Locale.ROOT, "%-14s %10s %9s %9s %9s %9s %9s", "section", "count", "mean ms",
+					"p50 ms", "p99 ms", "max ms", "overruns"));
+			for (int i = 0; i < names.length; i++) {
+				RollingHistogram histogram = histograms[i];
+				histogram.summarize();
+				out.println(String.format(Locale.ROOT, "%-14s %10d %9.3f %9.3f %9.3f %9.3f %9d", names[i], counts[i],
+						counts[i] == 0 ? 0 : totalNanos[i] / 1e6 / counts[i], histogram.percentile(0.5),
+						histogram.percentile(0.99), maxNanos[i] / 1e6, overrunCount(i)));
+			}
+			out.println("p50 and p99 are over the last " + histograms[loop].size() + " loops; the rest since startup");
+		}
+	}
+
+	// For the loop as a whole, the loops that overran; for a section, the overruns that happened in it
+	private long overrunCount(int i) {
+		return i == loop ? overrunLoops : overruns.get(i);
+	}
+
+	/** @return the number of loops timed */
+	public long getLoops() {
+		return counts[loop];
+	}
+
+	/** @return the number of loops that took longer than the period */
+	public long getOverrunLoops() {
+		return overrunLoops;
+	}
+
+	/**
+	 * @param section a section's number, or getSections() - 2 for "other"
+	 * @return the number of overruns that happened during it
+	 */
+	public int getOverruns(int section) {
+		return overruns.get(section);
+	}
+
+	/** @return the number of sections, including "other" and "loop" */
+	public int getSections() {
+		return names.length;
+	}
+}
@@ -0,0 +1,92 @@
+package frc.robot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What one pass of robotPeriodic read and commanded, in the fixed binary layout LoopLogger writes.
+ *
+ * <p>The layout is big endian, RECORD_BYTES long:
+ * <pre>
+ * offset  size  field
+ *  0      8     FPGA time at the start of the loop, in microseconds
+ *  8      4     loop number, counting up from 1
+ * 12      4*6   driver RY, LY, RT, LT and operator LY, LT, as floats
+ * 36      2     buttons, a bit each in BUTTONS order
+ * 38      1     solenoids, a bit each in SOLENOIDS order, set when reversed
+ * 39      1     intake arm state, the ordinal of Arm.Direction
+ * 40      4*5   left and right drive, belt, intake and drive scale, as floats
+ * 60      4     loop time in microseconds, up to the previous record
+ * </pre>
+ *
+ * <p>The robot fills one instance in place each loop and hands it to LoopLogger.log(); LoopLogDecoder
+ * reads records back into one. Fields are public so filling it costs no more than the stores.
+ */
+public final class LoopRecord {
+
+	public static final int RECORD_BYTES = 64;
+
+	/** Names of the button bits, lowest first. */
+	public static final String[] BUTTONS = {"A1", "B1", "LB1", "RB1", "A2", "B2", "X2", "Y2", "LB2", "RB2"};
+	public static final int A1 = 1 << 0, B1 = 1 << 1, LB1 = 1 << 2, RB1 = 1 << 3, A2 = 1 << 4, B2 = 1 << 5,
+		X2 = 1 << 6, Y2 = 1 << 7, LB2 = 1 << 8, RB2 = 1 << 9;
+
+	/** Names of the solenoid bits, lowest first. */
+	public static final String[] SOLENOIDS = {"hatchIntake", "hatchRelease", "frontClimbStand", "backClimbStand"};
+	public static final int HATCH_INTAKE = 1 << 0, HATCH_RELEASE = 1 << 1, FRONT_CLIMB_STAND = 1 << 2,
+		BACK_CLIMB_STAND = 1 << 3;
+
+	public long timestamp;
+	public int loop;
+	public float ry1, ly1, rt1, lt1, ly2, lt2;
+	public int buttons;
+	public int solenoids;
+	public int armState;
+	public float leftDrive, rightDrive, belt, intake, driveScale;
+	public int loopMicros;
+
+	/**
+	 * Writes the record at an absolute offset, leaving the buffer's position alone.
+	 */
+	public void write(ByteBuffer out, int offset) {
+		out.putLong(offset, timestamp);
+		out.putInt(offset + 8, loop);
+		out.putFloat(offset + 12, ry1);
+		out.putFloat(offset + 16, ly1);
+		out.putFloat(offset + 20, rt1);
+		out.putFloat(offset + 24, lt1);
+		out.putFloat(offset + 28, ly2);
+		out.putFloat(offset + 32, lt2);
+		out.putShort(offset + 36, (short)buttons);
+		out.put(offset + 38, (byte)solenoids);
+		out.put(offset + 39, (byte)armState);
+		out.putFloat(offset + 40, leftDrive);
+		out.putFloat(offset + 44, rightDrive);
+		out.putFloat(offset + 48, belt);
+		out.putFloat(offset + 52, intake);
+		out.putFloat(offset + 56, driveScale);
+		out.putInt(offset + 60, loopMicros);
+	}
+
+	/**
+	 * Reads the record at an absolute offset, leaving the buffer's position alone.
+	 */
+	public void read(ByteBuffer in, int offset) {
+		timestamp = in.getLong(offset);
+		loop = in.getInt(offset + 8);
+		ry1 = in.getFloat(offset + 12);
+		ly1 = in.getFloat(offset + 16);
+		rt1 = in.getFloat(offset + 20);
+		lt1 = in.getFloat(offset + 24);
+		ly2 = in.getFloat(offset + 28);
+		lt2 = in.getFloat(offset + 32);
+		buttons = in.getShort(offset + 36) & 0xFFFF;
+		solenoids = in.get(offset + 38) & 0xFF;
+		armState = in.get(offset + 39) & 0xFF;
+		leftDrive = in.getFloat(offset + 40);
+		rightDrive = in.getFloat(offset + 44);
+		belt = in.getFloat(offset + 48);
+		intake = in.getFloat(offset + 52);
+		driveScale = in.getFloat(offset + 56);
+		loopMicros = in.getInt(offset + 60);
+	}
+}
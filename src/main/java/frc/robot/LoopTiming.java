@@ -0,0 +1,82 @@
+package frc.robot;
+
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * Measures how far a periodic loop strays from its period: the jitter, each start's distance from
+ * where it should have been given the one before, in milliseconds.
+ *
+ * <p>tick() is called at the start of every pass, from whichever thread runs the loop. publish(),
+ * from the robot loop, writes the p50, p99 and max jitter and the measured rate through Telemetry, at
+ * most once per publish period.
+ */
+public class LoopTiming {
+
+	private static final double PUBLISH_SECONDS = 0.5;
+
+	private final long periodNanos;
+	private final RollingHistogram jitter;
+	// Only touched by the thread calling tick()
+	private long last;
+	private volatile long ticks;
+
+	private final Telemetry.Number p50Out, p99Out, maxOut, rateOut;
+	private final long publishMicros;
+	private long lastPublish, lastTicks;
+
+	/**
+	 * @param periodSeconds the period the loop is meant to run at
+	 * @param window how many recent passes the percentiles cover
+	 * @param telemetry where the results are published from
+	 * @param table the table to publish to, e.g. Timing/drive
+	 */
+	public LoopTiming(double periodSeconds, int window, Telemetry telemetry, NetworkTable table) {
+		periodNanos = (long)(periodSeconds * 1e9);
+		jitter = new RollingHistogram(window);
+		p50Out = telemetry.number(table, "jitter p50").epsilon(0.01);
+		p99Out = telemetry.number(table, "jitter p99").epsilon(0.01);
+		maxOut = telemetry.number(table, "jitter max").epsilon(0.01);
+		rateOut = telemetry.number(table, "rate").epsilon(0.5);
+		publishMicros = (long)(PUBLISH_SECONDS * 1e6);
+	}
+
+	/**
+	 * Records the start of a pass.
+	 * @param nanos System.nanoTime() at the start
+	 */
+	public void tick(long nanos) {
+		if (last != 0) {
+			jitter.record(Math.abs(nanos - last - periodNanos) / 1e6);
+		}
+		last = nanos;
+		ticks++;
+	}
+
+	/**
+	 * Publishes the summary if the publish period has passed since the last time. Telemetry sends it
+	 * when it's next flushed.
+	 * @param now the current FPGA time in microseconds
+	 */
+	public void publish(long now) {
+		if (lastPublish != 0 && now - lastPublish < publishMicros) {
+			return;
+		}
+		jitter.summarize();
+		p50Out.set(jitter.percentile(0.5));
+		p99Out.set(jitter.percentile(0.99));
+		maxOut.set(jitter.max());
+		long count = ticks;
+		if (lastPublish != 0) {
+			rateOut.set((count - lastTicks) * 1e6 / (now - lastPublish));
+		}
+		lastTicks = count;
+		lastPublish = now;
+	}
+
+	/**
+	 * @return the jitter histogram, for reading summaries directly after publish()
+	 */
+	public RollingHistogram jitter() {
+		return jitter;
+	}
+}
@@ -0,0 +1,235 @@
+package frc.robot;
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * HSL threshold using a precomputed colour lookup table, in place of Imgproc.cvtColor to HLS followed
+ * by Core.inRange.
+ *
+ * <p>Each BGR channel is quantized to 6 bits and the table holds one bit per quantized colour: whether
+ * the centre of that colour cell falls inside the hue, saturation and luminance ranges, using the same
+ * 8-bit HLS conversion as OpenCV, and the ranges rounded to 8 bits as Core.inRange rounds them. The
+ * table is 32KB, so it stays in cache. It is only rebuilt when the
+ * ranges change, which takes tens of milliseconds. Thresholding a frame is then a single pass over the
+ * pixels with no intermediate 3-channel Mat. Pixels within a quantization step (4 levels per channel)
+ * of a range edge may come out differently from the OpenCV path.
+ *
+ * <p>Instances are not thread safe; keep one per pipeline.
+ */
+public class LutThreshold {
+
+	private static final int BITS = 6;
+	private static final int SHIFT = 8 - BITS;
+	private static final int CELLS = 1 << BITS;
+	private static final float FLT_EPSILON = Math.ulp(1f);
+
+	// One bit per quantized BGR colour, indexed by (b << 12) | (g << 6) | r
+	private final long[] table = new long[CELLS * CELLS * CELLS / 64];
+	private final double[] ranges = new double[6];
+	private boolean built;
+
+	// Scratch buffers for the frame and mask pixels, when they aren't DirectMats
+	private byte[] pixels = new byte[0];
+	private byte[] mask = new byte[0];
+	private long bytesCopied;
+
+	/**
+	 * Segment an image based on hue, saturation, and luminance ranges.
+	 *
+	 * @param input The BGR image on which to perform the HSL threshold.
+	 * @param hue The min and max hue
+	 * @param sat The min and max saturation
+	 * @param lum The min and max luminance
+	 * @param out The image in which to store the output.
+	 */
+	public void threshold(Mat input, double[] hue, double[] sat, double[] lum, Mat out) {
+		threshold(input, null, hue, sat, lum, out);
+	}
+
+	/**
+	 * Segment a window of an image based on hue, saturation, and luminance ranges.
+	 *
+	 * <p>If the input is a DirectMat its pixels are read in place, and if the output is one the mask is
+	 * written in place. Otherwise they are copied through arrays on the Java heap, which getBytesCopied()
+	 * counts.
+	 *
+	 * @param input The BGR image on which to perform the HSL threshold.
+	 * @param region The window to threshold, or null for the whole image
+	 * @param hue The min and max hue
+	 * @param sat The min and max saturation
+	 * @param lum The min and max luminance
+	 * @param out The image in which to store the output, the size of the window.
+	 */
+	public void threshold(Mat input, Rect region, double[] hue, double[] sat, double[] lum, Mat out) {
+		prepare(hue, sat, lum);
+
+		final int rows = region != null ? region.height : input.rows();
+		final int cols = region != null ? region.width : input.cols();
+		final int count = rows * cols;
+		final ByteBuffer maskBuffer;
+		if (out instanceof DirectMat) {
+			((DirectMat)out).ensure(rows, cols, CvType.CV_8UC1);
+			maskBuffer = ((DirectMat)out).buffer();
+		} else {
+			maskBuffer = null;
+			if (mask.length < count) {
+				mask = new byte[count];
+			}
+		}
+
+		final long[] table = this.table;
+		final byte[] mask = this.mask;
+		if (input instanceof DirectMat && ((DirectMat)input).isDirect()) {
+			final ByteBuffer pixels = ((DirectMat)input).buffer();
+			final int stride = 3 * input.cols();
+			final int left = region != null ? region.x : 0;
+			final int top = region != null ? region.y : 0;
+			for (int y = 0, i = 0; y < rows; y++) {
+				for (int x = 0, p = (top + y) * stride + 3 * left; x < cols; x++, i++, p += 3) {
+					final int index = ((pixels.get(p) & 0xFF) >>> SHIFT) << (2 * BITS)
+						| ((pixels.get(p + 1) & 0xFF) >>> SHIFT) << BITS
+						| ((pixels.get(p + 2) & 0xFF) >>> SHIFT);
+					// 0 or -1 (255)
+					final byte value = (byte)-((int)(table[index >>> 6] >>> index) & 1);
+					if (maskBuffer != null) {
+						maskBuffer.put(i, value);
+					} else {
+						mask[i] = value;
+					}
+				}
+			}
+		} else {
+			if (pixels.length < 3 * count) {
+				pixels = new byte[3 * count];
+			}
+			final Mat window = region != null ? input.submat(region) : input;
+			window.get(0, 0, pixels);
+			if (region != null) {
+				window.release();
+			}
+			bytesCopied += 3 * count;
+
+			final byte[] pixels = this.pixels;
+			for (int i = 0, p = 0; i < count; i++, p += 3) {
+				final int index = ((pixels[p] & 0xFF) >>> SHIFT) << (2 * BITS)
+					| ((pixels[p + 1] & 0xFF) >>> SHIFT) << BITS
+					| ((pixels[p + 2] & 0xFF) >>> SHIFT);
+				final byte value = (byte)-((int)(table[index >>> 6] >>> index) & 1);
+				if (maskBuffer != null) {
+					maskBuffer.put(i, value);
+				} else {
+					mask[i] = value;
+				}
+			}
+		}
+
+		if (maskBuffer == null) {
+			out.create(rows, cols, CvType.CV_8UC1);
+			out.put(0, 0, mask);
+			bytesCopied += count;
+		}
+	}
+
+	/**
+	 * @return the bytes copied between Mats and the Java heap so far, by inputs and outputs that aren't
+	 * DirectMats
+	 */
+	public long getBytesCopied() {
+		return bytesCopied;
+	}
+
+	/**
+	 * Builds the table for the given ranges now, if it isn't already built for them, so the first
+	 * frame doesn't pay for it.
+	 * @param hue The min and max hue
+	 * @param sat The min and max saturation
+	 * @param lum The min and max luminance
+	 */
+	public void prepare(double[] hue, double[] sat, double[] lum) {
+		if (!built || ranges[0] != hue[0] || ranges[1] != hue[1] || ranges[2] != sat[0]
+				|| ranges[3] != sat[1] || ranges[4] != lum[0] || ranges[5] != lum[1]) {
+			build(hue, sat, lum);
+		}
+	}
+
+	/**
+	 * Rebuilds the table for new ranges.
+	 */
+	private void build(double[] hue, double[] sat, double[] lum) {
+		ranges[0] = hue[0];
+		ranges[1] = hue[1];
+		ranges[2] = sat[0];
+		ranges[3] = sat[1];
+		ranges[4] = lum[0];
+		ranges[5] = lum[1];
+
+		final int hueMin = bound(hue[0]), hueMax = bound(hue[1]);
+		final int satMin = bound(sat[0]), satMax = bound(sat[1]);
+		final int lumMin = bound(lum[0]), lumMax = bound(lum[1]);
+		final int[] hls = new int[3];
+		for (int b = 0; b < CELLS; b++) {
+			for (int g = 0; g < CELLS; g++) {
+				for (int r = 0; r < CELLS; r++) {
+					// Classify the centre of the cell
+					final int half = 1 << (SHIFT - 1);
+					bgrToHls((b << SHIFT) + half, (g << SHIFT) + half, (r << SHIFT) + half, hls);
+					final int index = b << (2 * BITS) | g << BITS | r;
+					final boolean in = hls[0] >= hueMin && hls[0] <= hueMax
+						&& hls[1] >= lumMin && hls[1] <= lumMax
+						&& hls[2] >= satMin && hls[2] <= satMax;
+					if (in) {
+						table[index >>> 6] |= 1L << index;
+					} else {
+						table[index >>> 6] &= ~(1L << index);
+					}
+				}
+			}
+		}
+		built = true;
+	}
+
+	/**
+	 * Rounds a range bound to 8 bits as Core.inRange does for an 8-bit image, with saturate_cast: to the
+	 * nearest integer, half to even, clamped to 0-255. A luminance minimum of 30.08 is 30, so a pixel
+	 * with luminance 30 is in range.
+	 */
+	static int bound(double value) {
+		return (int)Math.max(0, Math.min(255, Math.rint(value)));
+	}
+
+	/**
+	 * 8-bit BGR to HLS as Imgproc.cvtColor does it with COLOR_BGR2HLS: hue is 0-180, lightness and
+	 * saturation are 0-255.
+	 * @param hls filled with hue, lightness, saturation
+	 */
+	static void bgrToHls(int blue, int green, int red, int[] hls) {
+		final float b = blue * (1f / 255), g = green * (1f / 255), r = red * (1f / 255);
+		final float vmax = Math.max(r, Math.max(g, b));
+		final float vmin = Math.min(r, Math.min(g, b));
+		final float diff = vmax - vmin;
+		final float l = (vmax + vmin) * 0.5f;
+		float h = 0, s = 0;
+		if (diff > FLT_EPSILON) {
+			s = l < 0.5f ? diff / (vmax + vmin) : diff / (2 - vmax - vmin);
+			final float scale = 60f / diff;
+			if (vmax == r) {
+				h = (g - b) * scale;
+			} else if (vmax == g) {
+				h = (b - r) * scale + 120;
+			} else {
+				h = (r - g) * scale + 240;
+			}
+			if (h < 0) {
+				h += 360;
+			}
+		}
+		// OpenCV's saturate_cast rounds half to even
+		hls[0] = (int)Math.rint(h * 0.5f);
+		hls[1] = (int)Math.rint(l * 255);
+		hls[2] = (int)Math.rint(s * 255);
+	}
+}
@@ -0,0 +1,93 @@
+package frc.robot;
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * Finds the centroid of the set pixels in a window of a binary mask, such as the HSL threshold's
+ * output inside a target's bounding box. Unlike the box's centre, the centroid follows where the lit
+ * tape actually is, so it gives a sub-pixel aim point that doesn't jump when an edge of the box
+ * flickers by a pixel.
+ *
+ * <p>A DirectMat mask is read in place. Any other mask is copied out a row at a time, which
+ * getBytesCopied() counts.
+ *
+ * <p>Instances are not thread safe; keep one per pipeline.
+ */
+public class MaskCentroid {
+
+	// Scratch row for masks that aren't DirectMats, a whole mask row wide
+	private byte[] row = new byte[0];
+	private long bytesCopied;
+
+	/**
+	 * @param mask an 8-bit single channel mask; any non-zero pixel counts
+	 * @param region the window to look in, in the mask's coordinates; clipped to the mask
+	 * @param out set to the centroid in the mask's coordinates, with pixel centres at .5
+	 * @return false, leaving out alone, if no pixel in the window is set
+	 */
+	public boolean centroid(Mat mask, Rect region, Point out) {
+		final int left = Math.max(region.x, 0);
+		final int top = Math.max(region.y, 0);
+		final int right = Math.min(region.x + region.width, mask.cols());
+		final int bottom = Math.min(region.y + region.height, mask.rows());
+		if (right <= left || bottom <= top) {
+			return false;
+		}
+
+		long count = 0, sumX = 0, sumY = 0;
+		if (mask instanceof DirectMat && ((DirectMat)mask).isDirect()) {
+			final ByteBuffer pixels = ((DirectMat)mask).buffer();
+			final int stride = mask.cols();
+			for (int y = top; y < bottom; y++) {
+				int rowCount = 0, rowSumX = 0;
+				for (int x = left, p = y * stride + left; x < right; x++, p++) {
+					if (pixels.get(p) != 0) {
+						rowCount++;
+						rowSumX += x;
+					}
+				}
+				count += rowCount;
+				sumX += rowSumX;
+				sumY += (long)rowCount * y;
+			}
+		} else {
+			// Mat.get fills the whole array, so copy whole rows rather than reallocate for every width
+			final int width = mask.cols();
+			if (row.length != width) {
+				row = new byte[width];
+			}
+			final byte[] row = this.row;
+			for (int y = top; y < bottom; y++) {
+				mask.get(y, 0, row);
+				bytesCopied += width;
+				int rowCount = 0, rowSumX = 0;
+				for (int x = left; x < right; x++) {
+					if (row[x] != 0) {
+						rowCount++;
+						rowSumX += x;
+					}
+				}
+				count += rowCount;
+				sumX += rowSumX;
+				sumY += (long)rowCount * y;
+			}
+		}
+		if (count == 0) {
+			return false;
+		}
+		out.x = sumX / (double)count + 0.5;
+		out.y = sumY / (double)count + 0.5;
+		return true;
+	}
+
+	/**
+	 * @return the bytes copied out of masks that aren't DirectMats so far
+	 */
+	public long getBytesCopied() {
+		return bytesCopied;
+	}
+}
@@ -0,0 +1,388 @@
+package frc.robot;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.vision.VisionRunner;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * A drop-in alternative to VisionThread that overlaps frame grabbing with the stages of a
+ * StagedPipeline, so each stage can run on its own core.
+ *
+ * <p>One thread grabs frames and one thread runs each stage. Frames move between threads in
+ * preallocated slots, each holding a frame and its own pipeline instance. The frames are DirectMats
+ * allocated at the camera's resolution, so grabbing fills them in place and Java stages can read their
+ * pixels without copying. Each handoff holds at most one frame. If the next stage is still busy when
+ * a newer frame arrives, the waiting frame is dropped, so the listener always sees the newest frame
+ * the pipeline could keep up with rather than a growing backlog.
+ *
+ * <p>The listener is called on the last stage's thread, one frame at a time and in capture order,
+ * just like VisionThread's listener.
+ */
+public class PipelinedVisionRunner<P extends StagedPipeline> {
+
+	// A stage that keeps throwing reports at most once a second, not every frame
+	private static final long ERROR_REPORT_NANOS = 1000000000L;
+
+	/**
+	 * A frame in flight and the pipeline instance processing it.
+	 */
+	private static final class Slot<P> {
+		// Grabbed into in place, so the stages can read it without copying
+		final DirectMat frame = new DirectMat();
+		final P pipeline;
+		long captureTime;
+		long grabNanos;
+		// The hub's frame, when frames come from a CameraHub instead of being grabbed into frame
+		CameraHub.SharedFrame shared;
+
+		Slot(P pipeline) {
+			this.pipeline = pipeline;
+		}
+
+		Mat image() {
+			return shared != null ? shared.mat() : frame;
+		}
+	}
+
+	// Frames come from the sink, or from a hub subscription started by start()
+	private final CvSink cvSink;
+	private final CameraHub hub;
+	private final int device;
+	private CameraHub.Subscription subscription;
+	private final VisionRunner.Listener<? super P> listener;
+	private final int stageCount;
+
+	// Slots not currently in use by any thread
+	private final ArrayBlockingQueue<Slot<P>> free;
+	// handoff[n] feeds stage n; handoff[0] is fed by the grab thread
+	private final ArrayBlockingQueue<Slot<P>>[] handoff;
+	private final Thread[] threads;
+	private volatile boolean running;
+
+	// Dropped frames are counted by whichever thread hands off, errors by whichever stage threw
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	// The remaining statistics are written only by the last stage's thread
+	private volatile long framesProcessed;
+	private volatile double fps;
+	private volatile double latencyMillis;
+	private volatile double averageLatencyMillis;
+	private volatile long lastCaptureTime;
+	private long windowStart;
+	private int windowFrames;
+
+	// Set before start(); records listener time, latency and the interval between captures
+	private VisionMetrics metrics;
+	// Written only by the grab thread
+	private long lastGrabTime;
+	private long framesGrabbed;
+	private volatile int frameDivisor = 1;
+
+	/**
+	 * Creates a runner. Call start() to begin processing.
+	 * @param videoSource the camera to grab frames from
+	 * @param pipelines creates the pipeline instances, one per slot
+	 * @param listener called with the pipeline after each frame has been through every stage
+	 */
+	public PipelinedVisionRunner(VideoSource videoSource, Supplier<P> pipelines,
+			VisionRunner.Listener<? super P> listener) {
+		this(new CvSink("PipelinedVisionRunner_" + videoSource.getName()), null, -1, pipelines, listener);
+		cvSink.setSource(videoSource);
+		// Allocate the frames up front at the camera's resolution, so grabbing never allocates
+		VideoMode mode = videoSource.getVideoMode();
+		if (mode.width > 0 && mode.height > 0) {
+			for (Slot<P> slot : free) {
+				slot.frame.ensure(mode.height, mode.width, CvType.CV_8UC3);
+			}
+		}
+	}
+
+	/**
+	 * Creates a runner that takes its frames from a CameraHub, sharing the camera and its frames with the
+	 * hub's other subscribers. The stages read the hub's frame in place, so none of them may modify it.
+	 * Call start() to begin processing.
+	 * @param hub the hub
+	 * @param device the camera's device number
+	 * @param pipelines creates the pipeline instances, one per slot
+	 * @param listener called with the pipeline after each frame has been through every stage
+	 */
+	public PipelinedVisionRunner(CameraHub hub, int device, Supplier<P> pipelines,
+			VisionRunner.Listener<? super P> listener) {
+		this(null, hub, device, pipelines, listener);
+	}
+
+	@SuppressWarnings("unchecked")
+	private PipelinedVisionRunner(CvSink cvSink, CameraHub hub, int device, Supplier<P> pipelines,
+			VisionRunner.Listener<? super P> listener) {
+		this.listener = listener;
+		this.cvSink = cvSink;
+		this.hub = hub;
+		this.device = device;
+
+		P first = pipelines.get();
+		stageCount = first.stageCount();
+		if (stageCount < 1) {
+			throw new IllegalArgumentException("A StagedPipeline needs at least one stage");
+		}
+
+		// One slot being grabbed, one in each stage and one waiting in front of each stage
+		int slots = 2 * stageCount + 1;
+		free = new ArrayBlockingQueue<Slot<P>>(slots);
+		free.add(new Slot<P>(first));
+		for (int i = 1; i < slots; i++) {
+			free.add(new Slot<P>(pipelines.get()));
+		}
+		handoff = new ArrayBlockingQueue[stageCount];
+		for (int i = 0; i < stageCount; i++) {
+			handoff[i] = new ArrayBlockingQueue<Slot<P>>(1);
+		}
+
+		threads = new Thread[cvSink != null ? stageCount + 1 : stageCount];
+		int next = 0;
+		if (cvSink != null) {
+			threads[next++] = new Thread(this::grabLoop, "PipelinedVision-grab");
+		}
+		for (int i = 0; i < stageCount; i++) {
+			final int stage = i;
+			threads[next++] = new Thread(() -> stageLoop(stage), "PipelinedVision-stage" + stage);
+		}
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+		}
+	}
+
+	/**
+	 * Records how long the listener takes, the latency of each frame and the interval between camera
+	 * frames. Call before start().
+	 * @param metrics where to record, or null to stop
+	 */
+	public void setMetrics(VisionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts the grab and stage threads, or the hub subscription and stage threads.
+	 */
+	public void start() {
+		running = true;
+		windowStart = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		if (hub != null) {
+			subscription = hub.subscribe(device, "PipelinedVision", 0, this::acceptShared);
+		}
+	}
+
+	/**
+	 * Stops the grab and stage threads. A runner cannot be restarted.
+	 */
+	public void stop() {
+		running = false;
+		if (subscription != null) {
+			subscription.close();
+		}
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	private void grabLoop() {
+		try {
+			while (running) {
+				Slot<P> slot = free.take();
+				long frameTime = cvSink.grabFrame(slot.frame);
+				if (frameTime == 0) {
+					DriverStation.reportError(cvSink.getError(), false);
+					free.put(slot);
+					continue;
+				}
+				// Only copies if the resolution changed and the grab had to reallocate the frame
+				slot.frame.adopt();
+				grabbed(slot, frameTime);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes a frame from the hub, on the subscription's thread. The slot holds on to the frame until the
+	 * listener has seen it or it's dropped.
+	 */
+	private void acceptShared(CameraHub.SharedFrame frame) {
+		try {
+			Slot<P> slot = free.take();
+			frame.retain();
+			slot.shared = frame;
+			grabbed(slot, frame.getCaptureTime());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Passes a newly grabbed frame to the first stage. Only called by one thread, the grab thread or the
+	 * hub subscription's.
+	 */
+	private void grabbed(Slot<P> slot, long frameTime) throws InterruptedException {
+		slot.captureTime = frameTime;
+		slot.grabNanos = System.nanoTime();
+		// Capture timestamps are in microseconds; the spread of the interval is the camera's jitter
+		if (metrics != null && lastGrabTime != 0) {
+			metrics.record(VisionMetrics.FRAME_INTERVAL, (frameTime - lastGrabTime) / 1000.0);
+		}
+		lastGrabTime = frameTime;
+		// Keep grabbing every frame so the next one processed is fresh, but only process every Nth
+		if (framesGrabbed++ % frameDivisor != 0) {
+			recycle(slot);
+			return;
+		}
+		handOff(0, slot);
+	}
+
+	/**
+	 * Returns a slot to the free list, letting go of the hub's frame if it has one.
+	 */
+	private void recycle(Slot<P> slot) throws InterruptedException {
+		if (slot.shared != null) {
+			slot.shared.release();
+			slot.shared = null;
+		}
+		free.put(slot);
+	}
+
+	private void stageLoop(int stage) {
+		long lastReport = System.nanoTime() - ERROR_REPORT_NANOS;
+		try {
+			while (running) {
+				Slot<P> slot = handoff[stage].take();
+				try {
+					slot.pipeline.processStage(stage, slot.image());
+					if (stage + 1 < stageCount) {
+						handOff(stage + 1, slot);
+					} else {
+						lastCaptureTime = slot.captureTime;
+						long listenerStart = System.nanoTime();
+						listener.copyPipelineOutputs(slot.pipeline);
+						recordFrame(slot, listenerStart);
+						recycle(slot);
+					}
+				} catch (RuntimeException e) {
+					// Drop the frame and carry on, so one bad frame or listener call doesn't stop vision for the match
+					long count = errors.incrementAndGet();
+					long now = System.nanoTime();
+					if (now - lastReport >= ERROR_REPORT_NANOS) {
+						lastReport = now;
+						DriverStation.reportError("Vision stage " + stage + " (" + count + " errors so far): " + e,
+								e.getStackTrace());
+					}
+					recycle(slot);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Passes a slot to a stage, dropping the frame already waiting there if the stage hasn't taken it.
+	 * Each handoff has a single producer, so the second offer always succeeds.
+	 */
+	private void handOff(int stage, Slot<P> slot) throws InterruptedException {
+		ArrayBlockingQueue<Slot<P>> queue = handoff[stage];
+		if (!queue.offer(slot)) {
+			Slot<P> stale = queue.poll();
+			if (stale != null) {
+				framesDropped.incrementAndGet();
+				recycle(stale);
+			}
+			queue.put(slot);
+		}
+	}
+
+	private void recordFrame(Slot<P> slot, long listenerStart) {
+		long now = System.nanoTime();
+		double latency = (now - slot.grabNanos) / 1e6;
+		if (metrics != null) {
+			metrics.recordNanos(VisionMetrics.LISTENER, now - listenerStart);
+			metrics.record(VisionMetrics.LATENCY, latency);
+		}
+		latencyMillis = latency;
+		averageLatencyMillis = framesProcessed == 0 ? latency : 0.9 * averageLatencyMillis + 0.1 * latency;
+		framesProcessed++;
+
+		windowFrames++;
+		long elapsed = now - windowStart;
+		if (elapsed >= 1000000000L) {
+			fps = windowFrames * 1e9 / elapsed;
+			windowFrames = 0;
+			windowStart = now;
+		}
+	}
+
+	/**
+	 * Processes only every Nth camera frame, to leave CPU for the control loop when a TargetTracker
+	 * can fill in between frames. The frames in between are still grabbed, so none go stale.
+	 * @param divisor 1 to process every frame, 2 for every other frame and so on
+	 */
+	public void setFrameDivisor(int divisor) {
+		if (divisor < 1) {
+			throw new IllegalArgumentException("divisor must be at least 1");
+		}
+		frameDivisor = divisor;
+	}
+
+	/** @return how many camera frames there are for each frame processed */
+	public int getFrameDivisor() {
+		return frameDivisor;
+	}
+
+	/** @return the number of frames that have been through every stage */
+	public long getFramesProcessed() {
+		return framesProcessed;
+	}
+
+	/** @return the number of frames dropped because a newer frame arrived before a stage was free */
+	public long getFramesDropped() {
+		return framesDropped.get();
+	}
+
+	/** @return the number of frames dropped because a stage or the listener threw */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/** @return frames delivered to the listener per second, over the last second */
+	public double getFps() {
+		return fps;
+	}
+
+	/** @return milliseconds from the end of grabFrame to the end of the listener, for the last frame */
+	public double getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/** @return an exponential moving average of getLatencyMillis() */
+	public double getAverageLatencyMillis() {
+		return averageLatencyMillis;
+	}
+
+	/**
+	 * Called from the listener, this is the capture time of the frame being delivered.
+	 * cscore timestamps come from the FPGA clock on the roboRIO.
+	 * @return the cscore timestamp, in microseconds, of the last frame delivered to the listener
+	 */
+	public long getLastCaptureTime() {
+		return lastCaptureTime;
+	}
+}
@@ -0,0 +1,135 @@
+package frc.robot;
+
+/**
+ * Picks the camera resolution from how big the target is and how long frames take to process.
+ *
+ * <p>A far target is only a few pixels tall at low resolution, so the controller steps up when the
+ * target is shorter than minTargetPixels, as long as the larger frames are expected to fit in the time
+ * budget. A close target is plenty tall at any resolution, so it steps down when the target would
+ * still be at least maxTargetPixels tall one step lower, or whenever frames take longer than the
+ * budget. Because maxTargetPixels must be more than the step ratio times minTargetPixels, a step in
+ * either direction can't immediately call for the opposite step. On top of that, a step needs the
+ * same decision for holdFrames frames in a row, and no step is taken for cooldownFrames frames after a
+ * change, so the camera doesn't thrash between modes.
+ *
+ * <p>Frames still in flight at the old resolution after a change are ignored.
+ */
+public class ResolutionController {
+
+	private final int[] widths;
+	private final int[] heights;
+	private final double minTargetPixels;
+	private final double maxTargetPixels;
+	private final double budgetMillis;
+	private final int holdFrames;
+	private final int cooldownFrames;
+
+	private volatile int level;
+	private int pending;
+	private int pendingFrames;
+	private int cooldown;
+	private volatile long changes;
+
+	/**
+	 * @param widths the widths of the camera modes to choose from, smallest first
+	 * @param heights the heights of the camera modes, in the same order
+	 * @param startLevel index of the mode to start in
+	 * @param minTargetPixels step up when the target is shorter than this
+	 * @param maxTargetPixels step down when the target would still be this tall one step lower
+	 * @param budgetMillis the most time a frame should take to process
+	 * @param holdFrames frames in a row that must agree before stepping
+	 * @param cooldownFrames frames to wait after a step before stepping again
+	 */
+	public ResolutionController(int[] widths, int[] heights, int startLevel, double minTargetPixels,
+			double maxTargetPixels, double budgetMillis, int holdFrames, int cooldownFrames) {
+		if (widths.length == 0 || widths.length != heights.length) {
+			throw new IllegalArgumentException("Need the same number of widths and heights");
+		}
+		if (startLevel < 0 || startLevel >= widths.length) {
+			throw new IllegalArgumentException("No mode " + startLevel);
+		}
+		for (int i = 1; i < heights.length; i++) {
+			if (heights[i] <= heights[i - 1]
+					|| maxTargetPixels <= minTargetPixels * heights[i] / (double)heights[i - 1]) {
+				throw new IllegalArgumentException(
+					"Modes must grow, and maxTargetPixels must be above minTargetPixels times each step ratio");
+			}
+		}
+		this.widths = widths.clone();
+		this.heights = heights.clone();
+		this.level = startLevel;
+		this.minTargetPixels = minTargetPixels;
+		this.maxTargetPixels = maxTargetPixels;
+		this.budgetMillis = budgetMillis;
+		this.holdFrames = holdFrames;
+		this.cooldownFrames = cooldownFrames;
+	}
+
+	/**
+	 * Records a processed frame. Call this from the vision listener.
+	 * @param found whether the target was found
+	 * @param targetHeight the target's height in pixels, ignored if not found
+	 * @param frameHeight the height of the frame it was found in
+	 * @param frameMillis how long frames are taking to process
+	 * @return true if the resolution changed and the camera needs to be set to getWidth() x getHeight()
+	 */
+	public synchronized boolean update(boolean found, double targetHeight, int frameHeight, double frameMillis) {
+		if (frameHeight != heights[level]) {
+			return false;
+		}
+		if (cooldown > 0) {
+			cooldown--;
+			return false;
+		}
+
+		int want = level;
+		if (frameMillis > budgetMillis && level > 0) {
+			want = level - 1;
+		} else if (found && targetHeight < minTargetPixels && level + 1 < heights.length
+				&& frameMillis * pixelRatio(level + 1) <= budgetMillis) {
+			want = level + 1;
+		} else if (found && level > 0
+				&& targetHeight * heights[level - 1] / heights[level] >= maxTargetPixels) {
+			want = level - 1;
+		}
+
+		if (want == level) {
+			pendingFrames = 0;
+			return false;
+		}
+		if (want != pending) {
+			pending = want;
+			pendingFrames = 0;
+		}
+		if (++pendingFrames < holdFrames) {
+			return false;
+		}
+		level = want;
+		pendingFrames = 0;
+		cooldown = cooldownFrames;
+		changes++;
+		return true;
+	}
+
+	/**
+	 * How many times more pixels the given level has than the current one.
+	 */
+	private double pixelRatio(int to) {
+		return widths[to] * (double)heights[to] / (widths[level] * (double)heights[level]);
+	}
+
+	/** @return the width of the chosen mode */
+	public int getWidth() {
+		return widths[level];
+	}
+
+	/** @return the height of the chosen mode */
+	public int getHeight() {
+		return heights[level];
+	}
+
+	/** @return the number of resolution changes so far */
+	public long getChanges() {
+		return changes;
+	}
+}
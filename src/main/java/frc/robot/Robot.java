@@ -1,12 +1,17 @@
 package frc.robot;
 
+import java.io.File;
+import java.io.IOException;
+
 import edu.wpi.first.wpilibj.*;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj.drive.DifferentialDrive;
 import edu.wpi.first.wpilibj.DoubleSolenoid.Value;
 import edu.wpi.first.wpilibj.Spark;
 import edu.wpi.first.wpilibj.Relay.Direction;
+import edu.wpi.cscore.MjpegServer;
 import edu.wpi.cscore.UsbCamera;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
 
 public class Robot extends TimedRobot {
   // Override default robot period
@@ -37,11 +42,46 @@ public class Robot extends TimedRobot {
   private static FRC5572Controller driverController1, driverController2;
   private static CameraServer cServer;
   private static UsbCamera rearCamera;
+  // Closes its own camera subscription once it has saved all the frames it's allowed
+  private static FrameRecorder frameRecorder;
   private static Compressor compressor;
 
+  // Keeps the camera streams under the FMS bandwidth cap, with room left for the rest of the robot's traffic
+  private static final double streamBudgetMbps = 3;
+  private static StreamBandwidthManager streams;
+  private static int rearStream;
+
+  // Dashboard values, looked up once and only sent when they change. Flushed at the end of robotPeriodic
+  private static Telemetry telemetry;
+  private static Telemetry.Number leftPowerOut, rightPowerOut, cameraMbpsOut, beltSpeedOut, writtenOut, suppressedOut;
+  private static Telemetry.Bool inverseEnabled, driveInvertedOut, cameraDisabledOut;
+  private static Telemetry.Text cameraPresetOut;
+
+  // Every loop's inputs and outputs, written to /home/lvuser/logs for going over matches with LoopLogDecoder.
+  // About 55 minutes of 50ms loops per file, and the last 10 files are kept
+  private static LoopLogger loopLogger;
+  private static final LoopRecord loopRecord = new LoopRecord();
+  private static long lastLoopStart;
+
+  // Times each block of robotPeriodic and catches the one running when the loop overruns its period.
+  // Results are under Profiler on the dashboard, and written next to the loop log when the robot is disabled
+  private static LoopProfiler profiler;
+  private static final int pInputs = 0, pSubsystems = 1, pTelemetry = 7, pLog = 8;
+
+  // Each mechanism runs only when the controller inputs it reads change, or its timer runs out, with its
+  // own fault handling. Runs, skips, faults and time for each are under Subsystems on the dashboard
+  private static SubsystemScheduler scheduler;
+  private static final int inLB1 = 0, inRB1 = 1, inA1 = 2, inB1 = 3, inInverseEnabled = 4, inFrontClimb = 5,
+    inBackClimb = 6, inLY2 = 7, inBeltBoost = 8, inA2 = 9, inB2 = 10, inX2 = 11, inY2 = 12;
+
+  // The drivetrain runs on its own 200 Hz loop; this loop hands it the drive scale and reports what it commanded.
+  // Both loops' jitter is under Timing on the dashboard
+  private static DriveLoop driveLoop;
+  private static LoopTiming mainTiming, driveTiming;
+
   // Sets the power the motors will be scaled by
   private static final double intakeSpeed = 0.5, hatchSpeed = 1;
-  private static double driveScale, beltSpeed;
+  private static double driveScale, beltSpeed, leftDrive, rightDrive;
 
   @Override
   public void robotInit() {
@@ -69,8 +109,24 @@ public class Robot extends TimedRobot {
     // Init of all other devices
     compressor = new Compressor();
     cServer = CameraServer.getInstance();
-    UsbCamera rearCamera = cServer.startAutomaticCapture(0);
+    // Opened through the hub so vision and the recorder share the one capture instead of opening it again
+    CameraHub cameras = CameraHub.getInstance();
+    rearCamera = cameras.camera(0);
+    MjpegServer rearServer = cameras.stream(0);
     rearCamera.setFPS(15);
+    // Keep a couple of frames a second on the USB stick, if there is one, for going over matches.
+    // 25 minutes of frames a boot, each boot in its own directory, and the last 5 boots are kept
+    if (new File("/U").isDirectory()) {
+      try {
+        frameRecorder = FrameRecorder.open(FrameRecorder.DEFAULT_DIRECTORY, 3000, 5);
+        frameRecorder.subscribe(cameras, 0, 2);
+      } catch (IOException recordError) {
+        DriverStation.reportWarning("Not recording frames: " + recordError.getMessage(), false);
+      }
+    }
+    // The stream's frame rate, resolution and quality are set by the bandwidth manager from here on
+    streams = new StreamBandwidthManager(streamBudgetMbps, StreamBandwidthManager.DEFAULT_PRESETS);
+    rearStream = streams.addStream("rear", rearServer);
     
     // Init of the controllers
     driverController1 = new FRC5572Controller(0);
@@ -79,18 +135,61 @@ public class Robot extends TimedRobot {
     // Init of the drive scale
     driveScale = 0.9;
 
-    //Create value to smart dashboard
-    //SmartDashboard.getBoolean("InverseEnabled", false);
-    SmartDashboard.putBoolean("InverseEnabled", false);
+    // Init of the dashboard values
+    telemetry = Telemetry.getInstance();
+    leftPowerOut = telemetry.number("Left Wheel Power").epsilon(0.01);
+    rightPowerOut = telemetry.number("Right Wheel Power").epsilon(0.01);
+    driveInvertedOut = telemetry.bool("isDriveInverted");
+    cameraDisabledOut = telemetry.bool("isCameraDisabled");
+    cameraPresetOut = telemetry.string("Camera Preset");
+    // The measured bandwidth wanders a little every loop; twice a second is plenty to watch it
+    cameraMbpsOut = telemetry.number("Camera Mbps").epsilon(0.05).rateLimit(0.5);
+    beltSpeedOut = telemetry.number("Belt Speed").epsilon(0.01);
+    writtenOut = telemetry.number("Telemetry Written").rateLimit(1);
+    suppressedOut = telemetry.number("Telemetry Suppressed").rateLimit(1);
+    // Set by the driver from the dashboard, so it's read back every loop
+    inverseEnabled = telemetry.bool("InverseEnabled");
+    inverseEnabled.set(false);
+    profiler = new LoopProfiler(kRealPeriod, 200, telemetry, NetworkTableInstance.getDefault().getTable("Profiler"),
+        "inputs", "drive", "climbStands", "camera", "intakeArm", "belt", "hatch", "telemetry", "log");
+
+    // Init of the subsystems, in the order of their profiler sections. Each is also re-commanded once a second
+    // in case a command was lost, except the camera, which runs every loop
+    scheduler = new SubsystemScheduler(6, telemetry, NetworkTableInstance.getDefault().getTable("Subsystems"));
+    scheduler.setProfiler(profiler, pSubsystems);
+    scheduler.add("drive", 1, Robot::drive, inLB1, inRB1, inA1, inInverseEnabled);
+    scheduler.add("climbStands", 1, Robot::climbStands, inFrontClimb, inBackClimb);
+    scheduler.add("camera", 0, Robot::camera, inB1);
+    scheduler.add("intakeArm", 1, Robot::intakeArm, inX2, inY2);
+    // The intake motor is run from here and depends on where the arm is, so this runs whenever the arm buttons
+    // change, after intakeArm has moved the arm (Arm.set runs the motor for the old position)
+    scheduler.add("belt", 1, Robot::belt, inLY2, inBeltBoost, inX2, inY2);
+    scheduler.add("hatch", 1, Robot::hatch, inA2, inB2);
+
+    // Starting the drive loop
+    NetworkTable timingTable = NetworkTableInstance.getDefault().getTable("Timing");
+    mainTiming = new LoopTiming(kRealPeriod, 200, telemetry, timingTable.getSubTable("main"));
+    driveTiming = new LoopTiming(DriveLoop.DEFAULT_PERIOD, 800, telemetry, timingTable.getSubTable("drive"));
+    driveLoop = new DriveLoop(m_myRobot, driverController1, DriveLoop.DEFAULT_PERIOD, driveScale, driveTiming);
+    driveLoop.start();
     // Starting the compressor
     compressor.start();
+
+    // Only log on the robot itself
+    if (new File("/home/lvuser").isDirectory()) {
+      try {
+        loopLogger = LoopLogger.open(LoopLogger.DEFAULT_DIRECTORY, 1 << 16, 256, 10);
+      } catch (IOException logError) {
+        DriverStation.reportWarning("Not logging loops: " + logError.getMessage(), false);
+      }
+    }
   }
 
-  // Boolean for the drive control flip system (MUST BE SET TO FALSE TO WORK)
-  private static boolean driveInverted = false, isDriveInverted = false;
+  // Boolean for the drive control flip system, for the Smart Dashboard
+  private static boolean isDriveInverted = false;
 
-  // Boolean for disabling back camera
-  // private static boolean disableCamera = true, isCameraDisabled = false;
+  // Each controller read once per loop; button presses and releases come from these
+  private static FRC5572Controller.Snapshot driver1, driver2;
 
   // Naming variables for button assignments
   private static double RY1, LY1, LY2, RT1, LT1, LT2;
@@ -98,152 +197,179 @@ public class Robot extends TimedRobot {
  
   @Override
   public void robotPeriodic() {
-    // This program utilizes try/catch statements throughout for less complicated error handling
+    long loopStart = RobotController.getFPGATime();
+    mainTiming.tick(System.nanoTime());
+    profiler.startLoop();
+    profiler.enter(pInputs);
+    // Each subsystem runs inside its own try/catch in the scheduler, so one failing doesn't stop the others
     // Renaming of the buttons for easier reading of the code and computation, all button usages are defined here
     // Driver controls
-  
-    RY1 = driverController1.RY();  // Used for right motor input to the drive train.
-    LY1 = driverController1.LY();  // Used for left motor input to the drive train.
-    LB1 = driverController1.LB(); // Slow button
-    RB1 = driverController1.RB(); // Boost button
-    A1 = driverController1.A(); // Flips the drivetrain controls
-    B1 = driverController1.B(); // Disables back camera
-    RT1 = driverController1.RT(); // Runs the front climb stand pneumatics
-    LT1 = driverController1.LT(); // Runs the back climb stand pneumatics
+    driver1 = driverController1.update();
+    driver2 = driverController2.update();
+    RY1 = driver1.axis(driverController1.rightY);  // Right motor input to the drive train, which the drive loop reads itself; logged here
+    LY1 = driver1.axis(driverController1.leftY);  // Left motor input to the drive train, likewise
+    LB1 = driver1.button(driverController1.leftButton); // Slow button
+    RB1 = driver1.button(driverController1.rightButton); // Boost button
+    A1 = driver1.button(driverController1.aButton); // Flips the drivetrain controls
+    B1 = driver1.button(driverController1.bButton); // Disables back camera
+    RT1 = driver1.axis(driverController1.rightZ); // Runs the front climb stand pneumatics
+    LT1 = driver1.axis(driverController1.leftZ); // Runs the back climb stand pneumatics
     // Operator controls
-    LY2 = driverController2.LY(); // Used to run the belt
-    A2 = driverController2.A(); // Close hatch intake (GRAB HATCH)
-    B2 = driverController2.B(); // Close hatch intake, push hatch release pistons (PLACE HATCH)
-    LB2 = driverController2.LB(); // Runs the hatch motor down
-    RB2 = driverController2.RB(); // Runs the hatch motor up
-    X2 = driverController2.X(); // Puts the arm up and stops the intake motor
-    Y2 = driverController2.Y(); // Puts the arm down and starts the intake motor
-    LT2 = driverController2.LT(); // Boosts the speed of the belt to shoot over other robots
+    LY2 = driver2.axis(driverController2.leftY); // Used to run the belt
+    A2 = driver2.button(driverController2.aButton); // Close hatch intake (GRAB HATCH)
+    B2 = driver2.button(driverController2.bButton); // Close hatch intake, push hatch release pistons (PLACE HATCH)
+    LB2 = driver2.button(driverController2.leftButton); // Runs the hatch motor down
+    RB2 = driver2.button(driverController2.rightButton); // Runs the hatch motor up
+    X2 = driver2.button(driverController2.xButton); // Puts the arm up and stops the intake motor
+    Y2 = driver2.button(driverController2.yButton); // Puts the arm down and starts the intake motor
+    LT2 = driver2.axis(driverController2.leftZ); // Boosts the speed of the belt to shoot over other robots
 
-    try {
-      // Controlling the wheels using the left and right sticks of the drive controller
-      // Due to wiring, both sides must be reversed
-      m_myRobot.tankDrive(driveScale * (driveScale > 0 ? -LY1 : -RY1), driveScale * (driveScale > 0 ? -RY1 : -LY1));
-      // Returns the percentage of power being put to the wheels to the Smart Dashboard
-      SmartDashboard.putNumber("Left Wheel Power", driveScale * -LY1);
-      SmartDashboard.putNumber("Right Wheel Power", driveScale * -RY1);
-    } catch (Exception driveError) {
-      // Outputs an error if there is an error within the drivetrain
-      System.out.println(driveError);
+    // Only the subsystems whose inputs changed, or whose timers are up, run this loop
+    scheduler.input(inLB1, LB1);
+    scheduler.input(inRB1, RB1);
+    scheduler.input(inA1, A1);
+    scheduler.input(inB1, B1);
+    scheduler.input(inInverseEnabled, inverseEnabled.get(false));
+    scheduler.input(inFrontClimb, RT1 > 0.2);
+    scheduler.input(inBackClimb, LT1 > 0.2);
+    scheduler.input(inLY2, LY2);
+    scheduler.input(inBeltBoost, LT2 > 0.2);
+    scheduler.input(inA2, A2);
+    scheduler.input(inB2, B2);
+    scheduler.input(inX2, X2);
+    scheduler.input(inY2, Y2);
+    scheduler.run(loopStart);
+
+    // Sends this loop's dashboard changes together
+    profiler.enter(pTelemetry);
+    // The drive loop controls the wheels using the left and right sticks of the drive controller;
+    // this reads back the powers it last sent them
+    long driveOutputs = driveLoop.getOutputs();
+    leftDrive = DriveLoop.left(driveOutputs);
+    rightDrive = DriveLoop.right(driveOutputs);
+    // Returns the percentage of power being put to the wheels to the Smart Dashboard
+    leftPowerOut.set(leftDrive);
+    rightPowerOut.set(rightDrive);
+    long now = RobotController.getFPGATime();
+    profiler.publish(now);
+    mainTiming.publish(now);
+    driveTiming.publish(now);
+    scheduler.publish(now);
+    writtenOut.set(telemetry.getWritten());
+    suppressedOut.set(telemetry.getSuppressed());
+    telemetry.flush(now);
+
+    profiler.enter(pLog);
+    if (loopLogger != null) {
+      logLoop(loopStart);
     }
+    profiler.endLoop();
+  }
 
-    // Allows the driver to press the right bumper to boost the speed of the robot
-    // or left bumper to slow it down
+  @Override
+  public void disabledInit() {
+    // Keeps the profile of the match just played; robotInit has already run, so this is safe on the first disable too
+    if (!new File("/home/lvuser").isDirectory() || profiler.getLoops() == 0) {
+      return;
+    }
+    String name = loopLogger != null ? loopLogger.getFile().getName().replace(".bin", "-profile.txt") : "profile.txt";
     try {
-      // LB sets power to 60% of input (slow), RB sets power to 100% of input (boosted), 90% is default
-      driveScale = LB1 || RB1 ? (LB1 ? (driveScale > 0 ? 0.6 : -0.6) : (driveScale > 0 ? 1 : -1)) : (driveScale > 0 ? 0.9 : -0.9);
-    } catch (Exception boostError) {
-      // Outputs an error if there is an error within the boost function
-      System.out.println(boostError);
+      LoopLogger.DEFAULT_DIRECTORY.mkdirs();
+      profiler.writeSummary(new File(LoopLogger.DEFAULT_DIRECTORY, name));
+    } catch (IOException profileError) {
+      DriverStation.reportWarning("Could not write the loop profile: " + profileError.getMessage(), false);
     }
+  }
 
-    // Reverses the drivetrain controls using the A button of the driver controller
-    try {
-      if(SmartDashboard.getBoolean("InverseEnabled", false))
-      {
-      if (A1 && !driveInverted) {
-        driveInverted = true;
+  // Allows the driver to press the right bumper to boost the speed of the robot
+  // or left bumper to slow it down, and to reverse the drivetrain controls using the A button
+  private static void drive(long now) {
+    // LB sets power to 60% of input (slow), RB sets power to 100% of input (boosted), 90% is default
+    driveScale = LB1 || RB1 ? (LB1 ? (driveScale > 0 ? 0.6 : -0.6) : (driveScale > 0 ? 1 : -1)) : (driveScale > 0 ? 0.9 : -0.9);
+    if (inverseEnabled.get(false)) {
+      if (driver1.pressed(driverController1.aButton)) {
         driveScale = -driveScale;
-      } if (!A1) {
-        // Must be FALSE for button to function correctly
-        driveInverted = false;
       }
       // Changing the boolean solely used for output to the Smart Dashboard
-      isDriveInverted = driveScale < 0 ? true : false;
-      // Returns boolean state to Smart Dashboard
-      SmartDashboard.putBoolean("isDriveInverted", isDriveInverted);
-    }
-    } catch (Exception driveInvertError) {
-      // Outputs an error if there is an error while flipping the drivetrain controls
-      System.out.println(driveInvertError);
-    }
-
-    // Controls the front climb stand pneumatics using the left bumper of the driver controller
-    try {
-      // Pressing RT activates the front climb stand
-      frontClimbStand.set(RT1 > 0.2 ? Value.kReverse : Value.kForward);
-    } catch (Exception frontClimbError) {
-      // Outputs an error if there is an error within the climb mechanism
-      System.out.println(frontClimbError);
+      isDriveInverted = driveScale < 0;
+      driveInvertedOut.set(isDriveInverted);
     }
+    // The drive loop picks up the new scale on its next pass
+    driveLoop.setScale(driveScale);
+  }
 
-    // Controls the back climb stand pneumatics using the right bumper of the driver controller
-    try {
-      // Pressing LT activates the back climb stand
-      backClimbStand.set(LT1 > 0.2 ? Value.kReverse : Value.kForward);
-    } catch (Exception backClimbError) {
-      // Outputs an error if there is an error within the climb mechanism
-      System.out.println(backClimbError);
-    }
+  // Controls the climb stand pneumatics using the triggers of the driver controller
+  private static void climbStands(long now) {
+    // Pressing RT activates the front climb stand, LT the back
+    frontClimbStand.set(RT1 > 0.2 ? Value.kReverse : Value.kForward);
+    backClimbStand.set(LT1 > 0.2 ? Value.kReverse : Value.kForward);
+  }
 
-    // Pressing B on the driver controller disables the back camera (to save bandwidth)
-    // try {
-    //   rearCamera.setFPS(20);
-    //   if (B1 && disableCamera) {
-    //     disableCamera = false;
-    //     rearCamera.setFPS(1);
-    //   } if (!B1) {
-    //     disableCamera = true;
-    //   }
-    //   // Using a seperate variable to control the output to the Smart Dashboard
-    //   if (!disableCamera) {
-    //     isCameraDisabled = true;
-    //   }
-    //   SmartDashboard.putBoolean("isCameraDisabled", isCameraDisabled);
-    // } catch (Exception cameraError) {
-    //   System.out.println(cameraError);
-    // }
-
-    // Controlling the belt using the triggers of the second controller
-    try {
-      belt.set(-LY2 * beltSpeed);
-      intakeArm.runMotor(intakeSpeed, Math.abs(LY2) > 0.1);
-      // Returns the speed of the belt to the smart dashboard
-      SmartDashboard.putNumber("Belt Speed", belt.get());
-    } catch (Exception beltError) {
-      // Outputs an error if there is an error within the belt
-      System.out.println(beltError);
+  // Pressing B on the driver controller turns the back camera right down (to save bandwidth), and pressing it
+  // again hands the stream back to the bandwidth manager. Runs every loop, since the manager measures the streams
+  private static void camera(long now) {
+    if (driver1.pressed(driverController1.bButton)) {
+      if (streams.isOverridden(rearStream)) {
+        streams.clearOverride(rearStream);
+      } else {
+        streams.setOverride(rearStream, StreamBandwidthManager.DEFAULT_PRESETS.length - 1);
+      }
     }
+    streams.update(Timer.getFPGATimestamp());
+    cameraDisabledOut.set(streams.isOverridden(rearStream));
+    cameraPresetOut.set(streams.getPreset(rearStream).getName());
+    cameraMbpsOut.set(streams.getTotalMbps());
+  }
 
-    // Allows the operator to boost the speed of the belt by pressing LT
-    try {
-      // Normal belt speed is 65%, while boosted belt speed is 100%
-      beltSpeed = (LT2 > 0.2 ? 1 : 0.65);
-    } catch (Exception beltBoostError) {
-      // Outputs an error if an error occurs whilst boosting the belt
-      System.out.println(beltBoostError);
-    }
+  // Running the intake arm and intake at the same time using X & Y buttons on the second controller
+  // Runs through the seperate arm class
+  private static void intakeArm(long now) {
+    intakeArm.set(X2 ^ Y2 ? (X2 ? Arm.Direction.aUp : Arm.Direction.aDown) : Arm.Direction.aOff, intakeSpeed);
+  }
 
-    // When A is pressed, the intake closes to pick up a hatch 
-    // When B is pressed, the intake closes and the hatch release pneumatics pop out to place a hatch
-    try {
-      hatchIntake.set(A2 || B2 ? Value.kReverse : Value.kForward);
-      hatchRelease.set(B2 ? Value.kReverse : Value.kForward);
-    } catch (Exception hatchError) {
-      // Outputs an error if there is an error within the hatch pneumatics
-      System.out.println(hatchError);
-    }
+  // Controlling the belt using the left stick of the second controller; the intake motor follows the arm
+  private static void belt(long now) {
+    // Normal belt speed is 65%, while boosted belt speed is 100% when the operator presses LT
+    beltSpeed = (LT2 > 0.2 ? 1 : 0.65);
+    belt.set(-LY2 * beltSpeed);
+    intakeArm.runMotor(intakeSpeed, Math.abs(LY2) > 0.1);
+    // Returns the speed of the belt to the smart dashboard
+    beltSpeedOut.set(belt.get());
+  }
 
-    // Controls the hatch mechanism using LB and RB to run the seat motor
-    // try {
-    //   hatch.set(LB2 || RB2 ? (RB2 ? -hatchSpeed : hatchSpeed) : 0);
-    // } catch (Exception windowError) {
-    //   // Outputs an error if there is an error within the hatch motor
-    //   System.out.println(windowError);
-    // }
+  // When A is pressed, the intake closes to pick up a hatch 
+  // When B is pressed, the intake closes and the hatch release pneumatics pop out to place a hatch
+  private static void hatch(long now) {
+    hatchIntake.set(A2 || B2 ? Value.kReverse : Value.kForward);
+    hatchRelease.set(B2 ? Value.kReverse : Value.kForward);
+    // The seat motor on LB and RB is disconnected:
+    // hatch.set(LB2 || RB2 ? (RB2 ? -hatchSpeed : hatchSpeed) : 0);
+  }
 
-    // Running the intake arm and intake at the same time using X & Y buttons on the second controller
-    // Runs through the seperate arm class
-    try {
-     intakeArm.set( X2 ^ Y2 ? (X2 ? Arm.Direction.aUp : Arm.Direction.aDown) : Arm.Direction.aOff, intakeSpeed);
-     } catch (Exception intakeArmError) {
-       // Outputs an error if there is an error within the intake
-      System.out.println(intakeArmError);
-    }
+  // Fills the record from what this loop read and commanded; the solenoids are the same conditions they were set from
+  private static void logLoop(long loopStart) {
+    LoopRecord record = loopRecord;
+    record.timestamp = loopStart;
+    record.loop++;
+    record.loopMicros = lastLoopStart == 0 ? 0 : (int)(loopStart - lastLoopStart);
+    lastLoopStart = loopStart;
+    record.ry1 = (float)RY1;
+    record.ly1 = (float)LY1;
+    record.rt1 = (float)RT1;
+    record.lt1 = (float)LT1;
+    record.ly2 = (float)LY2;
+    record.lt2 = (float)LT2;
+    record.buttons = (A1 ? LoopRecord.A1 : 0) | (B1 ? LoopRecord.B1 : 0) | (LB1 ? LoopRecord.LB1 : 0)
+        | (RB1 ? LoopRecord.RB1 : 0) | (A2 ? LoopRecord.A2 : 0) | (B2 ? LoopRecord.B2 : 0) | (X2 ? LoopRecord.X2 : 0)
+        | (Y2 ? LoopRecord.Y2 : 0) | (LB2 ? LoopRecord.LB2 : 0) | (RB2 ? LoopRecord.RB2 : 0);
+    record.solenoids = (A2 || B2 ? LoopRecord.HATCH_INTAKE : 0) | (B2 ? LoopRecord.HATCH_RELEASE : 0)
+        | (RT1 > 0.2 ? LoopRecord.FRONT_CLIMB_STAND : 0) | (LT1 > 0.2 ? LoopRecord.BACK_CLIMB_STAND : 0);
+    record.armState = intakeArm.getState().ordinal();
+    record.leftDrive = (float)leftDrive;
+    record.rightDrive = (float)rightDrive;
+    record.belt = (float)belt.get();
+    record.intake = (float)(intakeArm.getState() == Arm.Direction.aDown ? intakeSpeed : 0);
+    record.driveScale = (float)driveScale;
+    loopLogger.log(record);
   }
 }
\ No newline at end of file
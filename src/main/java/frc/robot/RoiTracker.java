@@ -0,0 +1,139 @@
+package frc.robot;
+
+import org.opencv.core.Rect;
+
+/**
+ * Remembers where the target was last seen so GripPipeline can threshold and contour only a padded
+ * window around it instead of the whole frame.
+ *
+ * <p>The tracker locks on when the pipeline finds contours, and unlocks, so the next frame is searched
+ * in full, when the contours are lost or reach the edge of the window (the target may be leaving it).
+ * One tracker is shared by every GripPipeline instance of a PipelinedVisionRunner, so its methods are
+ * synchronized; they only copy a few ints.
+ */
+public class RoiTracker {
+
+	private final double padScale;
+	private final int minPad;
+	private final double maxFrameFraction;
+
+	private boolean enabled = true;
+	private boolean locked;
+	private int x, y, width, height;
+	private int lockedFrameWidth, lockedFrameHeight;
+
+	private volatile long framesTracked;
+	private volatile long framesSearched;
+
+	/**
+	 * Creates a tracker that pads the window by the target's own size on every side, at least 16 pixels,
+	 * and falls back to a full search when the window would cover more than half the frame.
+	 */
+	public RoiTracker() {
+		this(1.0, 16, 0.5);
+	}
+
+	/**
+	 * @param padScale padding on each side, as a fraction of the target's width and height
+	 * @param minPad minimum padding on each side, in pixels
+	 * @param maxFrameFraction above this fraction of the frame's area the window isn't worth using
+	 */
+	public RoiTracker(double padScale, int minPad, double maxFrameFraction) {
+		this.padScale = padScale;
+		this.minPad = minPad;
+		this.maxFrameFraction = maxFrameFraction;
+	}
+
+	/**
+	 * Works out the window to process for the next frame.
+	 * @param frameWidth width of the frame in pixels
+	 * @param frameHeight height of the frame in pixels
+	 * @param window filled in with the window, in frame coordinates, when this returns true
+	 * @return true to process only the window, false to process the whole frame
+	 */
+	public synchronized boolean window(int frameWidth, int frameHeight, Rect window) {
+		if (!enabled || !locked || frameWidth != lockedFrameWidth || frameHeight != lockedFrameHeight) {
+			// A resolution change moves the target, so search again
+			framesSearched++;
+			return false;
+		}
+		int padX = Math.max(minPad, (int)(padScale * width));
+		int padY = Math.max(minPad, (int)(padScale * height));
+		int left = Math.max(0, x - padX);
+		int top = Math.max(0, y - padY);
+		int right = Math.min(frameWidth, x + width + padX);
+		int bottom = Math.min(frameHeight, y + height + padY);
+		if (right <= left || bottom <= top
+				|| (right - left) * (double)(bottom - top) > maxFrameFraction * frameWidth * frameHeight) {
+			framesSearched++;
+			return false;
+		}
+		window.x = left;
+		window.y = top;
+		window.width = right - left;
+		window.height = bottom - top;
+		framesTracked++;
+		return true;
+	}
+
+	/**
+	 * Records the result of a frame.
+	 * @param found whether any contours passed the filter
+	 * @param bounds the box around every contour that passed, in frame coordinates
+	 * @param window the window that was processed, or null if it was the whole frame
+	 * @param frameWidth width of the frame in pixels
+	 * @param frameHeight height of the frame in pixels
+	 */
+	public synchronized void update(boolean found, Rect bounds, Rect window, int frameWidth, int frameHeight) {
+		if (!found) {
+			locked = false;
+			return;
+		}
+		if (window != null && touchesWindowEdge(bounds, window, frameWidth, frameHeight)) {
+			locked = false;
+			return;
+		}
+		locked = true;
+		lockedFrameWidth = frameWidth;
+		lockedFrameHeight = frameHeight;
+		x = bounds.x;
+		y = bounds.y;
+		width = bounds.width;
+		height = bounds.height;
+	}
+
+	/**
+	 * Whether the bounds reach an edge of the window that isn't also an edge of the frame.
+	 */
+	private static boolean touchesWindowEdge(Rect bounds, Rect window, int frameWidth, int frameHeight) {
+		return (bounds.x <= window.x && window.x > 0)
+			|| (bounds.y <= window.y && window.y > 0)
+			|| (bounds.x + bounds.width >= window.x + window.width && window.x + window.width < frameWidth)
+			|| (bounds.y + bounds.height >= window.y + window.height && window.y + window.height < frameHeight);
+	}
+
+	/**
+	 * Turns window tracking on or off. While off, every frame is searched in full.
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			locked = false;
+		}
+	}
+
+	/** @return whether the next frame will be processed in a window */
+	public synchronized boolean isLocked() {
+		return enabled && locked;
+	}
+
+	/** @return the number of frames processed in a window */
+	public long getFramesTracked() {
+		return framesTracked;
+	}
+
+	/** @return the number of frames searched in full */
+	public long getFramesSearched() {
+		return framesSearched;
+	}
+}
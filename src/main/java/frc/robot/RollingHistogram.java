@@ -0,0 +1,86 @@
+package frc.robot;
+
+import java.util.Arrays;
+
+/**
+ * The distribution of the last N values of a measurement, such as a stage's time per frame.
+ *
+ * <p>Recording writes one double into a ring buffer, so it's cheap enough to leave on in competition.
+ * The percentiles are only worked out when summarize() is called, by sorting a copy of the window.
+ * Nothing allocates after construction.
+ *
+ * <p>record() may be called from any thread. summarize() and the getters after it belong to the
+ * thread that publishes the summary.
+ */
+public class RollingHistogram {
+
+	private final double[] window;
+	private final double[] sorted;
+	private int next;
+	private int size;
+	private long total;
+
+	private int sortedSize;
+
+	/**
+	 * @param capacity how many of the most recent values to keep
+	 */
+	public RollingHistogram(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		window = new double[capacity];
+		sorted = new double[capacity];
+	}
+
+	/**
+	 * Adds a value, pushing out the oldest once the window is full.
+	 */
+	public synchronized void record(double value) {
+		window[next] = value;
+		next = (next + 1) % window.length;
+		if (size < window.length) {
+			size++;
+		}
+		total++;
+	}
+
+	/**
+	 * Takes a sorted copy of the window for the getters below.
+	 */
+	public void summarize() {
+		synchronized (this) {
+			sortedSize = size;
+			System.arraycopy(window, 0, sorted, 0, size);
+		}
+		Arrays.sort(sorted, 0, sortedSize);
+	}
+
+	/**
+	 * Nearest-rank percentile of the summarized window.
+	 * @param fraction from 0 to 1, e.g. 0.99
+	 * @return the percentile, or 0 if nothing has been recorded
+	 */
+	public double percentile(double fraction) {
+		if (sortedSize == 0) {
+			return 0;
+		}
+		int rank = (int)Math.ceil(fraction * sortedSize);
+		return sorted[Math.max(0, Math.min(sortedSize - 1, rank - 1))];
+	}
+
+	/** @return the largest value in the summarized window, or 0 if nothing has been recorded */
+	public double max() {
+		return sortedSize == 0 ? 0 : sorted[sortedSize - 1];
+	}
+
+	/** @return the number of values in the summarized window */
+	public int size() {
+		return sortedSize;
+	}
+
+	/** @return the number of values ever recorded */
+	public synchronized long total() {
+		return total;
+	}
+}
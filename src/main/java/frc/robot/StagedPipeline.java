@@ -0,0 +1,26 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.vision.VisionPipeline;
+
+import org.opencv.core.Mat;
+
+/**
+ * A VisionPipeline whose process method can be split into stages that run one after another,
+ * so PipelinedVisionRunner can work on different frames in different stages at the same time.
+ *
+ * <p>Stage n reads only the frame and the outputs of stages 0 to n-1 on the same instance, so the
+ * runner keeps one instance per frame in flight.
+ */
+public interface StagedPipeline extends VisionPipeline {
+	/**
+	 * @return the number of stages process is split into
+	 */
+	int stageCount();
+
+	/**
+	 * Runs a single stage of the pipeline on a frame.
+	 * @param stage the stage to run, from 0 to stageCount() - 1
+	 * @param frame the frame being processed
+	 */
+	void processStage(int stage, Mat frame);
+}
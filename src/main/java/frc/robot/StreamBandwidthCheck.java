@@ -0,0 +1,104 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.cscore.MjpegServer;
+import edu.wpi.cscore.VideoMode;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Runs StreamBandwidthManager against a local cscore MJPEG server on a desktop, with no robot or
+ * camera, to see how it settles for a budget.
+ *
+ * <p>Usage: {@code ./gradlew streamCheck --args="<frames dir | video file> [--budget Mbps] [--seconds N] [--port N] [--fps N]"}
+ *
+ * <p>Frames are read the same way VisionReplay reads them, scaled to 320x240 and played on a loop
+ * through a CvSource at the camera's frame rate. The stream is served on the port given, 1181 by
+ * default, so a browser or the dashboard can watch it while the manager runs. Every second the
+ * measured bandwidth and the preset are printed.
+ */
+public final class StreamBandwidthCheck {
+
+	private StreamBandwidthCheck() {
+	}
+
+	public static void main(String... args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage: StreamBandwidthCheck <frames dir | video file> [--budget Mbps] [--seconds N] [--port N] [--fps N]");
+			System.exit(1);
+		}
+		File input = new File(args[0]);
+		double budget = 1;
+		int seconds = 60;
+		int port = 1181;
+		int fps = 30;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--budget":
+					budget = Double.parseDouble(args[++i]);
+					break;
+				case "--seconds":
+					seconds = Integer.parseInt(args[++i]);
+					break;
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--fps":
+					fps = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		CvSource source = new CvSource("replay", VideoMode.PixelFormat.kBGR, 320, 240, fps);
+		MjpegServer server = new MjpegServer("serve_replay", port);
+		server.setSource(source);
+		StreamBandwidthManager manager = new StreamBandwidthManager(budget, StreamBandwidthManager.DEFAULT_PRESETS);
+		int stream = manager.addStream("replay", server);
+		System.out.println("Serving http://localhost:" + port + "/?action=stream with a budget of " + budget + " Mbps");
+
+		Mat frame = new Mat();
+		Mat scaled = new Mat();
+		VisionReplay.FrameSource frames = VisionReplay.FrameSource.open(input);
+		long start = System.nanoTime();
+		long frameNanos = 1000000000L / fps;
+		long next = start;
+		long lastPrint = 0;
+		while (System.nanoTime() - start < seconds * 1000000000L) {
+			if (!frames.next(frame)) {
+				frames.close();
+				frames = VisionReplay.FrameSource.open(input);
+				if (!frames.next(frame)) {
+					System.err.println("No frames could be read from " + input);
+					System.exit(1);
+				}
+			}
+			Imgproc.resize(frame, scaled, new Size(320, 240));
+			source.putFrame(scaled);
+
+			double now = (System.nanoTime() - start) / 1e9;
+			manager.update(now);
+			if ((long)now > lastPrint) {
+				lastPrint = (long)now;
+				System.out.println(String.format(Locale.ROOT, "%4ds  %6.3f Mbps  %-8s%s", lastPrint, manager.getTotalMbps(),
+					manager.getPreset(stream).getName(), manager.isOverridden(stream) ? " (pinned)" : ""));
+			}
+
+			next += frameNanos;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				Thread.sleep(sleep / 1000000, (int)(sleep % 1000000));
+			}
+		}
+		frames.close();
+		System.out.println(manager.getChanges() + " preset changes");
+		System.exit(0);
+	}
+}
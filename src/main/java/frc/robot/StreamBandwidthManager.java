@@ -0,0 +1,271 @@
+package frc.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.cscore.CameraServerJNI;
+import edu.wpi.cscore.HttpCamera;
+import edu.wpi.cscore.MjpegServer;
+import edu.wpi.cscore.VideoSource;
+
+/**
+ * Keeps the camera streams to the dashboard inside a bandwidth budget, such as the FMS cap, by
+ * stepping each stream's MJPEG server through a ladder of presets.
+ *
+ * <p>Each stream's bandwidth is measured, not guessed: a probe HttpCamera reads the stream from the
+ * server over loopback, exactly as the dashboard does, and cscore's telemetry reports the bytes it
+ * received. The probe never decodes a frame, and cscore compresses each frame once for every client
+ * at the same settings, so the probe costs a loopback copy.
+ *
+ * <p>Once a second, if the streams together are over budget, the stream using the most is stepped
+ * down a preset. If they have been well under budget for a few seconds, the most degraded stream is
+ * stepped back up, as long as its next preset should still fit. A stream isn't stepped up again for a
+ * while after being stepped down, so the manager doesn't flap between two presets. Presets only
+ * change the server's resolution, frame rate and JPEG quality; the camera itself keeps capturing at
+ * its own mode, so a vision pipeline reading the same camera is unaffected.
+ *
+ * <p>The driver can pin a stream to a preset, e.g. to turn a camera right down, with setOverride().
+ * Pinned streams still count against the budget.
+ *
+ * <p>Call update() from one thread, normally robotPeriodic.
+ */
+public class StreamBandwidthManager {
+
+	/**
+	 * Resolution, frame rate and JPEG quality for a stream.
+	 */
+	public static final class Preset {
+		private final String name;
+		private final int width, height, fps, quality;
+
+		/**
+		 * @param name shown on the dashboard
+		 * @param width stream width in pixels
+		 * @param height stream height in pixels
+		 * @param fps stream frames per second
+		 * @param quality JPEG quality from 0 to 100
+		 */
+		public Preset(String name, int width, int height, int fps, int quality) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.fps = fps;
+			this.quality = quality;
+		}
+
+		/** @return the preset's name */
+		public String getName() {
+			return name;
+		}
+
+		/** @return roughly how many bytes per second the preset sends compared to another */
+		double costRatio(Preset other) {
+			return (width * (double)height * fps * quality) / (other.width * (double)other.height * other.fps * other.quality);
+		}
+	}
+
+	/** Presets from best to cheapest, for the Lifecam at 320x240. */
+	public static final Preset[] DEFAULT_PRESETS = {
+		new Preset("High", 320, 240, 20, 50),
+		new Preset("Medium", 320, 240, 15, 35),
+		new Preset("Low", 160, 120, 15, 35),
+		new Preset("Minimal", 160, 120, 7, 25),
+		new Preset("Off", 160, 120, 1, 20),
+	};
+
+	private static final class Stream {
+		final String name;
+		final MjpegServer server;
+		final HttpCamera probe;
+		int level = -1;
+		int override = -1;
+		double bytesPerSecond;
+		double lastDown = Double.NEGATIVE_INFINITY;
+
+		Stream(String name, MjpegServer server, HttpCamera probe) {
+			this.name = name;
+			this.server = server;
+			this.probe = probe;
+		}
+	}
+
+	// Seconds between checks, which is also cscore's telemetry period
+	private static final double PERIOD = 1;
+	// Seconds after a change before the measurements reflect it
+	private static final double SETTLE = 2.5;
+	// Step up after this many checks under this fraction of the budget
+	private static final double UP_FRACTION = 0.7;
+	private static final int UP_HOLD_PERIODS = 3;
+	// Seconds after a stream is stepped down before it may step up again
+	private static final double BACKOFF = 10;
+
+	private final double budgetMbps;
+	private final Preset[] presets;
+	private final List<Stream> streams = new ArrayList<Stream>();
+
+	private double lastCheck = Double.NEGATIVE_INFINITY;
+	private double lastChange = Double.NEGATIVE_INFINITY;
+	private int periodsUnder;
+	private double totalMbps;
+	private long changes;
+
+	/**
+	 * @param budgetMbps the most the streams may use together, in megabits per second
+	 * @param presets presets from best to cheapest
+	 */
+	public StreamBandwidthManager(double budgetMbps, Preset[] presets) {
+		if (presets.length == 0) {
+			throw new IllegalArgumentException("A stream needs at least one preset");
+		}
+		this.budgetMbps = budgetMbps;
+		this.presets = presets.clone();
+		CameraServerJNI.setTelemetryPeriod(PERIOD);
+	}
+
+	/**
+	 * Starts managing a stream at the cheapest preset but one; it steps up from there if there's room.
+	 * @param name names the probe, e.g. "rear"
+	 * @param server the server the dashboard reads, e.g. from CameraServer.startAutomaticCapture(camera)
+	 * @return the stream's index, for the other methods
+	 */
+	public int addStream(String name, MjpegServer server) {
+		HttpCamera probe = new HttpCamera(name + "-bandwidth", "http://127.0.0.1:" + server.getPort() + "/?action=stream");
+		// Nothing takes frames from the probe, so keep it connected anyway
+		probe.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+		Stream stream = new Stream(name, server, probe);
+		streams.add(stream);
+		apply(stream, Math.max(0, presets.length - 2));
+		return streams.size() - 1;
+	}
+
+	/**
+	 * Measures the streams and changes at most one preset. Only does anything once a second.
+	 * @param now the time in seconds, e.g. Timer.getFPGATimestamp()
+	 */
+	public void update(double now) {
+		if (now - lastCheck < PERIOD) {
+			return;
+		}
+		lastCheck = now;
+		double total = 0;
+		for (Stream stream : streams) {
+			stream.bytesPerSecond = stream.probe.getActualDataRate();
+			total += stream.bytesPerSecond;
+		}
+		totalMbps = total * 8 / 1e6;
+		if (now - lastChange < SETTLE) {
+			return;
+		}
+
+		if (totalMbps > budgetMbps) {
+			periodsUnder = 0;
+			// Step down whichever stream is using the most
+			Stream worst = null;
+			for (Stream stream : streams) {
+				if (stream.override < 0 && stream.level < presets.length - 1
+						&& (worst == null || stream.bytesPerSecond > worst.bytesPerSecond)) {
+					worst = stream;
+				}
+			}
+			if (worst != null) {
+				worst.lastDown = now;
+				apply(worst, worst.level + 1);
+			}
+		} else if (totalMbps < budgetMbps * UP_FRACTION && ++periodsUnder >= UP_HOLD_PERIODS) {
+			// Step up the most degraded stream if its next preset should still fit. A stream that isn't
+			// sending yet can't be predicted, so it waits
+			Stream best = null;
+			for (Stream stream : streams) {
+				if (stream.override < 0 && stream.level > 0 && stream.bytesPerSecond > 0 && now - stream.lastDown >= BACKOFF
+						&& (best == null || stream.level > best.level)) {
+					best = stream;
+				}
+			}
+			if (best != null) {
+				double grown = best.bytesPerSecond * presets[best.level - 1].costRatio(presets[best.level]);
+				if ((total - best.bytesPerSecond + grown) * 8 / 1e6 <= budgetMbps * 0.9) {
+					apply(best, best.level - 1);
+					periodsUnder = 0;
+				}
+			}
+		} else if (totalMbps >= budgetMbps * UP_FRACTION) {
+			periodsUnder = 0;
+		}
+	}
+
+	/**
+	 * Pins a stream to a preset until clearOverride(). Takes effect immediately.
+	 * @param stream the index from addStream()
+	 * @param level the preset's index
+	 */
+	public void setOverride(int stream, int level) {
+		if (level < 0 || level >= presets.length) {
+			throw new IllegalArgumentException("No preset " + level);
+		}
+		Stream s = streams.get(stream);
+		s.override = level;
+		apply(s, level);
+	}
+
+	/**
+	 * Hands a pinned stream back to the manager, which starts from the pinned preset.
+	 * @param stream the index from addStream()
+	 */
+	public void clearOverride(int stream) {
+		streams.get(stream).override = -1;
+	}
+
+	/** @return whether the driver has pinned the stream to a preset */
+	public boolean isOverridden(int stream) {
+		return streams.get(stream).override >= 0;
+	}
+
+	/** @return the index of the stream's preset */
+	public int getLevel(int stream) {
+		return streams.get(stream).level;
+	}
+
+	/** @return the stream's preset */
+	public Preset getPreset(int stream) {
+		return presets[streams.get(stream).level];
+	}
+
+	/** @return the stream's measured bandwidth, in megabits per second */
+	public double getMbps(int stream) {
+		return streams.get(stream).bytesPerSecond * 8 / 1e6;
+	}
+
+	/** @return every stream's measured bandwidth together, in megabits per second */
+	public double getTotalMbps() {
+		return totalMbps;
+	}
+
+	/** @return the budget, in megabits per second */
+	public double getBudgetMbps() {
+		return budgetMbps;
+	}
+
+	/** @return the name given to addStream() */
+	public String getName(int stream) {
+		return streams.get(stream).name;
+	}
+
+	/** @return how many times a preset has changed */
+	public long getChanges() {
+		return changes;
+	}
+
+	private void apply(Stream stream, int level) {
+		if (stream.level == level) {
+			return;
+		}
+		Preset preset = presets[level];
+		stream.server.setResolution(preset.width, preset.height);
+		stream.server.setFPS(preset.fps);
+		stream.server.setCompression(preset.quality);
+		stream.server.setDefaultCompression(preset.quality);
+		stream.level = level;
+		changes++;
+		lastChange = lastCheck;
+	}
+}
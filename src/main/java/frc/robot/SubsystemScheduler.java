@@ -0,0 +1,221 @@
+package frc.robot;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Runs each of the robot's subsystems only when something it depends on has changed, instead of
+ * re-commanding every mechanism every loop.
+ *
+ * <p>Inputs are numbered by the robot, 0 to 63. Each loop the robot passes every input's value to
+ * input(), which marks it changed if it differs from the last loop's, then calls run(). A subsystem
+ * declares the inputs it reads when it's added, and runs in a loop where any of them changed, where its
+ * own period has passed since it last ran, or where it threw the loop before. A period of 0 runs it
+ * every loop. Every subsystem runs in the first loop.
+ *
+ * <p>Each subsystem runs in its own try/catch, so one that throws doesn't stop the rest. Its first
+ * fault, and every FAULT_REPORT_INTERVAL-th after, is reported to the driver station, and it's run
+ * again the next loop whether or not its inputs change.
+ *
+ * <p>Each subsystem's runs, skips, faults and time are counted, and published under a table through
+ * Telemetry once a second, so the savings can be seen. With a LoopProfiler set, each subsystem is
+ * also a section of the profile.
+ *
+ * <p>Everything runs on the robot loop's thread, and nothing allocates after the subsystems are added.
+ */
+public class SubsystemScheduler {
+
+	/**
+	 * What a subsystem does when it runs.
+	 */
+	@FunctionalInterface
+	public interface Action {
+		/**
+		 * @param now the current FPGA time in microseconds
+		 */
+		void run(long now) throws Exception;
+	}
+
+	/** The most inputs the scheduler can track. */
+	public static final int MAX_INPUTS = 64;
+	private static final int FAULT_REPORT_INTERVAL = 50;
+	private static final double PUBLISH_SECONDS = 1;
+
+	private static final class Subsystem {
+		final String name;
+		final Action action;
+		final long inputs;
+		final long periodMicros;
+		boolean due = true;
+		long lastRun;
+		long runs, skips, faults;
+		long totalNanos, maxNanos;
+		Telemetry.Number runsOut, skipsOut, faultsOut, totalOut, maxOut;
+
+		Subsystem(String name, Action action, long inputs, long periodMicros) {
+			this.name = name;
+			this.action = action;
+			this.inputs = inputs;
+			this.periodMicros = periodMicros;
+		}
+	}
+
+	private final Subsystem[] subsystems;
+	private int count;
+	private final double[] lastInputs = new double[MAX_INPUTS];
+	private long changed;
+
+	private final Telemetry telemetry;
+	private final NetworkTable table;
+	private final long publishMicros;
+	private long lastPublish;
+
+	private LoopProfiler profiler;
+	private int firstSection;
+
+	/**
+	 * @param capacity the most subsystems that will be added
+	 * @param telemetry where the counts are published from
+	 * @param table the table to publish to, with a subtable per subsystem
+	 */
+	public SubsystemScheduler(int capacity, Telemetry telemetry, NetworkTable table) {
+		subsystems = new Subsystem[capacity];
+		this.telemetry = telemetry;
+		this.table = table;
+		publishMicros = (long)(PUBLISH_SECONDS * 1e6);
+	}
+
+	/**
+	 * Adds a subsystem. Subsystems run in the order they're added, so one that reads what another sets
+	 * should be added after it, and declare the other's inputs too.
+	 * @param name the name it's published under
+	 * @param periodSeconds the most time between runs when none of its inputs change, or 0 to run every loop
+	 * @param action what it does
+	 * @param inputs the numbers of the inputs it reads
+	 * @return the subsystem's number
+	 */
+	public int add(String name, double periodSeconds, Action action, int... inputs) {
+		long mask = 0;
+		for (int input : inputs) {
+			if (input < 0 || input >= MAX_INPUTS) {
+				throw new IllegalArgumentException("Input " + input + " is not between 0 and " + (MAX_INPUTS - 1));
+			}
+			mask |= 1L << input;
+		}
+		Subsystem subsystem = new Subsystem(name, action, mask, (long)(periodSeconds * 1e6));
+		NetworkTable sub = table.getSubTable(name);
+		subsystem.runsOut = telemetry.number(sub, "runs");
+		subsystem.skipsOut = telemetry.number(sub, "skipped");
+		subsystem.faultsOut = telemetry.number(sub, "faults");
+		subsystem.totalOut = telemetry.number(sub, "total ms").epsilon(0.1);
+		subsystem.maxOut = telemetry.number(sub, "max ms").epsilon(0.01);
+		subsystems[count] = subsystem;
+		return count++;
+	}
+
+	/**
+	 * Times each subsystem as a section of a profile.
+	 * @param profiler the robot loop's profiler
+	 * @param firstSection the section of the first subsystem added; the rest follow in order
+	 */
+	public void setProfiler(LoopProfiler profiler, int firstSection) {
+		this.profiler = profiler;
+		this.firstSection = firstSection;
+	}
+
+	/**
+	 * Gives an input's value for this loop.
+	 * @param input the input's number
+	 */
+	public void input(int input, double value) {
+		if (value != lastInputs[input]) {
+			lastInputs[input] = value;
+			changed |= 1L << input;
+		}
+	}
+
+	/**
+	 * Gives a button's state for this loop.
+	 * @param input the input's number
+	 */
+	public void input(int input, boolean value) {
+		input(input, value ? 1 : 0);
+	}
+
+	/**
+	 * Runs every subsystem that's due, then starts collecting the next loop's inputs.
+	 * @param now the current FPGA time in microseconds
+	 */
+	public void run(long now) {
+		for (int i = 0; i < count; i++) {
+			Subsystem subsystem = subsystems[i];
+			if (profiler != null) {
+				profiler.enter(firstSection + i);
+			}
+			if (!subsystem.due && (subsystem.inputs & changed) == 0 && now - subsystem.lastRun < subsystem.periodMicros) {
+				subsystem.skips++;
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				subsystem.action.run(now);
+				subsystem.due = false;
+			} catch (Exception fault) {
+				// Try again next loop, in case it was something passing
+				subsystem.due = true;
+				if (subsystem.faults++ % FAULT_REPORT_INTERVAL == 0) {
+					DriverStation.reportError(subsystem.name + " faulted (" + subsystem.faults + " so far): " + fault,
+							fault.getStackTrace());
+				}
+			}
+			long nanos = System.nanoTime() - start;
+			subsystem.runs++;
+			subsystem.totalNanos += nanos;
+			if (nanos > subsystem.maxNanos) {
+				subsystem.maxNanos = nanos;
+			}
+			subsystem.lastRun = now;
+		}
+		changed = 0;
+	}
+
+	/**
+	 * Publishes the counts if the publish period has passed since the last time. Telemetry sends them
+	 * when it's next flushed.
+	 * @param now the current FPGA time in microseconds
+	 */
+	public void publish(long now) {
+		if (lastPublish != 0 && now - lastPublish < publishMicros) {
+			return;
+		}
+		lastPublish = now;
+		for (int i = 0; i < count; i++) {
+			Subsystem subsystem = subsystems[i];
+			subsystem.runsOut.set(subsystem.runs);
+			subsystem.skipsOut.set(subsystem.skips);
+			subsystem.faultsOut.set(subsystem.faults);
+			subsystem.totalOut.set(subsystem.totalNanos / 1e6);
+			subsystem.maxOut.set(subsystem.maxNanos / 1e6);
+		}
+	}
+
+	/** @return the number of times the subsystem has run */
+	public long getRuns(int subsystem) {
+		return subsystems[subsystem].runs;
+	}
+
+	/** @return the number of loops the subsystem was skipped because nothing it depends on changed */
+	public long getSkips(int subsystem) {
+		return subsystems[subsystem].skips;
+	}
+
+	/** @return the number of times the subsystem threw */
+	public long getFaults(int subsystem) {
+		return subsystems[subsystem].faults;
+	}
+
+	/** @return the total time the subsystem has run for, in milliseconds */
+	public double getTotalMillis(int subsystem) {
+		return subsystems[subsystem].totalNanos / 1e6;
+	}
+}
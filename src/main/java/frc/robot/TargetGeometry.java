@@ -0,0 +1,88 @@
+package frc.robot;
+
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Turns a contour found by GripPipeline into the numbers a VisionResult carries: position, area,
+ * distance and angle. Guidance does this for the pipeline running on the robot, and VisionService for
+ * the same pipeline on a coprocessor, so both report targets the same way.
+ *
+ * <p>Positions and areas are scaled to a reference resolution, so they don't change when the
+ * ResolutionController changes the camera's resolution.
+ *
+ * <p>Instances are not thread safe; keep one per listener.
+ */
+public class TargetGeometry {
+
+	private final int width, height;
+	private final double focalLengthPixels;
+	private final DistanceTable distanceTable;
+	private final Point centroid = new Point();
+
+	private double centerX, centerY, area, distance, angle;
+
+	/**
+	 * @param width the reference width that positions are scaled to
+	 * @param height the reference height
+	 * @param horizontalFov the camera's horizontal field of view, in degrees
+	 * @param distanceTable the calibrated distance table, or null for no distance
+	 */
+	public TargetGeometry(int width, int height, double horizontalFov, DistanceTable distanceTable) {
+		this.width = width;
+		this.height = height;
+		this.focalLengthPixels = (width / 2) / Math.tan(Math.toRadians(horizontalFov / 2));
+		this.distanceTable = distanceTable;
+	}
+
+	/**
+	 * Measures one of the contours that passed the pipeline's filter. The distance is for the whole
+	 * target, every contour together, since that's what the table was calibrated against.
+	 * @param pipeline the pipeline, after processing a frame
+	 * @param contour the contour's index in filterContoursOutput()
+	 * @return false, leaving the last measurement alone, if there is no such contour
+	 */
+	public boolean measure(GripPipeline pipeline, int contour) {
+		if (contour >= pipeline.filterContoursOutput().size()) {
+			return false;
+		}
+		Rect r = Imgproc.boundingRect(pipeline.filterContoursOutput().get(contour));
+		double scale = width / (double) pipeline.frameWidth();
+		// The centroid of the lit tape is steadier to aim at than the middle of its box
+		double middle = pipeline.targetCentroid(contour, centroid) ? centroid.x : r.x + r.width / 2.0;
+		double offsetPixels = middle * scale - (width / 2);
+		centerX = (2 * r.x + r.width) * scale - (width / 2);
+		centerY = (2 * r.y + r.height) * scale - (height / 2);
+		area = r.area() * scale * scale;
+		distance = distanceTable == null ? Double.NaN
+				: distanceTable.distance(distanceTable.measure(pipeline.filterContoursOutput()), pipeline.frameHeight());
+		angle = Math.toDegrees(Math.atan(offsetPixels / focalLengthPixels));
+		return true;
+	}
+
+	/** @return the target's horizontal position, as VisionResult.getCenterX() */
+	public double getCenterX() {
+		return centerX;
+	}
+
+	/** @return the target's vertical position, as VisionResult.getCenterY() */
+	public double getCenterY() {
+		return centerY;
+	}
+
+	/** @return the target's area at the reference resolution */
+	public double getArea() {
+		return area;
+	}
+
+	/** @return the distance to the target, or NaN without a distance table */
+	public double getDistance() {
+		return distance;
+	}
+
+	/** @return degrees from the camera's axis to the target, positive to the right */
+	public double getAngle() {
+		return angle;
+	}
+}
@@ -0,0 +1,217 @@
+package frc.robot;
+
+/**
+ * Follows the target between vision frames with a constant-velocity Kalman filter, so the control loop
+ * gets a predicted position every cycle rather than the last frame's, which may be several loops old.
+ *
+ * <p>One coordinate is tracked, such as the target's bearing, with its position, velocity and their
+ * 2x2 covariance; use one tracker per coordinate. Vision measurements are applied at their capture
+ * time, and predict() extrapolates to any later time without changing the filter, so it can be called
+ * every loop whether or not a new frame has arrived. Between frames, and after frames without a
+ * target, the tracker is coasting: the prediction rests on the velocity alone and its variance grows.
+ * After maxCoastSeconds without a measurement the track is dropped and the next measurement starts a
+ * new one.
+ *
+ * <p>A measurement further from the prediction than the gate, in standard deviations of the expected
+ * difference, is taken for a bad frame and coasted over like a miss. REJECTS_BEFORE_RESTART of them in a
+ * row mean the target really has moved, e.g. vision switched targets, and the track restarts there.
+ *
+ * <p>Because the prediction stays smooth between frames, vision doesn't have to process every frame
+ * while aligning; see PipelinedVisionRunner.setFrameDivisor.
+ *
+ * <p>Not thread safe; feed and read it from the control loop.
+ */
+public class TargetTracker {
+
+	/** The default gate, in standard deviations. */
+	public static final double DEFAULT_GATE = 4;
+	/** Measurements rejected in a row before the track restarts at the latest one. */
+	public static final int REJECTS_BEFORE_RESTART = 3;
+
+	private final double processNoise;
+	private final double measurementVariance;
+	private final double velocityVariance;
+	private final double coastAfterSeconds;
+	private final double maxCoastSeconds;
+	private double gate = DEFAULT_GATE;
+
+	// The state at the last measurement and its covariance
+	private double position, velocity;
+	private double pp, pv, vv;
+
+	// Filled in by predict()
+	private double predicted, predictedVariance;
+
+	private boolean tracking;
+	private boolean missed;
+	private long lastMeasurement;
+	private long predictedTime;
+	private long measurements;
+	private long rejected;
+	private int rejectedInRow;
+
+	/**
+	 * @param processNoise how freely the target accelerates, as the spectral density of a white noise
+	 * acceleration, in units squared per second cubed
+	 * @param measurementNoise the standard deviation of a vision measurement, in units
+	 * @param initialSpeed a typical speed, in units per second, used as the velocity's uncertainty when
+	 * a track starts
+	 * @param coastAfterSeconds how long after a measurement the prediction counts as coasting. Make
+	 * this longer than the time between processed frames
+	 * @param maxCoastSeconds how long to keep predicting without a measurement before dropping the track
+	 */
+	public TargetTracker(double processNoise, double measurementNoise, double initialSpeed,
+			double coastAfterSeconds, double maxCoastSeconds) {
+		this.processNoise = processNoise;
+		this.measurementVariance = measurementNoise * measurementNoise;
+		this.velocityVariance = initialSpeed * initialSpeed;
+		this.coastAfterSeconds = coastAfterSeconds;
+		this.maxCoastSeconds = maxCoastSeconds;
+	}
+
+	/**
+	 * Applies a measurement from a frame that found the target. Measurements older than the last one
+	 * are ignored, and ones outside the gate are rejected.
+	 * @param time the frame's capture time, in FPGA microseconds
+	 * @param measured the target's coordinate
+	 */
+	public void update(long time, double measured) {
+		if (tracking && time - lastMeasurement > maxCoastSeconds * 1e6) {
+			tracking = false;
+		}
+		if (tracking) {
+			if (time <= lastMeasurement) {
+				return;
+			}
+			// Advance to the capture time, growing the covariance by the white noise acceleration
+			double dt = (time - lastMeasurement) / 1e6;
+			double dt2 = dt * dt;
+			double advanced = position + velocity * dt;
+			double app = pp + 2 * dt * pv + dt2 * vv + processNoise * dt2 * dt / 3;
+			double apv = pv + dt * vv + processNoise * dt2 / 2;
+			double avv = vv + processNoise * dt;
+
+			double s = app + measurementVariance;
+			double innovation = measured - advanced;
+			if (innovation * innovation > gate * gate * s) {
+				rejected++;
+				if (++rejectedInRow < REJECTS_BEFORE_RESTART) {
+					missed = true;
+					return;
+				}
+				tracking = false;
+			} else {
+				// Then blend in the measurement
+				double kp = app / s, kv = apv / s;
+				position = advanced + kp * innovation;
+				velocity += kv * innovation;
+				vv = avv - kv * apv;
+				pp = app * (1 - kp);
+				pv = apv * (1 - kp);
+			}
+		}
+		if (!tracking) {
+			// Start at the measurement, not moving, with the velocity unknown
+			position = measured;
+			velocity = 0;
+			pp = measurementVariance;
+			pv = 0;
+			vv = velocityVariance;
+			tracking = true;
+		}
+		lastMeasurement = time;
+		missed = false;
+		rejectedInRow = 0;
+		measurements++;
+	}
+
+	/**
+	 * @param sigmas how many standard deviations from the prediction a measurement may be before it's
+	 * rejected; Double.POSITIVE_INFINITY accepts every measurement
+	 */
+	public void setGate(double sigmas) {
+		gate = sigmas;
+	}
+
+	/**
+	 * Notes a frame that didn't find the target. The track coasts until the next measurement.
+	 * @param time the frame's capture time, in FPGA microseconds
+	 */
+	public void miss(long time) {
+		if (tracking && time > lastMeasurement) {
+			missed = true;
+		}
+	}
+
+	/**
+	 * Works out where the target is at a time, for the getters below. The filter itself is unchanged.
+	 * @param time FPGA time in microseconds, normally now
+	 * @return whether there is a track to predict from
+	 */
+	public boolean predict(long time) {
+		if (tracking && time - lastMeasurement > maxCoastSeconds * 1e6) {
+			tracking = false;
+		}
+		predictedTime = time;
+		if (!tracking) {
+			return false;
+		}
+		double dt = Math.max(0, time - lastMeasurement) / 1e6;
+		double dt2 = dt * dt;
+		predicted = position + velocity * dt;
+		predictedVariance = pp + 2 * dt * pv + dt2 * vv + processNoise * dt2 * dt / 3;
+		return true;
+	}
+
+	/** @return whether there is a track; false before the first measurement and after one is dropped */
+	public boolean hasTrack() {
+		return tracking;
+	}
+
+	/**
+	 * @return whether the last prediction rests on velocity alone, because the last frame missed the
+	 * target or the last measurement is more than coastAfterSeconds old
+	 */
+	public boolean isCoasting() {
+		return tracking && (missed || predictedTime - lastMeasurement > coastAfterSeconds * 1e6);
+	}
+
+	/** @return the predicted position */
+	public double getPosition() {
+		return predicted;
+	}
+
+	/** @return the variance of getPosition(), in units squared */
+	public double getVariance() {
+		return predictedVariance;
+	}
+
+	/** @return the estimated velocity, in units per second */
+	public double getVelocity() {
+		return velocity;
+	}
+
+	/** @return seconds from the last measurement to the last prediction */
+	public double getCoastSeconds() {
+		return tracking ? (predictedTime - lastMeasurement) / 1e6 : 0;
+	}
+
+	/** @return the number of measurements applied */
+	public long getMeasurements() {
+		return measurements;
+	}
+
+	/** @return the number of measurements rejected by the gate */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Drops the track, e.g. after the gyro is reset.
+	 */
+	public void reset() {
+		tracking = false;
+		missed = false;
+		rejectedInRow = 0;
+	}
+}
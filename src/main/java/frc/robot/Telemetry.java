@@ -0,0 +1,296 @@
+package frc.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Dashboard values written through NetworkTableEntry handles looked up once, rather than by key through
+ * SmartDashboard every loop, and only sent when they change.
+ *
+ * <p>Get a handle for each value at init with number(), bool() or string(), then set() it as often
+ * as the loop likes. set() only stages the value; flush(), once at the end of the loop, writes
+ * everything staged in one go and then flushes NetworkTables, so a loop's values go out together in
+ * one update. A number within its epsilon of the value last written, or any other value equal to
+ * it, isn't written again. A handle with a rate limit is written at most once per period; a change
+ * made sooner stays staged and goes out at the first flush after the period, so the latest value is
+ * never lost.
+ *
+ * <p>getWritten() and getSuppressed() count, per flush, the handles written and the handles set since
+ * the last flush with nothing new to write, however many times each was set. A change held back by a
+ * rate limit is neither until it goes out.
+ *
+ * <p>The default instance writes to the SmartDashboard table, so existing dashboard layouts keep
+ * working. Handles are not thread safe; set them and flush from the robot loop.
+ */
+public class Telemetry {
+
+	/** The epsilon number() gives a handle unless told otherwise. */
+	public static final double DEFAULT_EPSILON = 1e-4;
+
+	/**
+	 * A value on the dashboard. Rate limits and epsilons are set once, just after the handle is made.
+	 */
+	public abstract static class Value {
+		final NetworkTableEntry entry;
+		private long periodMicros;
+		private long lastWrite;
+		boolean staged;
+		// Set since the last flush
+		boolean touched;
+		// False until the first write, so the first value always goes out
+		boolean written;
+
+		Value(NetworkTableEntry entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * @param seconds the least time between writes, 0 for no limit
+		 * @return this handle
+		 */
+		public Value rateLimit(double seconds) {
+			periodMicros = (long)(seconds * 1e6);
+			return this;
+		}
+
+		boolean due(long now) {
+			return !written || periodMicros == 0 || now - lastWrite >= periodMicros;
+		}
+
+		void wrote(long now) {
+			written = true;
+			lastWrite = now;
+			staged = false;
+		}
+
+		abstract void write();
+	}
+
+	/** A number on the dashboard. */
+	public static final class Number extends Value {
+		private double epsilon;
+		private double value, last;
+
+		Number(NetworkTableEntry entry, double epsilon) {
+			super(entry);
+			this.epsilon = epsilon;
+		}
+
+		@Override
+		public Number rateLimit(double seconds) {
+			super.rateLimit(seconds);
+			return this;
+		}
+
+		/**
+		 * @param epsilon the least change from the value last written that is written again
+		 * @return this handle
+		 */
+		public Number epsilon(double epsilon) {
+			this.epsilon = epsilon;
+			return this;
+		}
+
+		/** Stages the value for the next flush, if it has changed by more than the epsilon. */
+		public void set(double value) {
+			touched = true;
+			// NaN never equals itself, but NaN after NaN is no change
+			if (written && (Math.abs(value - last) <= epsilon || (value != value && last != last))) {
+				staged = false;
+				return;
+			}
+			this.value = value;
+			staged = true;
+		}
+
+		@Override
+		void write() {
+			entry.setDouble(value);
+			last = value;
+		}
+	}
+
+	/** A boolean on the dashboard, which the dashboard may also set. */
+	public static final class Bool extends Value {
+		private boolean value, last;
+
+		Bool(NetworkTableEntry entry) {
+			super(entry);
+		}
+
+		@Override
+		public Bool rateLimit(double seconds) {
+			super.rateLimit(seconds);
+			return this;
+		}
+
+		/** Stages the value for the next flush, if it has changed. */
+		public void set(boolean value) {
+			touched = true;
+			if (written && value == last) {
+				staged = false;
+				return;
+			}
+			this.value = value;
+			staged = true;
+		}
+
+		/**
+		 * @param defaultValue what to return if the entry has no value or isn't a boolean
+		 * @return the value in the table, which the dashboard may have changed
+		 */
+		public boolean get(boolean defaultValue) {
+			return entry.getBoolean(defaultValue);
+		}
+
+		@Override
+		void write() {
+			entry.setBoolean(value);
+			last = value;
+		}
+	}
+
+	/** A string on the dashboard. */
+	public static final class Text extends Value {
+		private String value, last;
+
+		Text(NetworkTableEntry entry) {
+			super(entry);
+		}
+
+		@Override
+		public Text rateLimit(double seconds) {
+			super.rateLimit(seconds);
+			return this;
+		}
+
+		/** Stages the value for the next flush, if it has changed. */
+		public void set(String value) {
+			touched = true;
+			if (written && value.equals(last)) {
+				staged = false;
+				return;
+			}
+			this.value = value;
+			staged = true;
+		}
+
+		@Override
+		void write() {
+			entry.setString(value);
+			last = value;
+		}
+	}
+
+	private static Telemetry instance;
+
+	private final NetworkTable table;
+	private final List<Value> values = new ArrayList<Value>();
+	private long written, suppressed;
+
+	/**
+	 * @return the instance writing to the SmartDashboard table
+	 */
+	public static synchronized Telemetry getInstance() {
+		if (instance == null) {
+			instance = new Telemetry(NetworkTableInstance.getDefault().getTable("SmartDashboard"));
+		}
+		return instance;
+	}
+
+	/**
+	 * @param table the table keys are relative to
+	 */
+	public Telemetry(NetworkTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param key the key in this instance's table
+	 * @return a handle for a number, with the default epsilon and no rate limit
+	 */
+	public Number number(String key) {
+		return number(table, key);
+	}
+
+	/**
+	 * @param table a table other than this instance's, for values that already live elsewhere
+	 * @param key the key in that table
+	 * @return a handle for a number, flushed with this instance's values
+	 */
+	public Number number(NetworkTable table, String key) {
+		return add(new Number(table.getEntry(key), DEFAULT_EPSILON));
+	}
+
+	/**
+	 * @param key the key in this instance's table
+	 * @return a handle for a boolean, with no rate limit
+	 */
+	public Bool bool(String key) {
+		return add(new Bool(table.getEntry(key)));
+	}
+
+	/**
+	 * @param key the key in this instance's table
+	 * @return a handle for a string, with no rate limit
+	 */
+	public Text string(String key) {
+		return string(table, key);
+	}
+
+	/**
+	 * @param table a table other than this instance's, for values that already live elsewhere
+	 * @param key the key in that table
+	 * @return a handle for a string, flushed with this instance's values
+	 */
+	public Text string(NetworkTable table, String key) {
+		return add(new Text(table.getEntry(key)));
+	}
+
+	private <V extends Value> V add(V value) {
+		values.add(value);
+		return value;
+	}
+
+	/**
+	 * Writes every staged value whose rate limit allows it, then flushes NetworkTables so they go out
+	 * together. Call once at the end of each loop.
+	 * @param now the current FPGA time in microseconds
+	 * @return the number of values written
+	 */
+	public int flush(long now) {
+		int count = 0;
+		for (int i = 0; i < values.size(); i++) {
+			Value value = values.get(i);
+			if (value.staged) {
+				if (value.due(now)) {
+					value.write();
+					value.wrote(now);
+					count++;
+				}
+			} else if (value.touched) {
+				suppressed++;
+			}
+			value.touched = false;
+		}
+		written += count;
+		if (count > 0) {
+			table.getInstance().flush();
+		}
+		return count;
+	}
+
+	/** @return the number of values written since the start */
+	public long getWritten() {
+		return written;
+	}
+
+	/** @return the number of times a handle was set with nothing new to write by the flush, since the start */
+	public long getSuppressed() {
+		return suppressed;
+	}
+}
@@ -0,0 +1,138 @@
+package frc.robot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.EntryNotification;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Receives the targets VisionService publishes from a coprocessor and turns them into VisionResults,
+ * the same results Guidance gets when the pipeline runs on the robot.
+ *
+ * <p>Each packet is decoded on the NetworkTables listener thread as it arrives and swapped in whole,
+ * like the vision listener does with a local pipeline, so get() never waits. The capture time is the
+ * arrival time less the latency the coprocessor measured; the network's own delay, usually a few
+ * milliseconds, isn't counted.
+ */
+public class VisionClient {
+
+	/** The table VisionService publishes to by default. */
+	public static final String DEFAULT_TABLE = "VisionService";
+	/** The raw entry in the table holding the latest packet. */
+	public static final String TARGETS_ENTRY = "targets";
+
+	private static final List<VisionResult> NONE = Collections.singletonList(VisionResult.NONE);
+
+	private final VisionPacket packet = new VisionPacket();
+	private final AtomicReference<List<VisionResult>> targets = new AtomicReference<List<VisionResult>>(NONE);
+
+	// Written only on the listener thread
+	private long lastFrameId;
+	private long lastArrival;
+	private volatile double fps;
+	private volatile double latencyMillis;
+	private volatile long received;
+	private volatile long missed;
+	private volatile long rejected;
+
+	/**
+	 * Starts listening on the default NetworkTables instance, which on the robot is the server the
+	 * coprocessor connects to.
+	 */
+	public VisionClient() {
+		this(NetworkTableInstance.getDefault(), DEFAULT_TABLE);
+	}
+
+	/**
+	 * @param inst the NetworkTables instance to listen on
+	 * @param table the table VisionService publishes to, given to it with --table
+	 */
+	public VisionClient(NetworkTableInstance inst, String table) {
+		NetworkTableEntry entry = inst.getTable(table).getEntry(TARGETS_ENTRY);
+		inst.addEntryListener(entry, this::received,
+				EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+	}
+
+	private void received(EntryNotification notification) {
+		long arrival = RobotController.getFPGATime();
+		if (!notification.value.isRaw() || !packet.decode(notification.value.getRaw())) {
+			rejected++;
+			return;
+		}
+		long frameId = packet.getFrameId();
+		if (frameId == lastFrameId) {
+			return;
+		}
+		if (lastFrameId != 0 && frameId > lastFrameId) {
+			missed += frameId - lastFrameId - 1;
+		}
+		if (lastArrival != 0) {
+			// Smoothed over roughly the last ten frames
+			double instant = 1e6 / Math.max(1, arrival - lastArrival);
+			fps = fps == 0 ? instant : fps + (instant - fps) * 0.1;
+		}
+		lastFrameId = frameId;
+		lastArrival = arrival;
+		latencyMillis = packet.getLatencyMicros() / 1000.0;
+		received++;
+
+		long captureTime = arrival - packet.getLatencyMicros();
+		int count = packet.getCount();
+		if (count == 0) {
+			targets.set(Collections.singletonList(VisionResult.noTarget(frameId, captureTime)));
+			return;
+		}
+		VisionResult[] results = new VisionResult[count];
+		for (int i = 0; i < count; i++) {
+			results[i] = new VisionResult(true, frameId, captureTime, packet.getCenterX(i), packet.getCenterY(i),
+					packet.getArea(i), packet.getDistance(i), packet.getAngle(i));
+		}
+		targets.set(Collections.unmodifiableList(Arrays.asList(results)));
+	}
+
+	/**
+	 * @return the first target in the latest frame, the one Guidance aims at; a result with isValid()
+	 * false if the frame had none, or VisionResult.NONE before the first frame arrives
+	 */
+	public VisionResult get() {
+		return targets.get().get(0);
+	}
+
+	/**
+	 * @return every target in the latest frame, in the filter's order, all from the same frame
+	 */
+	public List<VisionResult> getTargets() {
+		return targets.get();
+	}
+
+	/** @return frames arriving per second */
+	public double getFps() {
+		return fps;
+	}
+
+	/** @return milliseconds from capture to publishing on the coprocessor, for the latest frame */
+	public double getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/** @return the number of frames received */
+	public long getReceived() {
+		return received;
+	}
+
+	/** @return the number of frames the coprocessor published that never arrived */
+	public long getMissed() {
+		return missed;
+	}
+
+	/** @return the number of values that weren't packets this version can read */
+	public long getRejected() {
+		return rejected;
+	}
+}
@@ -0,0 +1,60 @@
+package frc.robot;
+
+import java.util.List;
+import java.util.Locale;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Stands in for the robot on a desktop: starts a NetworkTables server, listens with a VisionClient
+ * and prints what it receives, so VisionService can be tried without a roboRIO.
+ *
+ * <p>Usage: {@code ./gradlew visionClientCheck --args="[--seconds N] [--table name]"}
+ *
+ * <p>Every second the latest frame's targets are printed with the frame rate, latency and the number
+ * of frames missed and packets rejected.
+ */
+public final class VisionClientCheck {
+
+	private VisionClientCheck() {
+	}
+
+	public static void main(String... args) throws InterruptedException {
+		int seconds = 60;
+		String table = VisionClient.DEFAULT_TABLE;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--seconds":
+					seconds = Integer.parseInt(args[++i]);
+					break;
+				case "--table":
+					table = args[++i];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		NetworkTableInstance inst = NetworkTableInstance.getDefault();
+		inst.startServer();
+		VisionClient client = new VisionClient(inst, table);
+		System.out.println("Listening for " + table + "/" + VisionClient.TARGETS_ENTRY);
+
+		for (int i = 0; i < seconds; i++) {
+			Thread.sleep(1000);
+			List<VisionResult> targets = client.getTargets();
+			System.out.println(String.format(Locale.ROOT,
+					"frame %d: %d targets, %.1f fps, %.1f ms latency, %d missed, %d rejected",
+					targets.get(0).getSequence(), targets.get(0).isValid() ? targets.size() : 0, client.getFps(),
+					client.getLatencyMillis(), client.getMissed(), client.getRejected()));
+			for (VisionResult target : targets) {
+				if (target.isValid()) {
+					System.out.println(String.format(Locale.ROOT, "  x %.1f  y %.1f  area %.0f  distance %.2f  angle %.2f",
+							target.getCenterX(), target.getCenterY(), target.getArea(), target.getDistance(),
+							target.getAngle()));
+				}
+			}
+		}
+		inst.stopServer();
+	}
+}
@@ -0,0 +1,98 @@
+package frc.robot;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+/**
+ * Per-stage timings and contour counts for the vision pipeline, published to NetworkTables so a slow
+ * vision loop can be tracked down on the field.
+ *
+ * <p>GripPipeline times its steps, and PipelinedVisionRunner times the listener and records the
+ * interval between camera frames, whose spread is the capture jitter. Each measurement goes into a
+ * RollingHistogram. publish() writes p50, p99 and max of each one, plus the frame rate, to a
+ * subtable per measurement, at most once per publish period, so it can be called every robot loop.
+ *
+ * <p>One instance is shared by every pipeline instance and the runner; recording is thread safe.
+ * publish() should be called from a single thread.
+ */
+public class VisionMetrics {
+
+	/** Measurements, in milliseconds for the timers. */
+	public static final int HSL_THRESHOLD = 0, FIND_CONTOURS = 1, FILTER_CONTOURS = 2, LISTENER = 3,
+		LATENCY = 4, FRAME_INTERVAL = 5, FOUND_CONTOURS = 6, FILTERED_CONTOURS = 7;
+	private static final String[] NAMES = {"hslThreshold", "findContours", "filterContours", "listener",
+		"latency", "frameInterval", "foundContours", "filteredContours"};
+
+	private final RollingHistogram[] histograms = new RollingHistogram[NAMES.length];
+	private final NetworkTableEntry[][] entries = new NetworkTableEntry[NAMES.length][];
+	private final NetworkTableEntry fpsEntry;
+	private final long periodMicros;
+	private long lastPublish;
+	private long lastFrames;
+
+	/**
+	 * @param table the subtable to publish to, e.g. Vision/Metrics
+	 * @param window how many recent frames the percentiles cover
+	 * @param periodSeconds the least time between publishes
+	 */
+	public VisionMetrics(NetworkTable table, int window, double periodSeconds) {
+		for (int i = 0; i < NAMES.length; i++) {
+			histograms[i] = new RollingHistogram(window);
+			NetworkTable sub = table.getSubTable(NAMES[i]);
+			entries[i] = new NetworkTableEntry[] {sub.getEntry("p50"), sub.getEntry("p99"), sub.getEntry("max")};
+		}
+		fpsEntry = table.getEntry("fps");
+		periodMicros = (long)(periodSeconds * 1e6);
+	}
+
+	/**
+	 * Records a timing.
+	 * @param measurement one of the timer constants
+	 * @param nanos elapsed System.nanoTime() nanoseconds
+	 */
+	public void recordNanos(int measurement, long nanos) {
+		histograms[measurement].record(nanos / 1e6);
+	}
+
+	/**
+	 * Records a value as it is, such as a contour count or an interval already in milliseconds.
+	 * @param measurement one of the measurement constants
+	 */
+	public void record(int measurement, double value) {
+		histograms[measurement].record(value);
+	}
+
+	/**
+	 * Publishes the summaries if the publish period has passed since the last time.
+	 * @param now the current FPGA time in microseconds
+	 * @return whether anything was published
+	 */
+	public boolean publish(long now) {
+		if (lastPublish != 0 && now - lastPublish < periodMicros) {
+			return false;
+		}
+		for (int i = 0; i < NAMES.length; i++) {
+			RollingHistogram histogram = histograms[i];
+			histogram.summarize();
+			entries[i][0].setDouble(histogram.percentile(0.5));
+			entries[i][1].setDouble(histogram.percentile(0.99));
+			entries[i][2].setDouble(histogram.max());
+		}
+		// Every frame delivered to the listener records one latency
+		long frames = histograms[LATENCY].total();
+		if (lastPublish != 0) {
+			fpsEntry.setDouble((frames - lastFrames) * 1e6 / (now - lastPublish));
+		}
+		lastFrames = frames;
+		lastPublish = now;
+		return true;
+	}
+
+	/**
+	 * @param measurement one of the measurement constants
+	 * @return the histogram, for reading summaries directly after publish()
+	 */
+	public RollingHistogram histogram(int measurement) {
+		return histograms[measurement];
+	}
+}
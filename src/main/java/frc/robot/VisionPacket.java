@@ -0,0 +1,183 @@
+package frc.robot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One frame's targets packed into a single NetworkTables raw value, so a frame is published as one
+ * atomic update instead of a handful of entries that a reader could catch half written.
+ *
+ * <p>The layout is big endian:
+ * <pre>
+ * offset  size  field
+ *  0      1     version, currently 1
+ *  1      1     target count N, at most MAX_TARGETS
+ *  2      4     frame id, counting up from 1 and wrapping at 2^32
+ *  6      8     capture time on the sender's clock, in microseconds
+ * 14      4     latency from capture to publishing, in microseconds
+ * 18      20*N  per target, as floats: centerX, centerY, area, distance, angle
+ * </pre>
+ * The targets have the meanings of VisionResult's getters. The sender's clock isn't the robot's, so
+ * the receiver works out the capture time on its own clock from the latency.
+ *
+ * <p>One instance either builds packets or reads them. Building reuses an array per target count,
+ * since NetworkTables sends the whole array, and reading allocates nothing. Instances are not thread
+ * safe.
+ */
+public final class VisionPacket {
+
+	/** The version written, and the only one read. */
+	public static final int VERSION = 1;
+	/** The most targets a packet holds; any more are left out. */
+	public static final int MAX_TARGETS = 8;
+
+	static final int HEADER_BYTES = 18;
+	static final int TARGET_BYTES = 20;
+
+	private long frameId;
+	private long captureTime;
+	private long latencyMicros;
+	private int count;
+	private final float[] centerX = new float[MAX_TARGETS];
+	private final float[] centerY = new float[MAX_TARGETS];
+	private final float[] area = new float[MAX_TARGETS];
+	private final float[] distance = new float[MAX_TARGETS];
+	private final float[] angle = new float[MAX_TARGETS];
+
+	// Encoded packets, indexed by target count, and a buffer over each
+	private final byte[][] packets = new byte[MAX_TARGETS + 1][];
+	private final ByteBuffer[] buffers = new ByteBuffer[MAX_TARGETS + 1];
+
+	/**
+	 * Starts a new packet with no targets.
+	 * @param frameId the frame's number
+	 * @param captureTime when the frame was captured, in microseconds on the sender's clock
+	 */
+	public void clear(long frameId, long captureTime) {
+		this.frameId = frameId & 0xFFFFFFFFL;
+		this.captureTime = captureTime;
+		latencyMicros = 0;
+		count = 0;
+	}
+
+	/**
+	 * Adds a target. The first one added is the one the robot aims at.
+	 * @return false if the packet already has MAX_TARGETS
+	 */
+	public boolean add(double centerX, double centerY, double area, double distance, double angle) {
+		if (count == MAX_TARGETS) {
+			return false;
+		}
+		this.centerX[count] = (float)centerX;
+		this.centerY[count] = (float)centerY;
+		this.area[count] = (float)area;
+		this.distance[count] = (float)distance;
+		this.angle[count] = (float)angle;
+		count++;
+		return true;
+	}
+
+	/**
+	 * @param latencyMicros microseconds from capture to publishing, set just before encode()
+	 */
+	public void setLatencyMicros(long latencyMicros) {
+		this.latencyMicros = Math.max(0, Math.min(latencyMicros, 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Packs the packet.
+	 * @return the packed bytes, valid until the next encode() with the same number of targets
+	 */
+	public byte[] encode() {
+		if (packets[count] == null) {
+			packets[count] = new byte[HEADER_BYTES + count * TARGET_BYTES];
+			buffers[count] = ByteBuffer.wrap(packets[count]);
+		}
+		ByteBuffer out = buffers[count];
+		out.clear();
+		out.put((byte)VERSION);
+		out.put((byte)count);
+		out.putInt((int)frameId);
+		out.putLong(captureTime);
+		out.putInt((int)latencyMicros);
+		for (int i = 0; i < count; i++) {
+			out.putFloat(centerX[i]);
+			out.putFloat(centerY[i]);
+			out.putFloat(area[i]);
+			out.putFloat(distance[i]);
+			out.putFloat(angle[i]);
+		}
+		return packets[count];
+	}
+
+	/**
+	 * Reads a packet built by encode().
+	 * @return false, leaving this packet alone, if data isn't a packet of this version
+	 */
+	public boolean decode(byte[] data) {
+		if (data == null || data.length < HEADER_BYTES || data[0] != VERSION) {
+			return false;
+		}
+		int n = data[1] & 0xFF;
+		if (n > MAX_TARGETS || data.length != HEADER_BYTES + n * TARGET_BYTES) {
+			return false;
+		}
+		ByteBuffer in = ByteBuffer.wrap(data, 2, data.length - 2);
+		frameId = in.getInt() & 0xFFFFFFFFL;
+		captureTime = in.getLong();
+		latencyMicros = in.getInt() & 0xFFFFFFFFL;
+		for (int i = 0; i < n; i++) {
+			centerX[i] = in.getFloat();
+			centerY[i] = in.getFloat();
+			area[i] = in.getFloat();
+			distance[i] = in.getFloat();
+			angle[i] = in.getFloat();
+		}
+		count = n;
+		return true;
+	}
+
+	/** @return the frame's number */
+	public long getFrameId() {
+		return frameId;
+	}
+
+	/** @return when the frame was captured, in microseconds on the sender's clock */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/** @return microseconds from capture to publishing */
+	public long getLatencyMicros() {
+		return latencyMicros;
+	}
+
+	/** @return the number of targets, 0 if none were found */
+	public int getCount() {
+		return count;
+	}
+
+	/** @return the target's horizontal position */
+	public double getCenterX(int target) {
+		return centerX[target];
+	}
+
+	/** @return the target's vertical position */
+	public double getCenterY(int target) {
+		return centerY[target];
+	}
+
+	/** @return the target's area */
+	public double getArea(int target) {
+		return area[target];
+	}
+
+	/** @return the distance to the target, or NaN if not measured */
+	public double getDistance(int target) {
+		return distance[target];
+	}
+
+	/** @return degrees from the camera's axis to the target, positive to the right */
+	public double getAngle(int target) {
+		return angle[target];
+	}
+}
@@ -0,0 +1,378 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntSupplier;
+
+import edu.wpi.first.wpilibj.vision.VisionPipeline;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Headless replay of recorded frames through GripPipeline, for comparing pipeline changes on a
+ * desktop without a robot or a camera.
+ *
+ * <p>Usage: {@code ./gradlew replay --args="<frames dir | video.avi | stream.mjpeg> [--csv out.csv] [--loops N] [--warmup N] [--grip pipeline.grip]"}
+ *
+ * <p>A directory is read as every jpg/png in name order. A .mjpeg/.mjpg file is read as
+ * back-to-back JPEGs (what a cscore MJPEG stream looks like when saved to disk), and anything else
+ * is opened with OpenCV's VideoCapture. Only the pipeline's process is timed; decoding is not.
+ *
+ * <p>With --grip the frames go through a .grip file loaded by GripProgram instead of GripPipeline.
+ */
+public final class VisionReplay {
+
+	private VisionReplay() {
+	}
+
+	public static void main(String... args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: VisionReplay <frames dir | video file> [--csv out.csv] [--loops N] [--warmup N] [--grip pipeline.grip]");
+			System.exit(1);
+		}
+		File input = new File(args[0]);
+		File csv = null;
+		File grip = null;
+		int loops = 1;
+		int warmup = 0;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--csv":
+					csv = new File(args[++i]);
+					break;
+				case "--loops":
+					loops = Integer.parseInt(args[++i]);
+					break;
+				case "--warmup":
+					warmup = Integer.parseInt(args[++i]);
+					break;
+				case "--grip":
+					grip = new File(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		VisionPipeline pipeline;
+		IntSupplier found, filtered;
+		ContourFilter contourFilter = null;
+		if (grip != null) {
+			// Keep the Find Contours output as well so it can be counted
+			GripProgram program = GripProgram.load(grip);
+			int findStep = program.stepIndex("Find Contours");
+			if (findStep >= 0) {
+				program = GripProgram.load(grip, findStep);
+			}
+			GripRuntimePipeline runtime = program.newPipeline();
+			pipeline = runtime;
+			found = findStep >= 0 ? () -> runtime.contoursOutput(findStep).size() : () -> 0;
+			filtered = () -> runtime.contoursOutput().size();
+		} else {
+			GripPipeline generated = new GripPipeline();
+			pipeline = generated;
+			found = () -> generated.findContoursOutput().size();
+			filtered = () -> generated.filterContoursOutput().size();
+			contourFilter = generated.contourFilter();
+		}
+		Mat frame = new Mat();
+
+		// Warm up the JIT so the first frames don't skew the percentiles
+		for (int w = 0; w < warmup; w++) {
+			FrameSource source = FrameSource.open(input);
+			while (source.next(frame)) {
+				pipeline.process(frame);
+			}
+			source.close();
+		}
+
+		Recording recording = new Recording();
+		long wallStart = System.nanoTime();
+		for (int loop = 0; loop < loops; loop++) {
+			FrameSource source = FrameSource.open(input);
+			while (source.next(frame)) {
+				long start = System.nanoTime();
+				pipeline.process(frame);
+				long latency = System.nanoTime() - start;
+				recording.add(source.name(), latency, found.getAsInt(), filtered.getAsInt());
+			}
+			source.close();
+		}
+		long wallNanos = System.nanoTime() - wallStart;
+		frame.release();
+
+		if (recording.size() == 0) {
+			System.err.println("No frames could be read from " + input);
+			System.exit(1);
+		}
+		recording.printSummary(wallNanos);
+		if (contourFilter != null) {
+			printFilterStatistics(contourFilter);
+		}
+		if (csv != null) {
+			recording.writeCsv(csv);
+			System.out.println("Wrote " + recording.size() + " frames to " + csv);
+		}
+	}
+
+	/**
+	 * Prints how many contours each filter predicate rejected, in the order the chain ended up running them.
+	 * Warmup frames are included.
+	 */
+	static void printFilterStatistics(ContourFilter filter) {
+		System.out.println("Filter:      predicate   rejected  evaluated  ns/contour  pass rate");
+		for (int p : filter.getOrder()) {
+			if (filter.getEvaluated(p) == 0) continue;
+			System.out.println(String.format(Locale.ROOT, "             %-10s %9d  %9d  %10.1f  %9.2f",
+				ContourFilter.predicateName(p), filter.getRejected(p), filter.getEvaluated(p),
+				filter.getCostNanos(p), filter.getPassRate(p)));
+		}
+	}
+
+	/**
+	 * Per-frame results, kept in primitive arrays so recording doesn't disturb the timings.
+	 */
+	static final class Recording {
+		private final List<String> names = new ArrayList<String>();
+		private long[] latencies = new long[1024];
+		private int[] found = new int[1024];
+		private int[] filtered = new int[1024];
+		private int size;
+
+		void add(String name, long latencyNanos, int foundCount, int filteredCount) {
+			if (size == latencies.length) {
+				latencies = Arrays.copyOf(latencies, 2 * size);
+				found = Arrays.copyOf(found, 2 * size);
+				filtered = Arrays.copyOf(filtered, 2 * size);
+			}
+			names.add(name);
+			latencies[size] = latencyNanos;
+			found[size] = foundCount;
+			filtered[size] = filteredCount;
+			size++;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void printSummary(long wallNanos) {
+			long[] sorted = Arrays.copyOf(latencies, size);
+			Arrays.sort(sorted);
+			long total = 0;
+			long contours = 0;
+			long targets = 0;
+			for (int i = 0; i < size; i++) {
+				total += latencies[i];
+				contours += found[i];
+				targets += filtered[i];
+			}
+			System.out.println(String.format(Locale.ROOT, "Frames:      %d", size));
+			System.out.println(String.format(Locale.ROOT, "Throughput:  %.1f fps pipeline, %.1f fps including decode",
+				size * 1e9 / total, size * 1e9 / wallNanos));
+			System.out.println(String.format(Locale.ROOT, "Latency ms:  p50 %.3f  p95 %.3f  p99 %.3f  max %.3f",
+				percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6,
+				percentile(sorted, 0.99) / 1e6, sorted[size - 1] / 1e6));
+			System.out.println(String.format(Locale.ROOT, "Contours:    %.2f found, %.2f passed filter per frame",
+				contours / (double)size, targets / (double)size));
+		}
+
+		void writeCsv(File file) throws IOException {
+			try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+				out.println("frame,source,latency_ms,found_contours,filtered_contours");
+				for (int i = 0; i < size; i++) {
+					out.println(String.format(Locale.ROOT, "%d,%s,%.4f,%d,%d",
+						i, names.get(i), latencies[i] / 1e6, found[i], filtered[i]));
+				}
+			}
+		}
+
+		/**
+		 * Nearest-rank percentile of sorted values.
+		 */
+		static long percentile(long[] sorted, double fraction) {
+			int rank = (int)Math.ceil(fraction * sorted.length);
+			return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+		}
+	}
+
+	/**
+	 * A sequence of BGR frames read from disk.
+	 */
+	abstract static class FrameSource {
+		/**
+		 * Reads the next frame into the given Mat.
+		 * @return false once there are no more frames
+		 */
+		abstract boolean next(Mat frame) throws IOException;
+
+		/**
+		 * A label for the frame last read, written to the CSV.
+		 */
+		abstract String name();
+
+		void close() {
+		}
+
+		static FrameSource open(File input) throws IOException {
+			String lower = input.getName().toLowerCase(Locale.ROOT);
+			if (input.isDirectory()) {
+				return new DirectorySource(input);
+			} else if (lower.endsWith(".mjpeg") || lower.endsWith(".mjpg")) {
+				return new MjpegSource(input);
+			} else {
+				return new VideoSource(input);
+			}
+		}
+	}
+
+	static final class DirectorySource extends FrameSource {
+		private final File[] files;
+		private int index = -1;
+
+		DirectorySource(File dir) {
+			File[] images = dir.listFiles((d, name) -> {
+				String lower = name.toLowerCase(Locale.ROOT);
+				return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+			});
+			files = images == null ? new File[0] : images;
+			Arrays.sort(files);
+		}
+
+		@Override
+		boolean next(Mat frame) {
+			while (++index < files.length) {
+				Mat image = Imgcodecs.imread(files[index].getAbsolutePath());
+				if (!image.empty()) {
+					image.copyTo(frame);
+					image.release();
+					return true;
+				}
+				System.err.println("Skipping unreadable image " + files[index]);
+			}
+			return false;
+		}
+
+		@Override
+		String name() {
+			return files[index].getName();
+		}
+	}
+
+	static final class MjpegSource extends FrameSource {
+		private final byte[] data;
+		private int offset;
+		private int count = -1;
+
+		MjpegSource(File file) throws IOException {
+			data = Files.readAllBytes(file.toPath());
+		}
+
+		@Override
+		boolean next(Mat frame) {
+			// Each frame runs from an SOI marker (FF D8) to the EOI marker (FF D9) that ends it. Anything between
+			// frames, like multipart headers, is skipped
+			while (true) {
+				int start = findSoi(offset);
+				if (start < 0) return false;
+				int end = frameEnd(start);
+				if (end < 0) return false;
+				offset = end;
+				count++;
+
+				MatOfByte jpeg = new MatOfByte();
+				jpeg.fromArray(Arrays.copyOfRange(data, start, end));
+				Mat image = Imgcodecs.imdecode(jpeg, Imgcodecs.IMREAD_COLOR);
+				jpeg.release();
+				if (!image.empty()) {
+					image.copyTo(frame);
+					image.release();
+					return true;
+				}
+				image.release();
+				System.err.println("Skipping undecodable frame " + name());
+			}
+		}
+
+		private int findSoi(int from) {
+			for (int i = from; i < data.length - 1; i++) {
+				if (data[i] == (byte)0xFF && data[i + 1] == (byte)0xD8) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Walks a JPEG's segments by their lengths, so an EOI inside one, like the end of an EXIF
+		 * thumbnail in APP1, isn't taken for the frame's.
+		 * @param start the frame's SOI marker
+		 * @return the offset just past the frame's EOI marker, or -1 if the data ends first
+		 */
+		private int frameEnd(int start) {
+			int i = start + 2;
+			while (i < data.length - 1) {
+				if (data[i] != (byte)0xFF) {
+					// Entropy-coded data after a start of scan, up to the next marker
+					i++;
+					continue;
+				}
+				int marker = data[i + 1] & 0xFF;
+				if (marker == 0xD9) {
+					return i + 2;
+				} else if (marker == 0x00 || marker == 0xFF || (marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+					// No length: FF 00 is a stuffed FF byte and FF D0-D7 a restart marker, both inside a scan;
+					// FF FF is fill before a marker, and FF 01 a marker with nothing after it
+					i += marker == 0xFF ? 1 : 2;
+				} else {
+					if (i + 3 >= data.length) return -1;
+					i += 2 + ((data[i + 2] & 0xFF) << 8 | (data[i + 3] & 0xFF));
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		String name() {
+			return "mjpeg#" + count;
+		}
+	}
+
+	static final class VideoSource extends FrameSource {
+		private final VideoCapture capture;
+		private int count = -1;
+
+		VideoSource(File file) throws IOException {
+			capture = new VideoCapture(file.getAbsolutePath());
+			if (!capture.isOpened()) {
+				throw new IOException("OpenCV could not open " + file);
+			}
+		}
+
+		@Override
+		boolean next(Mat frame) {
+			if (!capture.read(frame) || frame.empty()) return false;
+			count++;
+			return true;
+		}
+
+		@Override
+		String name() {
+			return "video#" + count;
+		}
+
+		@Override
+		void close() {
+			capture.release();
+		}
+	}
+}
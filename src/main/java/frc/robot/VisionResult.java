@@ -0,0 +1,121 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * An immutable snapshot of what the vision pipeline saw in one frame.
+ *
+ * <p>The vision listener builds a new VisionResult for every frame and publishes it through an
+ * AtomicReference; the control loop reads the reference whenever it likes. Neither side ever waits
+ * for the other, and because every value is final a reader can't see half of one frame and half of
+ * the next.
+ *
+ * <p>A result for a frame with no target is still published, with isValid() false, so readers can
+ * tell "no target" apart from "vision has stopped" by the age.
+ */
+public final class VisionResult {
+
+	/** The result before any frame has been processed. */
+	public static final VisionResult NONE = new VisionResult(false, 0, 0, 0, 0, 0, Double.NaN, Double.NaN);
+
+	private final boolean valid;
+	private final long sequence;
+	private final long captureTime;
+	private final long resultTime;
+	private final double centerX;
+	private final double centerY;
+	private final double area;
+	private final double distance;
+	private final double angle;
+
+	/**
+	 * @param valid whether a target was found
+	 * @param sequence the frame number, counting from 1
+	 * @param captureTime when the frame was captured, in FPGA microseconds
+	 * @param centerX the target's horizontal position
+	 * @param centerY the target's vertical position
+	 * @param area the target's area
+	 * @param distance the distance to the target, or NaN if the pipeline doesn't measure it
+	 * @param angle degrees from the camera's axis to the target, positive to the right, or NaN if not measured
+	 */
+	public VisionResult(boolean valid, long sequence, long captureTime, double centerX, double centerY,
+			double area, double distance, double angle) {
+		this.valid = valid;
+		this.sequence = sequence;
+		this.captureTime = captureTime;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.area = area;
+		this.distance = distance;
+		this.angle = angle;
+		this.resultTime = RobotController.getFPGATime();
+	}
+
+	/**
+	 * A result for a frame where no target was found.
+	 */
+	public static VisionResult noTarget(long sequence, long captureTime) {
+		return new VisionResult(false, sequence, captureTime, 0, 0, 0, Double.NaN, Double.NaN);
+	}
+
+	/** @return whether a target was found in this frame */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/** @return the frame number, counting from 1, or 0 for NONE */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** @return when the frame was captured, in FPGA microseconds */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/** @return when this result was created, in FPGA microseconds */
+	public long getResultTime() {
+		return resultTime;
+	}
+
+	/** @return seconds since the frame was captured */
+	public double getAgeSeconds() {
+		return (RobotController.getFPGATime() - captureTime) / 1e6;
+	}
+
+	/**
+	 * @param maxAgeSeconds how old a result may be and still be acted on
+	 * @return whether a target was found in a frame captured no more than maxAgeSeconds ago
+	 */
+	public boolean isFresh(double maxAgeSeconds) {
+		return valid && getAgeSeconds() <= maxAgeSeconds;
+	}
+
+	/** @return the target's horizontal position */
+	public double getCenterX() {
+		return centerX;
+	}
+
+	/** @return the target's vertical position */
+	public double getCenterY() {
+		return centerY;
+	}
+
+	/** @return the target's area */
+	public double getArea() {
+		return area;
+	}
+
+	/** @return the distance to the target, or NaN if the pipeline doesn't measure it */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return degrees from the camera's axis to the target when the frame was captured, positive to
+	 * the right, or NaN if the pipeline doesn't measure it
+	 */
+	public double getAngle() {
+		return angle;
+	}
+}
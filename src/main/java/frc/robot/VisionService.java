@@ -0,0 +1,193 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.cscore.UsbCamera;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.wpilibj.CameraServer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Runs GripPipeline on a coprocessor instead of the roboRIO, so vision doesn't compete with the
+ * control loop for the roboRIO's two cores. Each frame's targets go to the robot as one VisionPacket
+ * in a raw NetworkTables entry, which VisionClient turns back into VisionResults; pass one to Guidance
+ * to use it.
+ *
+ * <p>Usage: {@code java -cp robot.jar frc.robot.VisionService [--team N | --server host] [--camera N | --replay <frames dir | video file>] [--width N] [--height N] [--fps N] [--distance distance.cal] [--table name]}
+ *
+ * <p>The pipeline runs through a PipelinedVisionRunner with window tracking, as it does on the robot,
+ * and the camera is streamed to the dashboard through CameraServer. With --replay, recorded frames are
+ * played through a CvSource at the frame rate instead of using a camera. The pipeline's timings are
+ * published under the table's Metrics subtable.
+ *
+ * <p>To try it on one Linux box, start a NetworkTables server with {@code ./gradlew visionClientCheck},
+ * which prints what a VisionClient receives, then {@code ./gradlew visionService} to replay the bundled
+ * images to it.
+ *
+ * <p>It needs the OpenCV, cscore, ntcore and HAL natives on java.library.path, as the desktop gradle
+ * tasks extract them.
+ */
+public final class VisionService {
+
+	// The horizontal field of view of the MS Lifecam in degrees, as in Guidance
+	private static final double CAMERA_FOV_HORIZ = 61;
+
+	private final NetworkTableInstance inst;
+	private final NetworkTableEntry targetsEntry;
+	private final VisionMetrics metrics;
+	private final PipelinedVisionRunner<GripPipeline> runner;
+
+	// Only used by the listener, which runs one frame at a time
+	private final TargetGeometry geometry;
+	private final VisionPacket packet = new VisionPacket();
+	private long frameId;
+
+	private VisionService(NetworkTableInstance inst, String tableName, VideoSource source, int width, int height,
+			DistanceTable distanceTable) {
+		this.inst = inst;
+		targetsEntry = inst.getTable(tableName).getEntry(VisionClient.TARGETS_ENTRY);
+		metrics = new VisionMetrics(inst.getTable(tableName).getSubTable("Metrics"), 128, 0.5);
+		geometry = new TargetGeometry(width, height, CAMERA_FOV_HORIZ, distanceTable);
+		RoiTracker roiTracker = new RoiTracker();
+		runner = new PipelinedVisionRunner<GripPipeline>(source, () -> {
+			GripPipeline pipeline = new GripPipeline(roiTracker, height);
+			pipeline.setMetrics(metrics);
+			return pipeline;
+		}, this::publish);
+		runner.setMetrics(metrics);
+	}
+
+	/**
+	 * Packs the frame's targets in the filter's order, so the first is the one Guidance aims at, and
+	 * sends them straight away.
+	 */
+	private void publish(GripPipeline pipeline) {
+		long captureTime = runner.getLastCaptureTime();
+		packet.clear(++frameId, captureTime);
+		int found = Math.min(pipeline.filterContoursOutput().size(), VisionPacket.MAX_TARGETS);
+		for (int i = 0; i < found; i++) {
+			geometry.measure(pipeline, i);
+			packet.add(geometry.getCenterX(), geometry.getCenterY(), geometry.getArea(), geometry.getDistance(),
+					geometry.getAngle());
+		}
+		// cscore stamps frames with the same clock NetworkTables uses
+		long now = NetworkTablesJNI.now();
+		packet.setLatencyMicros(now - captureTime);
+		targetsEntry.setRaw(packet.encode());
+		// Send now rather than at the next 100ms update
+		inst.flush();
+		metrics.publish(now);
+	}
+
+	public static void main(String... args) throws IOException, InterruptedException {
+		int team = 0;
+		String server = "localhost";
+		int device = 0;
+		File replay = null;
+		int width = 320, height = 240, fps = 30;
+		File distanceFile = null;
+		String tableName = VisionClient.DEFAULT_TABLE;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--team":
+					team = Integer.parseInt(args[++i]);
+					break;
+				case "--server":
+					server = args[++i];
+					break;
+				case "--camera":
+					device = Integer.parseInt(args[++i]);
+					break;
+				case "--replay":
+					replay = new File(args[++i]);
+					break;
+				case "--width":
+					width = Integer.parseInt(args[++i]);
+					break;
+				case "--height":
+					height = Integer.parseInt(args[++i]);
+					break;
+				case "--fps":
+					fps = Integer.parseInt(args[++i]);
+					break;
+				case "--distance":
+					distanceFile = new File(args[++i]);
+					break;
+				case "--table":
+					tableName = args[++i];
+					break;
+				default:
+					System.err.println("Usage: VisionService [--team N | --server host] [--camera N | --replay <frames dir | video file>]"
+							+ " [--width N] [--height N] [--fps N] [--distance distance.cal] [--table name]");
+					System.exit(1);
+			}
+		}
+
+		NetworkTableInstance inst = NetworkTableInstance.getDefault();
+		if (team > 0) {
+			inst.startClientTeam(team);
+		} else {
+			inst.startClient(server);
+		}
+		DistanceTable distanceTable = distanceFile != null ? DistanceTable.load(distanceFile) : null;
+
+		VideoSource source;
+		CvSource replaySource = null;
+		if (replay != null) {
+			replaySource = new CvSource("replay", VideoMode.PixelFormat.kBGR, width, height, fps);
+			source = replaySource;
+		} else {
+			UsbCamera camera = new UsbCamera("coprocessor", device);
+			camera.setResolution(width, height);
+			camera.setFPS(fps);
+			camera.setBrightness(0);
+			camera.setExposureManual(0);
+			source = camera;
+		}
+		CameraServer.getInstance().startAutomaticCapture(source);
+
+		VisionService service = new VisionService(inst, tableName, source, width, height, distanceTable);
+		service.runner.start();
+		System.out.println("Publishing " + tableName + "/" + VisionClient.TARGETS_ENTRY + " to "
+				+ (team > 0 ? "team " + team : server));
+
+		if (replaySource == null) {
+			while (true) {
+				Thread.sleep(1000);
+			}
+		}
+		// Play the frames on a loop at the frame rate, as a camera would
+		Mat frame = new Mat();
+		Mat scaled = new Mat();
+		Size size = new Size(width, height);
+		long frameNanos = 1000000000L / fps;
+		long next = System.nanoTime();
+		VisionReplay.FrameSource frames = VisionReplay.FrameSource.open(replay);
+		while (true) {
+			if (!frames.next(frame)) {
+				frames.close();
+				frames = VisionReplay.FrameSource.open(replay);
+				if (!frames.next(frame)) {
+					System.err.println("No frames could be read from " + replay);
+					System.exit(1);
+				}
+			}
+			Imgproc.resize(frame, scaled, size);
+			replaySource.putFrame(scaled);
+			next += frameNanos;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				Thread.sleep(sleep / 1000000, (int)(sleep % 1000000));
+			}
+		}
+	}
+}
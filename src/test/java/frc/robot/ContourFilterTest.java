@@ -0,0 +1,267 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks ContourFilter against the filterContours step GRIP generated, which it replaces: for any
+ * contours and parameters, the same contours must pass in the same order.
+ */
+public class ContourFilterTest {
+
+	private static final int WIDTH = 640, HEIGHT = 480;
+
+	@BeforeClass
+	public static void loadOpenCv() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	@Test
+	public void matchesGeneratedFilterOnRandomContours() {
+		Random random = new Random(5572);
+		ContourFilter filter = new ContourFilter();
+		for (int set = 0; set < 2000; set++) {
+			List<MatOfPoint> contours = randomContours(random);
+			double[] p = randomParameters(random);
+			assertSameOutput("parameter set " + set, contours, p, filter);
+		}
+	}
+
+	@Test
+	public void matchesGeneratedFilterOnDegenerateContours() {
+		List<MatOfPoint> contours = new ArrayList<>();
+		// One and two points, and the same point repeated
+		contours.add(contour(5, 5));
+		contours.add(contour(5, 5, 9, 5));
+		contours.add(contour(5, 5, 5, 30));
+		contours.add(contour(7, 7, 7, 7, 7, 7));
+		// Collinear runs, which findContours gives for one pixel wide lines: horizontal, vertical and diagonal,
+		// out and back
+		contours.add(contour(10, 10, 20, 10, 30, 10, 20, 10));
+		contours.add(contour(10, 10, 10, 40, 10, 90, 10, 40));
+		contours.add(contour(0, 0, 10, 10, 20, 20, 30, 30, 20, 20, 10, 10));
+		// A triangle with collinear points along its edges, whose hull has to drop them
+		contours.add(contour(0, 0, 10, 0, 20, 0, 20, 10, 20, 20, 10, 10));
+
+		ContourFilter filter = new ContourFilter();
+		// Every contour above has zero area but the last, so the solidity of all but the last is 0 / 0, NaN. NaN
+		// compares false both ways, so the generated step keeps them through any solidity range
+		double[][] parameters = {
+			{0, 0, 0, 1000, 0, 1000, 0, 100, 1000000, 0, 0, 1000},
+			{0, 0, 0, 1000, 0, 1000, 20, 80, 1000000, 0, 0, 1000},
+			{0, 0, 0, 1000, 0, 1000, 100, 100, 1000000, 0, 0, 1000},
+			{1, 0, 0, 1000, 0, 1000, 20, 80, 1000000, 0, 0, 1000},
+			{0, 10, 2, 1000, 2, 1000, 0, 100, 1000000, 0, 0, 1000},
+			{0, 0, 0, 1000, 0, 1000, 0, 100, 4, 2, 0.5, 2},
+		};
+		for (int i = 0; i < parameters.length; i++) {
+			assertSameOutput("degenerate parameter set " + i, contours, parameters[i], filter);
+		}
+	}
+
+	/**
+	 * Reordering the chain may only change how soon a contour is rejected, never which contours pass. A
+	 * filter that samples every frame runs every predicate on every contour, so whatever order the
+	 * default filter has reached, its output must match.
+	 */
+	@Test
+	public void reorderingNeverChangesOutput() {
+		Random random = new Random(1);
+		ContourFilter chained = new ContourFilter(), sampled = new ContourFilter(1);
+		int[] initialOrder = chained.getOrder();
+		// GripPipeline's parameters, with solidity and ratio ranges so every kind of predicate is in the chain
+		double[] p = {100, 0, 0, 1000, 60, 1000, 50, 100, 1000000, 0, 0.2, 5};
+		for (int frame = 0; frame < 500; frame++) {
+			List<MatOfPoint> contours = randomContours(random);
+			if (frame > 0 && frame % 50 == 0) {
+				// Change the parameters now and then, so the chain has to reorder around a new set
+				p = randomParameters(random);
+			}
+			List<MatOfPoint> expected = new ArrayList<>(), actual = new ArrayList<>();
+			double[] solidity = {p[6], p[7]};
+			sampled.filter(contours, p[0], p[1], p[2], p[3], p[4], p[5], solidity, p[8], p[9], p[10], p[11], expected);
+			chained.filter(contours, p[0], p[1], p[2], p[3], p[4], p[5], solidity, p[8], p[9], p[10], p[11], actual);
+			assertEquals("frame " + frame, expected, actual);
+		}
+		// The chain must actually have been reordered for this to show anything
+		assertFalse(Arrays.equals(initialOrder, chained.getOrder()));
+	}
+
+	/**
+	 * Runs the filter and the generated step on the same contours, and checks the same contour objects
+	 * pass in the same order.
+	 * @param p minArea, minPerimeter, minWidth, maxWidth, minHeight, maxHeight, minSolidity, maxSolidity,
+	 *          maxVertexCount, minVertexCount, minRatio, maxRatio
+	 */
+	static void assertSameOutput(String message, List<MatOfPoint> contours, double[] p, ContourFilter filter) {
+		List<MatOfPoint> expected = new ArrayList<>(), actual = new ArrayList<>();
+		double[] solidity = {p[6], p[7]};
+		generatedFilterContours(contours, p[0], p[1], p[2], p[3], p[4], p[5], solidity, p[8], p[9], p[10], p[11], expected);
+		filter.filter(contours, p[0], p[1], p[2], p[3], p[4], p[5], solidity, p[8], p[9], p[10], p[11], actual);
+		assertEquals(message, expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(message + ", contour " + i, expected.get(i), actual.get(i));
+		}
+	}
+
+	/**
+	 * A frame's worth of contours: the boundaries findContours gives for random shapes, random simple
+	 * polygons, and a few degenerate ones.
+	 */
+	static List<MatOfPoint> randomContours(Random random) {
+		List<MatOfPoint> contours = new ArrayList<>();
+		Mat image = Mat.zeros(HEIGHT, WIDTH, CvType.CV_8UC1);
+		for (int i = random.nextInt(6); i > 0; i--) {
+			Point center = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+			if (random.nextBoolean()) {
+				Imgproc.rectangle(image, center, new Point(center.x + random.nextInt(120), center.y + random.nextInt(160)),
+						new Scalar(255), -1);
+			} else {
+				Imgproc.circle(image, center, 1 + random.nextInt(60), new Scalar(255), -1);
+			}
+		}
+		// Thin lines make collinear and out-and-back contours
+		for (int i = random.nextInt(3); i > 0; i--) {
+			Imgproc.line(image, new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT)),
+					new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT)), new Scalar(255), 1);
+		}
+		Imgproc.findContours(image, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+		image.release();
+
+		for (int i = random.nextInt(8); i > 0; i--) {
+			contours.add(randomPolygon(random));
+		}
+		switch (random.nextInt(4)) {
+			case 0:
+				contours.add(contour(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+				break;
+			case 1:
+				contours.add(contour(random.nextInt(WIDTH), random.nextInt(HEIGHT), random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+				break;
+			case 2: {
+				// Collinear, along a random direction
+				int x = random.nextInt(WIDTH / 2), y = random.nextInt(HEIGHT / 2), dx = random.nextInt(5), dy = random.nextInt(5);
+				int n = 3 + random.nextInt(10);
+				int[] xy = new int[2 * n];
+				for (int k = 0; k < n; k++) {
+					int step = random.nextInt(20);
+					xy[2 * k] = x + dx * step;
+					xy[2 * k + 1] = y + dy * step;
+				}
+				contours.add(contour(xy));
+				break;
+			}
+			default:
+				break;
+		}
+		return contours;
+	}
+
+	/**
+	 * A star-shaped polygon, which can't enclose more than its hull, as a findContours boundary can't.
+	 */
+	private static MatOfPoint randomPolygon(Random random) {
+		int n = 3 + random.nextInt(40);
+		double[] angles = new double[n];
+		for (int k = 0; k < n; k++) {
+			angles[k] = random.nextDouble() * 2 * Math.PI;
+		}
+		Arrays.sort(angles);
+		int cx = 100 + random.nextInt(WIDTH - 200), cy = 100 + random.nextInt(HEIGHT - 200);
+		int[] xy = new int[2 * n];
+		for (int k = 0; k < n; k++) {
+			double r = 1 + random.nextDouble() * 99;
+			xy[2 * k] = (int)Math.round(cx + r * Math.cos(angles[k]));
+			xy[2 * k + 1] = (int)Math.round(cy + r * Math.sin(angles[k]));
+		}
+		return contour(xy);
+	}
+
+	/**
+	 * Parameters as GRIP sets them: each bound either left at its default, which can't reject anything,
+	 * or set somewhere a real target could fall either side of.
+	 */
+	static double[] randomParameters(Random random) {
+		double minSolidity = random.nextBoolean() ? 0 : random.nextDouble() * 100;
+		double maxSolidity = random.nextBoolean() ? 100 : minSolidity + random.nextDouble() * (100 - minSolidity);
+		double minVertices = random.nextBoolean() ? 0 : random.nextInt(20);
+		return new double[] {
+			random.nextBoolean() ? 0 : random.nextDouble() * 3000,
+			random.nextBoolean() ? 0 : random.nextDouble() * 300,
+			random.nextBoolean() ? 0 : random.nextDouble() * 60,
+			random.nextBoolean() ? 1000 : 20 + random.nextDouble() * 200,
+			random.nextBoolean() ? 0 : random.nextDouble() * 60,
+			random.nextBoolean() ? 1000 : 20 + random.nextDouble() * 200,
+			minSolidity,
+			maxSolidity,
+			random.nextBoolean() ? 1000000 : minVertices + random.nextInt(40),
+			minVertices,
+			random.nextBoolean() ? 0 : random.nextDouble(),
+			random.nextBoolean() ? 1000 : 1 + random.nextDouble() * 3,
+		};
+	}
+
+	static MatOfPoint contour(int... xy) {
+		Point[] points = new Point[xy.length / 2];
+		for (int k = 0; k < points.length; k++) {
+			points[k] = new Point(xy[2 * k], xy[2 * k + 1]);
+		}
+		return new MatOfPoint(points);
+	}
+
+	/**
+	 * The filterContours step as GRIP generated it, before ContourFilter replaced it.
+	 */
+	private static void generatedFilterContours(List<MatOfPoint> inputContours, double minArea,
+		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
+		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
+		minRatio, double maxRatio, List<MatOfPoint> output) {
+		final MatOfInt hull = new MatOfInt();
+		output.clear();
+		//operation
+		for (int i = 0; i < inputContours.size(); i++) {
+			final MatOfPoint contour = inputContours.get(i);
+			final Rect bb = Imgproc.boundingRect(contour);
+			if (bb.width < minWidth || bb.width > maxWidth) continue;
+			if (bb.height < minHeight || bb.height > maxHeight) continue;
+			final double area = Imgproc.contourArea(contour);
+			if (area < minArea) continue;
+			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
+			Imgproc.convexHull(contour, hull);
+			MatOfPoint mopHull = new MatOfPoint();
+			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
+			for (int j = 0; j < hull.size().height; j++) {
+				int index = (int)hull.get(j, 0)[0];
+				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
+				mopHull.put(j, 0, point);
+			}
+			final double solid = 100 * area / Imgproc.contourArea(mopHull);
+			mopHull.release();
+			if (solid < solidity[0] || solid > solidity[1]) continue;
+			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
+			final double ratio = bb.width / (double)bb.height;
+			if (ratio < minRatio || ratio > maxRatio) continue;
+			output.add(contour);
+		}
+		hull.release();
+	}
+}
@@ -0,0 +1,142 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes loop logs with LoopLogger and reads them back with LoopLogDecoder.
+ */
+public class LoopLoggerTest {
+
+	private static final int FILE_RECORDS = 100, RING_RECORDS = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Logs records through a ring that wraps around many times, into a file that wraps around more than
+	 * once, and checks the decoder gives back the newest FILE_RECORDS, oldest first.
+	 */
+	@Test
+	public void wrappedLogDecodesNewestRecordsInOrder() throws IOException {
+		int total = 2 * FILE_RECORDS + 37;
+		File log = folder.newFile("loop-0001.bin");
+		try (LoopLogger logger = new LoopLogger(log, FILE_RECORDS, RING_RECORDS)) {
+			LoopRecord record = new LoopRecord();
+			for (int i = 0; i < total; i++) {
+				fill(record, i);
+				// The ring never fills, so nothing is dropped
+				if (i % (RING_RECORDS - 1) == 0) {
+					logger.flush();
+				}
+				assertTrue(logger.log(record));
+			}
+			assertEquals(total, logger.getLogged());
+			assertEquals(0, logger.getDropped());
+		}
+
+		List<String> rows = decode(log);
+		assertEquals(FILE_RECORDS, rows.size());
+		for (int k = 0; k < FILE_RECORDS; k++) {
+			assertRow(rows.get(k), total - FILE_RECORDS + k);
+		}
+	}
+
+	@Test
+	public void unwrappedLogDecodesEveryRecord() throws IOException {
+		File log = folder.newFile("loop-0002.bin");
+		try (LoopLogger logger = new LoopLogger(log, FILE_RECORDS, RING_RECORDS)) {
+			LoopRecord record = new LoopRecord();
+			for (int i = 0; i < 10; i++) {
+				fill(record, i);
+				logger.log(record);
+			}
+		}
+		List<String> rows = decode(log);
+		assertEquals(10, rows.size());
+		for (int k = 0; k < 10; k++) {
+			assertRow(rows.get(k), k);
+		}
+	}
+
+	/**
+	 * Logging faster than the flusher drops records rather than waiting; what was logged still decodes
+	 * in order, and the header counts the drops.
+	 */
+	@Test
+	public void fullRingDropsAndCountsRecords() throws IOException {
+		File log = folder.newFile("loop-0003.bin");
+		int attempts = RING_RECORDS + 20;
+		long logged, dropped;
+		try (LoopLogger logger = new LoopLogger(log, FILE_RECORDS, RING_RECORDS)) {
+			LoopRecord record = new LoopRecord();
+			int next = 0;
+			for (int i = 0; i < attempts; i++) {
+				fill(record, next);
+				if (logger.log(record)) {
+					next++;
+				}
+			}
+			logged = logger.getLogged();
+			dropped = logger.getDropped();
+		}
+		assertEquals(attempts, logged + dropped);
+		// The flusher sleeps before its first flush, so the loop above outruns it. Not exactly
+		// attempts - RING_RECORDS, in case it does get to flush in between
+		assertTrue(dropped > 0);
+		try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+			raf.seek(LoopLogger.DROPPED_OFFSET);
+			assertEquals(dropped, raf.readLong());
+		}
+		List<String> rows = decode(log);
+		assertEquals(logged, rows.size());
+		for (int k = 0; k < rows.size(); k++) {
+			assertRow(rows.get(k), k);
+		}
+	}
+
+	private List<String> decode(File log) throws IOException {
+		File csv = new File(folder.getRoot(), log.getName() + ".csv");
+		LoopLogDecoder.main(log.getPath(), "--out", csv.getPath());
+		List<String> lines = Files.readAllLines(csv.toPath());
+		assertEquals("time_us,loop,loop_us,RY1", lines.get(0).substring(0, 24));
+		return lines.subList(1, lines.size());
+	}
+
+	// Every field derived from the loop number, so a record out of place or half written shows
+	private static void fill(LoopRecord record, int loop) {
+		record.timestamp = 1000000L + loop * 50000L;
+		record.loop = loop;
+		record.loopMicros = 1000 + loop;
+		record.ry1 = loop / 1000f;
+		record.ly1 = -loop / 1000f;
+		record.buttons = loop & ((1 << LoopRecord.BUTTONS.length) - 1);
+		record.solenoids = loop & ((1 << LoopRecord.SOLENOIDS.length) - 1);
+		record.armState = loop % Arm.Direction.values().length;
+		record.driveScale = loop % 2 == 0 ? 0.9f : -0.9f;
+	}
+
+	private static void assertRow(String row, int loop) {
+		String[] columns = row.split(",");
+		assertEquals(row, Long.toString(1000000L + loop * 50000L), columns[0]);
+		assertEquals(row, Integer.toString(loop), columns[1]);
+		assertEquals(row, Integer.toString(1000 + loop), columns[2]);
+		assertEquals(row, loop / 1000.0, Double.parseDouble(columns[3]), 1e-4);
+		assertEquals(row, -loop / 1000.0, Double.parseDouble(columns[4]), 1e-4);
+		// The first button column, A1
+		assertEquals(row, Integer.toString(loop & 1), columns[9]);
+		int arm = 9 + LoopRecord.BUTTONS.length + LoopRecord.SOLENOIDS.length;
+		assertEquals(row, Arm.Direction.values()[loop % Arm.Direction.values().length].name(), columns[arm]);
+		assertEquals(row, loop % 2 == 0 ? 0.9 : -0.9, Double.parseDouble(columns[columns.length - 1]), 1e-4);
+	}
+}
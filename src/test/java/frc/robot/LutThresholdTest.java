@@ -0,0 +1,153 @@
+package frc.robot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks LutThreshold against the cvtColor and inRange threshold it replaces.
+ */
+public class LutThresholdTest {
+
+	private static final int CELLS = 64, STEP = 256 / CELLS;
+
+	// hue, sat and lum min and max
+	private static final double[][] RANGES = {
+		// GripPipeline's, with fractional bounds that inRange rounds
+		{9.712230215827338, 70.01866083924669, 199.50539568345317, 255.0, 30.07566043909661, 255.0},
+		{0, 180, 0, 255, 0, 255},
+		{60, 90, 100, 200, 50, 150},
+		// Halves, which round to even
+		{10.5, 11.5, 20.5, 200.5, 30.5, 254.5},
+		// Outside 0-255, which inRange clamps
+		{-5, 300, -0.4, 255.4, -1, 256},
+		{90, 30, 0, 255, 0, 255},
+	};
+
+	@BeforeClass
+	public static void loadOpenCv() {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/**
+	 * The table classifies the centre of each colour cell exactly, so at the centres it must agree with
+	 * OpenCV everywhere.
+	 */
+	@Test
+	public void matchesOpenCvAtEveryCellCentre() {
+		byte[] bgr = new byte[3 * CELLS * CELLS * CELLS];
+		int p = 0;
+		for (int b = 0; b < CELLS; b++) {
+			for (int g = 0; g < CELLS; g++) {
+				for (int r = 0; r < CELLS; r++) {
+					bgr[p++] = (byte)(b * STEP + STEP / 2);
+					bgr[p++] = (byte)(g * STEP + STEP / 2);
+					bgr[p++] = (byte)(r * STEP + STEP / 2);
+				}
+			}
+		}
+		Mat image = new Mat(CELLS * CELLS, CELLS, CvType.CV_8UC3);
+		image.put(0, 0, bgr);
+
+		LutThreshold lut = new LutThreshold();
+		for (double[] range : RANGES) {
+			assertArrayEquals(describe(range), openCvMask(image, range), lutMask(lut, image, range));
+		}
+		image.release();
+	}
+
+	/**
+	 * Over every 8-bit colour, the table may only disagree with OpenCV in cells that OpenCV itself splits,
+	 * those straddling a range edge.
+	 */
+	@Test
+	public void differsFromOpenCvOnlyInCellsOnARangeEdge() {
+		byte[] bgr = new byte[3 * 256 * 256 * 256];
+		int p = 0;
+		for (int b = 0; b < 256; b++) {
+			for (int g = 0; g < 256; g++) {
+				for (int r = 0; r < 256; r++) {
+					bgr[p++] = (byte)b;
+					bgr[p++] = (byte)g;
+					bgr[p++] = (byte)r;
+				}
+			}
+		}
+		Mat image = new Mat(4096, 4096, CvType.CV_8UC3);
+		image.put(0, 0, bgr);
+
+		LutThreshold lut = new LutThreshold();
+		for (double[] range : new double[][] {RANGES[0], RANGES[2]}) {
+			byte[] expected = openCvMask(image, range), actual = lutMask(lut, image, range);
+			// Whether OpenCV put any colour of each cell in range, and any out of it
+			boolean[] anyIn = new boolean[CELLS * CELLS * CELLS], anyOut = new boolean[CELLS * CELLS * CELLS];
+			for (int i = 0; i < expected.length; i++) {
+				int cell = cell(i);
+				if (expected[i] != 0) {
+					anyIn[cell] = true;
+				} else {
+					anyOut[cell] = true;
+				}
+			}
+			int differing = 0;
+			for (int i = 0; i < expected.length; i++) {
+				if (expected[i] != actual[i]) {
+					int cell = cell(i);
+					assertTrue(describe(range) + ": colour " + Integer.toHexString(i) + " differs in a cell OpenCV doesn't split",
+							anyIn[cell] && anyOut[cell]);
+					differing++;
+				}
+			}
+			assertTrue(describe(range) + ": " + differing + " colours differ", differing < expected.length / 100);
+		}
+		image.release();
+	}
+
+	@Test
+	public void roundsBoundsAsInRangeDoes() {
+		assertEquals(30, LutThreshold.bound(30.07566043909661));
+		assertEquals(200, LutThreshold.bound(199.50539568345317));
+		assertEquals(10, LutThreshold.bound(10.5));
+		assertEquals(12, LutThreshold.bound(11.5));
+		assertEquals(0, LutThreshold.bound(-5));
+		assertEquals(255, LutThreshold.bound(300));
+	}
+
+	// The colour at (b << 16 | g << 8 | r) belongs to cell (b / 4, g / 4, r / 4)
+	private static int cell(int colour) {
+		int b = colour >>> 16, g = (colour >>> 8) & 0xFF, r = colour & 0xFF;
+		return (b / STEP) * CELLS * CELLS + (g / STEP) * CELLS + r / STEP;
+	}
+
+	private static byte[] openCvMask(Mat image, double[] range) {
+		Mat out = new Mat();
+		Imgproc.cvtColor(image, out, Imgproc.COLOR_BGR2HLS);
+		Core.inRange(out, new Scalar(range[0], range[4], range[2]), new Scalar(range[1], range[5], range[3]), out);
+		byte[] mask = new byte[(int)out.total()];
+		out.get(0, 0, mask);
+		out.release();
+		return mask;
+	}
+
+	private static byte[] lutMask(LutThreshold lut, Mat image, double[] range) {
+		Mat out = new Mat();
+		lut.threshold(image, new double[] {range[0], range[1]}, new double[] {range[2], range[3]},
+				new double[] {range[4], range[5]}, out);
+		byte[] mask = new byte[(int)out.total()];
+		out.get(0, 0, mask);
+		out.release();
+		return mask;
+	}
+
+	private static String describe(double[] range) {
+		return "hue " + range[0] + "-" + range[1] + ", sat " + range[2] + "-" + range[3] + ", lum " + range[4] + "-" + range[5];
+	}
+}
@@ -0,0 +1,161 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Runs a SubsystemScheduler through simulated 50 ms robot loops.
+ */
+public class SubsystemSchedulerTest {
+
+	private static final long LOOP_MICROS = 50000;
+	private static final int BUTTON = 0, STICK = 1, OTHER = 2;
+
+	private NetworkTableInstance instance;
+	private SubsystemScheduler scheduler;
+	private final List<String> ran = new ArrayList<>();
+	// This loop's inputs, as Robot keeps them in fields for its subsystems to read
+	private double button, stick, other;
+
+	@Before
+	public void createScheduler() {
+		instance = NetworkTableInstance.create();
+		Telemetry telemetry = new Telemetry(instance.getTable("SmartDashboard"));
+		scheduler = new SubsystemScheduler(4, telemetry, instance.getTable("Subsystems"));
+	}
+
+	@After
+	public void closeInstance() {
+		instance.close();
+	}
+
+	private int add(String name, double periodSeconds, int... inputs) {
+		return scheduler.add(name, periodSeconds, now -> ran.add(name), inputs);
+	}
+
+	// Runs one loop with the given input values, returning the subsystems that ran in order
+	private List<String> loop(int index, double button, double stick) {
+		this.button = button;
+		this.stick = stick;
+		ran.clear();
+		scheduler.input(BUTTON, button);
+		scheduler.input(STICK, stick);
+		scheduler.input(OTHER, other);
+		scheduler.run(index * LOOP_MICROS);
+		return new ArrayList<>(ran);
+	}
+
+	@Test
+	public void runsOnlyWhenAnInputChanges() {
+		int button = add("button", 1, BUTTON);
+		int stick = add("stick", 1, STICK);
+
+		// Everything runs in the first loop
+		assertEquals(Arrays.asList("button", "stick"), loop(0, 0, 0));
+		assertEquals(Arrays.asList(), loop(1, 0, 0));
+		assertEquals(Arrays.asList("button"), loop(2, 1, 0));
+		// Held: no change
+		assertEquals(Arrays.asList(), loop(3, 1, 0));
+		assertEquals(Arrays.asList("stick"), loop(4, 1, 0.5));
+		assertEquals(Arrays.asList("button", "stick"), loop(5, 0, 0.25));
+		assertEquals(Arrays.asList(), loop(6, 0, 0.25));
+
+		assertEquals(3, scheduler.getRuns(button));
+		assertEquals(4, scheduler.getSkips(button));
+		assertEquals(3, scheduler.getRuns(stick));
+		assertEquals(4, scheduler.getSkips(stick));
+		assertEquals(0, scheduler.getFaults(button));
+	}
+
+	@Test
+	public void refreshesOnceAPeriodWithoutChanges() {
+		int refreshed = add("refreshed", 1, OTHER);
+		int everyLoop = add("everyLoop", 0, OTHER);
+
+		List<Integer> runs = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			// A change at loop 70 runs it then, and restarts the period from there
+			other = i < 70 ? 0 : 1;
+			List<String> ran = loop(i, 0, 0);
+			assertTrue(ran.contains("everyLoop"));
+			if (ran.contains("refreshed")) {
+				runs.add(i);
+			}
+		}
+		// 20 loops of 50 ms to the second
+		assertEquals(Arrays.asList(0, 20, 40, 60, 70, 90), runs);
+		assertEquals(6, scheduler.getRuns(refreshed));
+		assertEquals(94, scheduler.getSkips(refreshed));
+		assertEquals(100, scheduler.getRuns(everyLoop));
+		assertEquals(0, scheduler.getSkips(everyLoop));
+	}
+
+	/**
+	 * Like the intake arm and the belt: the first subsystem moves the arm from a button, the second runs
+	 * the intake motor from where the arm is. Sharing the button, the second must run in the same loop,
+	 * after the first, and see the arm already moved.
+	 */
+	@Test
+	public void subsystemsSharingAnInputRunInTheOrderAdded() {
+		double[] arm = new double[1];
+		List<Double> motor = new ArrayList<>();
+		scheduler.add("arm", 1, now -> {
+			ran.add("arm");
+			arm[0] = button;
+		}, BUTTON);
+		scheduler.add("intake", 1, now -> {
+			ran.add("intake");
+			motor.add(arm[0] * (stick + 1));
+		}, BUTTON, STICK);
+
+		assertEquals(Arrays.asList("arm", "intake"), loop(0, 0, 0));
+		assertEquals(Arrays.asList(0.0), motor);
+		// The button moves the arm, and the intake follows in the same loop
+		assertEquals(Arrays.asList("arm", "intake"), loop(1, 1, 0));
+		assertEquals(Arrays.asList(0.0, 1.0), motor);
+		// The stick alone only runs the intake
+		assertEquals(Arrays.asList("intake"), loop(2, 1, 0.5));
+		assertEquals(Arrays.asList(0.0, 1.0, 1.5), motor);
+		assertEquals(Arrays.asList("arm", "intake"), loop(3, 0, 0.5));
+		assertEquals(Arrays.asList(0.0, 1.0, 1.5, 0.0), motor);
+	}
+
+	/**
+	 * A subsystem that throws doesn't stop the others running that loop, and runs again every loop,
+	 * input change or not, until it gets through.
+	 */
+	@Test
+	public void faultingSubsystemIsRetriedUntilItSucceeds() {
+		int[] throwsLeft = {2};
+		add("before", 1, BUTTON);
+		int flaky = scheduler.add("flaky", 1, now -> {
+			ran.add("flaky");
+			if (throwsLeft[0]-- > 0) {
+				throw new IllegalStateException("motor controller not responding");
+			}
+		}, BUTTON);
+		add("after", 1, BUTTON);
+
+		assertEquals(Arrays.asList("before", "flaky", "after"), loop(0, 0, 0));
+		assertEquals(1, scheduler.getFaults(flaky));
+		// No input changed, but the fault makes it due
+		assertEquals(Arrays.asList("flaky"), loop(1, 0, 0));
+		assertEquals(2, scheduler.getFaults(flaky));
+		// Gets through this time, and is then left alone
+		assertEquals(Arrays.asList("flaky"), loop(2, 0, 0));
+		assertEquals(2, scheduler.getFaults(flaky));
+		assertEquals(Arrays.asList(), loop(3, 0, 0));
+		assertEquals(3, scheduler.getRuns(flaky));
+		assertEquals(1, scheduler.getSkips(flaky));
+	}
+}
@@ -0,0 +1,134 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks TargetTracker on a bearing moving at a constant rate, measured by 20 fps vision with half a
+ * degree of noise.
+ */
+public class TargetTrackerTest {
+
+	private static final long FRAME_MICROS = 50000;
+	private static final double START = 10, RATE = 15, NOISE = 0.5;
+
+	private static TargetTracker tracker() {
+		return new TargetTracker(1, NOISE, 20, 0.2, 0.5);
+	}
+
+	// The true bearing, in degrees, at an FPGA time
+	private static double bearing(long time) {
+		return START + RATE * time / 1e6;
+	}
+
+	// Feeds noisy frames captured up to, not including, a time
+	private static void feed(TargetTracker tracker, Random random, long from, long to) {
+		for (long time = from; time < to; time += FRAME_MICROS) {
+			tracker.update(time, bearing(time) + NOISE * random.nextGaussian());
+		}
+	}
+
+	@Test
+	public void constantRateBearingConverges() {
+		TargetTracker tracker = tracker();
+		Random random = new Random(5572);
+		assertFalse(tracker.predict(0));
+
+		tracker.update(0, bearing(0));
+		assertTrue(tracker.predict(0));
+		double startVariance = tracker.getVariance();
+
+		feed(tracker, random, FRAME_MICROS, 3000000);
+		long last = 3000000 - FRAME_MICROS;
+		assertTrue(tracker.predict(last));
+		assertEquals(RATE, tracker.getVelocity(), 2);
+		assertEquals(bearing(last), tracker.getPosition(), 0.5);
+		assertTrue(tracker.getVariance() < startVariance);
+		assertFalse(tracker.isCoasting());
+		assertEquals(0, tracker.getRejected());
+
+		// Between frames, the prediction follows the velocity
+		assertTrue(tracker.predict(last + 30000));
+		assertEquals(bearing(last + 30000), tracker.getPosition(), 0.5);
+	}
+
+	@Test
+	public void outlierFrameIsRejected() {
+		TargetTracker tracker = tracker();
+		Random random = new Random(1);
+		feed(tracker, random, 0, 2000000);
+		long measurements = tracker.getMeasurements();
+
+		// One frame 30 degrees off, as from a reflection
+		tracker.update(2000000, bearing(2000000) + 30);
+		assertEquals(1, tracker.getRejected());
+		assertEquals(measurements, tracker.getMeasurements());
+		assertTrue(tracker.predict(2000000));
+		assertEquals(bearing(2000000), tracker.getPosition(), 0.5);
+		assertTrue(tracker.isCoasting());
+
+		// The next good frame is applied as normal
+		tracker.update(2050000, bearing(2050000));
+		assertEquals(measurements + 1, tracker.getMeasurements());
+		assertTrue(tracker.predict(2050000));
+		assertFalse(tracker.isCoasting());
+		assertEquals(bearing(2050000), tracker.getPosition(), 0.5);
+	}
+
+	@Test
+	public void trackRestartsWhenTheTargetReallyMoves() {
+		TargetTracker tracker = tracker();
+		feed(tracker, new Random(2), 0, 2000000);
+
+		// Vision switches to another target 40 degrees away: coasted over until enough frames agree
+		long time = 2000000;
+		for (int i = 1; i < TargetTracker.REJECTS_BEFORE_RESTART; i++, time += FRAME_MICROS) {
+			tracker.update(time, 70);
+			assertTrue(tracker.predict(time));
+			assertEquals(bearing(time), tracker.getPosition(), 0.5);
+		}
+		tracker.update(time, 70);
+		assertEquals(TargetTracker.REJECTS_BEFORE_RESTART, tracker.getRejected());
+		assertTrue(tracker.predict(time));
+		assertEquals(70, tracker.getPosition(), 1e-9);
+		assertEquals(0, tracker.getVelocity(), 1e-9);
+	}
+
+	@Test
+	public void lateFrameIsAppliedAtItsCaptureTime() {
+		TargetTracker tracker = tracker();
+		feed(tracker, new Random(3), 0, 2000000);
+
+		// A frame captured at 2 s reaches the control loop 80 ms later. Applied at its capture time, the
+		// prediction for now is where the target is now, not where it was when the frame was taken
+		long capture = 2000000, now = capture + 80000;
+		tracker.update(capture, bearing(capture));
+		assertTrue(tracker.predict(now));
+		assertEquals(bearing(now), tracker.getPosition(), 0.3);
+		assertEquals(0.08, tracker.getCoastSeconds(), 1e-9);
+
+		// A frame captured before the last one, arriving after it, is ignored
+		long measurements = tracker.getMeasurements();
+		tracker.update(capture - FRAME_MICROS, bearing(capture - FRAME_MICROS) + 5);
+		assertEquals(measurements, tracker.getMeasurements());
+		assertTrue(tracker.predict(now));
+		assertEquals(bearing(now), tracker.getPosition(), 0.3);
+	}
+
+	@Test
+	public void trackIsDroppedAfterCoastingTooLong() {
+		TargetTracker tracker = tracker();
+		feed(tracker, new Random(4), 0, 1000000);
+		long last = 1000000 - FRAME_MICROS;
+		tracker.miss(last + FRAME_MICROS);
+		assertTrue(tracker.predict(last + FRAME_MICROS));
+		assertTrue(tracker.isCoasting());
+		assertFalse(tracker.predict(last + 600000));
+		assertFalse(tracker.hasTrack());
+	}
+}